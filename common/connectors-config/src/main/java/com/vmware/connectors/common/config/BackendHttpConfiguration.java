@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.config;
+
+import com.vmware.connectors.common.http.AdaptiveConcurrencyLimiter;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
+import com.vmware.connectors.common.http.BulkheadFilter;
+import com.vmware.connectors.common.http.ConnectionPool;
+import com.vmware.connectors.common.http.DeadlineFilter;
+import com.vmware.connectors.common.http.HedgingFilter;
+import com.vmware.connectors.common.http.RateLimitTracker;
+import com.vmware.connectors.common.http.SingleFlightFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The WebClient connectors call their backends with, and what each call
+ * goes through on its way: the shared connection pool, and the filters and
+ * pacing that keep one slow or limited backend from holding up the rest.
+ */
+@Configuration
+public class BackendHttpConfiguration {
+
+    @Bean
+    public WebClient webClient(WebClient.Builder builder) {
+        return builder.build();
+    }
+
+    /*
+     * The connections to backends, shared by every WebClient built by Spring's
+     * WebClient.Builder. Limits are per backend host; times are in milliseconds.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionPool connectionPool(@Value("${connectors.http.maxConnections:100}") int maxConnections,
+                                         @Value("${connectors.http.acquireTimeout:10000}") long acquireTimeout,
+                                         @Value("${connectors.http.maxPendingAcquires:500}") int maxPendingAcquires,
+                                         @Value("${connectors.http.maxIdleTime:30000}") long maxIdleTime,
+                                         ObjectProvider<MeterRegistry> meterRegistry) {
+        ConnectionPool pool = new ConnectionPool("connectors", maxConnections, acquireTimeout, maxPendingAcquires, maxIdleTime);
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        Gauge.builder("connectors.http.pool.active", pool, ConnectionPool::activeConnections)
+                .description("Backend connections serving a request")
+                .register(registry);
+        Gauge.builder("connectors.http.pool.idle", pool, ConnectionPool::idleConnections)
+                .description("Backend connections waiting in the pool")
+                .register(registry);
+        Gauge.builder("connectors.http.pool.pending", pool, ConnectionPool::pendingAcquires)
+                .description("Requests waiting for a backend connection")
+                .register(registry);
+        return pool;
+    }
+
+    @Bean
+    public WebClientCustomizer connectionPoolCustomizer(ConnectionPool connectionPool,
+                                                        @Value("${connectors.http.connectTimeout:5000}") int connectTimeout,
+                                                        @Value("${connectors.http.responseTimeout:30000}") long responseTimeout) {
+        ClientHttpConnector connector = new ReactorClientHttpConnector(options -> options
+                .poolResources(connectionPool)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+                .afterNettyContextInit(context -> context.addHandlerLast(new ReadTimeoutHandler(responseTimeout, TimeUnit.MILLISECONDS))));
+        return builder -> builder.clientConnector(connector);
+    }
+
+    /*
+     * Caps the requests in flight (and waiting) to each backend host, so one
+     * slow tenant backend can't hold up requests to every other one.
+     */
+    @Bean
+    public BulkheadFilter bulkheadFilter(@Value("${connectors.http.bulkhead.maxConcurrent:50}") int maxConcurrent,
+                                         @Value("${connectors.http.bulkhead.maxWaiting:100}") int maxWaiting,
+                                         ObjectProvider<MeterRegistry> meterRegistry) {
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        Counter rejected = Counter.builder("connectors.http.bulkhead.rejected")
+                .description("Backend requests rejected because their host had too many in flight")
+                .register(registry);
+        BulkheadFilter filter = new BulkheadFilter(maxConcurrent, maxWaiting, rejected::increment);
+        Gauge.builder("connectors.http.bulkhead.inFlight", filter, BulkheadFilter::inFlight)
+                .description("Backend requests in flight")
+                .register(registry);
+        Gauge.builder("connectors.http.bulkhead.waiting", filter, BulkheadFilter::waiting)
+                .description("Backend requests waiting for their host's bulkhead")
+                .register(registry);
+        return filter;
+    }
+
+    /*
+     * Collapses identical GETs that are in flight at once (e.g. the same
+     * issue opened on several devices) into one backend call. A shared
+     * response is buffered, up to connectors.json.maxBodySize.
+     */
+    @Bean
+    public SingleFlightFilter singleFlightFilter(@Value("${connectors.json.maxBodySize:16777216}") long maxBodySize,
+                                                 ObjectProvider<MeterRegistry> meterRegistry) {
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        SingleFlightFilter filter = new SingleFlightFilter(maxBodySize);
+        FunctionCounter.builder("connectors.http.singleflight.requests", filter, SingleFlightFilter::requests)
+                .description("Backend GETs that went through the single-flight filter")
+                .register(registry);
+        FunctionCounter.builder("connectors.http.singleflight.coalesced", filter, SingleFlightFilter::coalesced)
+                .description("Backend GETs answered by an identical GET already in flight")
+                .register(registry);
+        Gauge.builder("connectors.http.singleflight.saved.ratio", filter, SingleFlightFilter::savedRatio)
+                .description("Fraction of backend GETs that didn't need a call of their own")
+                .register(registry);
+        return filter;
+    }
+
+    /*
+     * Sends a second attempt of GETs that opt in (see HedgingFilter.HEDGE) once
+     * they're slower than connectors.http.hedge.percentile of recent responses.
+     */
+    @Bean
+    public HedgingFilter hedgingFilter(@Value("${connectors.http.hedge.percentile:0.95}") double percentile,
+                                       @Value("${connectors.http.hedge.budget:0.05}") double budget,
+                                       ObjectProvider<MeterRegistry> meterRegistry) {
+        return new HedgingFilter(percentile, budget, meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    /*
+     * Times each backend call in connectors.http.backend.requests, by connector,
+     * URI template, method, status and outcome (see the actuator's /metrics).
+     */
+    @Bean
+    public BackendMetricsFilter backendMetricsFilter(@Value("${spring.application.name:connector}") String connector,
+                                                     ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BackendMetricsFilter(connector, meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    /*
+     * The first filter added sees a request first. The deadline covers the
+     * whole call, waiting included. Identical GETs are collapsed before
+     * they're hedged, and each attempt takes up a slot in its host's bulkhead.
+     * Only the time an attempt spends with the backend is in its metrics.
+     */
+    @Bean
+    public WebClientCustomizer backendFiltersCustomizer(SingleFlightFilter singleFlightFilter,
+                                                        HedgingFilter hedgingFilter,
+                                                        BulkheadFilter bulkheadFilter,
+                                                        BackendMetricsFilter backendMetricsFilter) {
+        return builder -> builder
+                .filter(new DeadlineFilter())
+                .filter(singleFlightFilter)
+                .filter(hedgingFilter)
+                .filter(bulkheadFilter)
+                .filter(backendMetricsFilter);
+    }
+
+    /*
+     * Paces the backend calls controllers fan out for a card request, adapting
+     * each backend's limit to its latency and errors.
+     */
+    @Bean
+    public AdaptiveConcurrencyLimiter concurrencyLimiter(@Value("${connectors.http.concurrency.initialLimit:10}") int initialLimit,
+                                                         @Value("${connectors.http.concurrency.maxLimit:50}") int maxLimit,
+                                                         @Value("${connectors.http.concurrency.maxWaiting:1000}") int maxWaiting,
+                                                         @Value("${connectors.http.concurrency.tolerance:2.0}") double tolerance,
+                                                         ObjectProvider<MeterRegistry> meterRegistry) {
+        return new AdaptiveConcurrencyLimiter(initialLimit, maxLimit, maxWaiting, tolerance,
+                meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    /*
+     * Paces card fetches for tokens that are running out of their backend's
+     * rate limit, and skips them once it's used up.
+     */
+    @Bean
+    public RateLimitTracker rateLimitTracker(@Value("${connectors.http.rateLimit.lowWatermark:0.1}") double lowWatermark,
+                                             @Value("${connectors.http.rateLimit.maxDelay:1000}") long maxDelay,
+                                             ObjectProvider<MeterRegistry> meterRegistry) {
+        Counter shortCircuited = Counter.builder("connectors.http.ratelimit.shortCircuited")
+                .description("Card fetches not sent because their token's rate limit was used up")
+                .register(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        return new RateLimitTracker(lowWatermark, maxDelay, shortCircuited::increment);
+    }
+}
@@ -5,44 +5,73 @@
 
 package com.vmware.connectors.common.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import com.jayway.jsonpath.spi.json.JsonSmartJsonProvider;
+import com.vmware.connectors.common.jfr.ConnectorEvents;
 import com.vmware.connectors.common.json.JsonDocumentDecoder;
+import com.vmware.connectors.common.json.ObjectMapperJsonProvider;
 import com.vmware.connectors.common.utils.CardTextAccessor;
+import com.vmware.connectors.common.utils.ReactiveMdc;
 import com.vmware.connectors.common.web.ConnectorRootController;
 import com.vmware.connectors.common.web.ExceptionHandlers;
 import com.vmware.connectors.common.web.MdcFilter;
+import com.vmware.connectors.common.web.RequestDeadlineFilter;
+import com.vmware.connectors.common.web.ServerTimingAdvice;
+import com.vmware.connectors.common.web.ServerTimingFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.autoconfigure.security.oauth2.resource.JwtAccessTokenConverterConfigurer;
 import org.springframework.boot.autoconfigure.security.oauth2.resource.JwtAccessTokenConverterRestTemplateCustomizer;
 import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
 import org.springframework.boot.web.codec.CodecCustomizer;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
 import org.springframework.boot.web.server.MimeMappings;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.boot.web.servlet.server.ConfigurableServletWebServerFactory;
 import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.Ordered;
+import org.springframework.hateoas.MediaTypes;
 import org.springframework.http.*;
 import org.springframework.http.converter.AbstractHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configurers.ResourceServerSecurityConfigurer;
+import org.springframework.web.bind.support.WebDataBinderFactory;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import reactor.core.Disposable;
 
 import javax.servlet.Filter;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -54,25 +83,82 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 @Configuration
 @AutoConfigureBefore(ServletWebServerFactoryAutoConfiguration.class)
-@Import({ExceptionHandlers.class, ConnectorRootController.class})
+@Import({ExceptionHandlers.class, ServerTimingAdvice.class, ConnectorRootController.class,
+        BackendHttpConfiguration.class, ReactiveConnectorsConfiguration.class})
 public class ConnectorsAutoConfiguration {
 
+    /*
+     * Static files whose type the servlet container (or, on the reactive
+     * stack, Spring) doesn't know by their extension.
+     */
+    static final Map<String, MediaType> STATIC_MEDIA_TYPES = ImmutableMap.of(
+            "hbs", MediaType.valueOf("text/x-handlebars-template"),
+            "hal", MediaTypes.HAL_JSON
+    );
 
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     public ConfigurableServletWebServerFactory webServerFactory() {
         TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory();
         MimeMappings mappings = new MimeMappings(MimeMappings.DEFAULT);
-        mappings.add("hbs", "text/x-handlebars-template");
-        mappings.add("hal", "application/hal+json");
+        STATIC_MEDIA_TYPES.forEach((extension, mediaType) -> mappings.add(extension, mediaType.toString()));
         factory.setMimeMappings(mappings);
         return factory;
     }
 
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     public Filter mdcFilter() {
         return new MdcFilter();
     }
 
+    /*
+     * Sets the request's MDC on whichever thread its reactive signals arrive
+     * on, so controllers can log from plain map/flatMap/doOnNext.
+     */
+    @Bean(destroyMethod = "dispose")
+    @ConditionalOnProperty(name = "connectors.mdc.hook", matchIfMissing = true)
+    public Disposable mdcHook() {
+        return ReactiveMdc.install();
+    }
+
+    /*
+     * Names the connector in its card build Flight Recorder events (see
+     * ConnectorEvents).
+     */
+    @Bean
+    public InitializingBean connectorEventsName(@Value("${spring.application.name:connector}") String connector) {
+        return () -> ConnectorEvents.setConnector(connector);
+    }
+
+    /*
+     * Card requests get the deadline they ask for in their X-Request-Deadline
+     * header, or else connectors.cards.deadline milliseconds. That's 0 by
+     * default, meaning no deadline, so card requests only start returning
+     * partial results once it's configured.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public FilterRegistrationBean<RequestDeadlineFilter> requestDeadlineFilter(@Value("${connectors.cards.deadline:0}") long deadline) {
+        FilterRegistrationBean<RequestDeadlineFilter> registration = new FilterRegistrationBean<>(new RequestDeadlineFilter(deadline));
+        registration.addUrlPatterns("/cards/requests");
+        return registration;
+    }
+
+    /*
+     * Card responses get a Server-Timing header (see ServerTimingAdvice), and
+     * those slower than connectors.cards.slowThreshold milliseconds are
+     * logged. It goes first, so Spring Security's time is counted.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public FilterRegistrationBean<ServerTimingFilter> serverTimingFilter(@Value("${connectors.cards.slowThreshold:2000}") long slowThreshold) {
+        FilterRegistrationBean<ServerTimingFilter> registration = new FilterRegistrationBean<>(new ServerTimingFilter(slowThreshold));
+        registration.addUrlPatterns("/cards/requests");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
 
     @Bean
     public JwtAccessTokenConverterRestTemplateCustomizer jwtAccessTokenConverterRestTemplateCustomizer() {
@@ -122,9 +208,32 @@ public class ConnectorsAutoConfiguration {
     }
 
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     public WebMvcConfigurer webMvcConfigurer(@Value("${static.cacheControl.maxAge:1}") long maxAge,
                                              @Value("${static.cacheControl.unit:DAYS}") TimeUnit unit) {
         return new WebMvcConfigurer() {
+            @Override
+            public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+                // Lets controllers take an HttpRequest, which works on either stack
+                resolvers.add(new HandlerMethodArgumentResolver() {
+                    @Override
+                    public boolean supportsParameter(MethodParameter parameter) {
+                        return HttpRequest.class.equals(parameter.getParameterType());
+                    }
+
+                    @Override
+                    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+                        ServletServerHttpRequest request =
+                                new ServletServerHttpRequest(webRequest.getNativeRequest(HttpServletRequest.class));
+                        // Its headers are copied in on first use, which isn't thread-safe, and
+                        // cards are built in parallel; copy them now, on the request's thread
+                        request.getHeaders();
+                        return request;
+                    }
+                });
+            }
+
             @Override
             public void addResourceHandlers(ResourceHandlerRegistry registry) {
                 CacheControl cacheControl = CacheControl.maxAge(maxAge, unit);
@@ -142,6 +251,7 @@ public class ConnectorsAutoConfiguration {
     }
 
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     public ResourceServerConfigurer resourceServer() {
         return new ResourceServerConfigurerAdapter() {
             @Override
@@ -177,13 +287,40 @@ public class ConnectorsAutoConfiguration {
         return new CardTextAccessor(messageSource);
     }
 
+    /*
+     * Builds (and reads) the JsonDocuments decoded from backend responses:
+     * "json-smart" (JsonPath's default) or "jackson" (the application ObjectMapper).
+     */
     @Bean
-    public WebClient webClient(WebClient.Builder builder) {
-        return builder.build();
+    @ConditionalOnMissingBean
+    public JsonProvider jsonProvider(@Value("${connectors.json.provider:json-smart}") String provider,
+                                     ObjectMapper objectMapper) {
+        switch (provider) {
+            case "json-smart":
+                return new JsonSmartJsonProvider();
+            case "jackson":
+                return new ObjectMapperJsonProvider(objectMapper);
+            default:
+                throw new IllegalArgumentException("connectors.json.provider must be json-smart or jackson, not " + provider);
+        }
     }
 
+    /*
+     * connectors.json.maxBodySize caps (in bytes, -1 for no limit) how much of a
+     * backend response is decoded, so one huge response can't swamp the heap.
+     */
     @Bean
-    public CodecCustomizer codecCustomizer() {
-        return configurer -> configurer.customCodecs().decoder(new JsonDocumentDecoder());
+    public CodecCustomizer codecCustomizer(@Value("${connectors.json.streamingDecoder:true}") boolean streamingDecoder,
+                                           @Value("${connectors.json.maxBodySize:16777216}") long maxBodySize,
+                                           JsonProvider jsonProvider,
+                                           ObjectMapper objectMapper,
+                                           ObjectProvider<MeterRegistry> meterRegistry) {
+        JsonDocumentDecoder decoder = new JsonDocumentDecoder(streamingDecoder, jsonProvider, objectMapper.getFactory());
+        decoder.setMaxBodySize(maxBodySize);
+        Counter tooLarge = Counter.builder("connectors.json.body.too.large")
+                .description("Backend responses abandoned for exceeding connectors.json.maxBodySize")
+                .register(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        decoder.setMaxBodySizeListener(tooLarge::increment);
+        return configurer -> configurer.customCodecs().decoder(decoder);
     }
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.config;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.vmware.connectors.common.web.FormParamsWebFilter;
+import com.vmware.connectors.common.web.MdcWebFilter;
+import com.vmware.connectors.common.web.RequestDeadlineWebFilter;
+import com.vmware.connectors.common.web.ServerTimingWebFilter;
+import com.vmware.connectors.common.web.UriVariablesModelAttributeResolver;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.JwtAccessTokenConverterConfigurer;
+import org.springframework.context.MessageSource;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.MessageSourceAccessor;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ReactiveAdapterRegistry;
+import org.springframework.hateoas.core.DefaultRelProvider;
+import org.springframework.hateoas.hal.Jackson2HalModule;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.store.JwtTokenStore;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.ServerAuthenticationEntryPoint;
+import org.springframework.security.web.server.authentication.AuthenticationWebFilter;
+import org.springframework.security.web.server.authentication.ServerAuthenticationEntryPointFailureHandler;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.web.reactive.BindingContext;
+import org.springframework.web.reactive.config.ResourceHandlerRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.result.method.SyncHandlerMethodArgumentResolver;
+import org.springframework.web.reactive.result.method.annotation.ArgumentResolverConfigurer;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.vmware.connectors.common.config.ConnectorsAutoConfiguration.STATIC_MEDIA_TYPES;
+
+/**
+ * Runs a connector on Netty and WebFlux instead of Tomcat and Spring MVC, so
+ * requests are handled on a few event-loop threads rather than a thread each.
+ * It's picked with:
+ * <pre>
+ * spring.main.web-application-type=reactive
+ * </pre>
+ * These beans stand in for the servlet ones in {@link ConnectorsAutoConfiguration}:
+ * <ul>
+ * <li>{@link MdcWebFilter}, {@link RequestDeadlineWebFilter} and
+ * {@link ServerTimingWebFilter} put the MDC, the card request deadline and
+ * its timing straight in the reactive context.</li>
+ * <li>vIDM JWTs are checked by a {@link SecurityWebFilterChain}, with the same
+ * public key properties and paths as the servlet resource server.</li>
+ * <li>Controllers get the {@link HttpRequest} (to build image URLs, for
+ * example) from the exchange.</li>
+ * <li>{@link FormParamsWebFilter} lets {@code @RequestParam} bind the fields
+ * of form posts, which WebFlux otherwise leaves to the query string, and
+ * {@link UriVariablesModelAttributeResolver} lets model attributes bind the
+ * path's variables.</li>
+ * <li>Static files are served with the same cache control and media types.</li>
+ * <li>The root discovery resource is written as HAL, as Spring MVC does.</li>
+ * </ul>
+ * Card streaming ({@link com.vmware.connectors.common.web.CardStreams}) is
+ * still a servlet stack feature; here a request for a card stream gets 406
+ * Not Acceptable.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveConnectorsConfiguration {
+
+    private static final String BEARER = "Bearer ";
+    private static final String UNAUTHORIZED_ERROR = "unauthorized";
+    private static final Duration KEY_FETCH_TIMEOUT = Duration.ofSeconds(30);
+
+    @Bean
+    public MdcWebFilter mdcWebFilter() {
+        return new MdcWebFilter();
+    }
+
+    @Bean
+    public FormParamsWebFilter formParamsWebFilter() {
+        return new FormParamsWebFilter();
+    }
+
+    /*
+     * Spring HATEOAS only gives Spring MVC its HAL ObjectMapper, so on WebFlux
+     * the root discovery resource would be written with "links" instead of
+     * "_links". The application ObjectMapper, which WebFlux writes JSON with,
+     * gets the HAL module here instead.
+     */
+    @Bean
+    public Module halModule() {
+        return new Jackson2HalModule();
+    }
+
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer halHandlerInstantiator(MessageSource messageSource,
+                                                                       AutowireCapableBeanFactory beanFactory) {
+        return builder -> builder.handlerInstantiator(new Jackson2HalModule.HalHandlerInstantiator(
+                new DefaultRelProvider(), null, new MessageSourceAccessor(messageSource), beanFactory));
+    }
+
+    @Bean
+    public RequestDeadlineWebFilter requestDeadlineWebFilter(@Value("${connectors.cards.deadline:0}") long deadline) {
+        return new RequestDeadlineWebFilter(deadline);
+    }
+
+    @Bean
+    public ServerTimingWebFilter serverTimingWebFilter(@Value("${connectors.cards.slowThreshold:2000}") long slowThreshold) {
+        return new ServerTimingWebFilter(slowThreshold);
+    }
+
+    /*
+     * Netty doesn't know the servlet container's mime mappings, so the static
+     * files it can't tell the type of get theirs here.
+     */
+    @Bean
+    public WebFilter staticMediaTypeFilter() {
+        return (exchange, chain) -> {
+            String extension = StringUtils.substringAfterLast(exchange.getRequest().getPath().value(), ".");
+            MediaType mediaType = STATIC_MEDIA_TYPES.get(extension);
+            if (mediaType != null) {
+                exchange.getResponse().beforeCommit(() -> {
+                    exchange.getResponse().getHeaders().setContentType(mediaType);
+                    return Mono.empty();
+                });
+            }
+            return chain.filter(exchange);
+        };
+    }
+
+    @Bean
+    public WebFluxConfigurer webFluxConfigurer(@Value("${static.cacheControl.maxAge:1}") long maxAge,
+                                               @Value("${static.cacheControl.unit:DAYS}") TimeUnit unit) {
+        return new WebFluxConfigurer() {
+            @Override
+            public void configureArgumentResolvers(ArgumentResolverConfigurer configurer) {
+                // Lets controllers take an HttpRequest, which works on either stack
+                configurer.addCustomResolver(new SyncHandlerMethodArgumentResolver() {
+                    @Override
+                    public boolean supportsParameter(MethodParameter parameter) {
+                        return HttpRequest.class.equals(parameter.getParameterType());
+                    }
+
+                    @Override
+                    public Object resolveArgumentValue(MethodParameter parameter, BindingContext bindingContext,
+                                                       ServerWebExchange exchange) {
+                        return exchange.getRequest();
+                    }
+                });
+                // Lets action model attributes bind the path's variables
+                configurer.addCustomResolver(new UriVariablesModelAttributeResolver(ReactiveAdapterRegistry.getSharedInstance()));
+            }
+
+            @Override
+            public void addResourceHandlers(ResourceHandlerRegistry registry) {
+                CacheControl cacheControl = CacheControl.maxAge(maxAge, unit);
+                registry.addResourceHandler("/templates/**")
+                        .addResourceLocations("classpath:/static/templates/")
+                        .setCacheControl(cacheControl);
+                registry.addResourceHandler("/discovery/**")
+                        .addResourceLocations("classpath:/static/discovery/")
+                        .setCacheControl(cacheControl);
+                registry.addResourceHandler("/images/**")
+                        .addResourceLocations("classpath:/static/images/")
+                        .setCacheControl(cacheControl);
+            }
+        };
+    }
+
+    /*
+     * Checks vIDM's JWTs the way the servlet resource server does: against
+     * security.oauth2.resource.jwt.key-value, or the key fetched from
+     * security.oauth2.resource.jwt.key-uri at startup.
+     */
+    @Bean
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public ReactiveAuthenticationManager jwtAuthenticationManager(@Value("${security.oauth2.resource.jwt.key-uri:}") String keyUri,
+                                                                  @Value("${security.oauth2.resource.jwt.key-value:}") String keyValue,
+                                                                  List<JwtAccessTokenConverterConfigurer> configurers,
+                                                                  WebClient.Builder webClientBuilder) throws Exception {
+        JwtAccessTokenConverter converter = new JwtAccessTokenConverter();
+        configurers.forEach(configurer -> configurer.configure(converter));
+        converter.setVerifierKey(StringUtils.isEmpty(keyValue) ? fetchKey(webClientBuilder, keyUri) : keyValue);
+        converter.afterPropertiesSet();
+
+        DefaultTokenServices tokenServices = new DefaultTokenServices();
+        tokenServices.setTokenStore(new JwtTokenStore(converter));
+
+        return authentication -> Mono.fromCallable(() -> (Authentication) tokenServices.loadAuthentication((String) authentication.getCredentials()))
+                .onErrorMap(OAuth2Exception.class, e -> new BadCredentialsException(e.getMessage(), e));
+    }
+
+    private static String fetchKey(WebClient.Builder webClientBuilder, String keyUri) {
+        return webClientBuilder.build()
+                .get()
+                .uri(keyUri)
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(KEY_FETCH_TIMEOUT);
+    }
+
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http,
+                                                         ReactiveAuthenticationManager jwtAuthenticationManager,
+                                                         ObjectMapper objectMapper) {
+        ServerAuthenticationEntryPoint unauthorized = (exchange, e) -> unauthorized(exchange, e, objectMapper);
+
+        AuthenticationWebFilter bearerFilter = new AuthenticationWebFilter(jwtAuthenticationManager);
+        bearerFilter.setAuthenticationConverter(exchange ->
+                Mono.justOrEmpty(exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION))
+                        .filter(header -> StringUtils.startsWithIgnoreCase(header, BEARER))
+                        .map(header -> {
+                            String token = header.substring(BEARER.length()).trim();
+                            return new PreAuthenticatedAuthenticationToken(token, token);
+                        }));
+        bearerFilter.setAuthenticationFailureHandler(new ServerAuthenticationEntryPointFailureHandler(unauthorized));
+        // Every request brings its own token; there's no session to keep it in
+        bearerFilter.setSecurityContextRepository(NoOpServerSecurityContextRepository.getInstance());
+
+        return http
+                .authorizeExchange()
+                .pathMatchers(HttpMethod.GET, "/health", "/templates/**", "/discovery/**", "/images/**", "/").permitAll()
+                .anyExchange().authenticated()
+                .and()
+                .addFilterAt(bearerFilter, SecurityWebFiltersOrder.AUTHENTICATION)
+                .exceptionHandling().authenticationEntryPoint(unauthorized)
+                .and()
+                .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+                .httpBasic().disable()
+                .formLogin().disable()
+                .logout().disable()
+                .csrf().disable()
+                .build();
+    }
+
+    /*
+     * Answers like the servlet resource server: an OAuth2 error in the body,
+     * "invalid_token" for a token that doesn't check out, "unauthorized" for
+     * a request without one.
+     */
+    private static Mono<Void> unauthorized(ServerWebExchange exchange, AuthenticationException e, ObjectMapper objectMapper) {
+        String error = e.getCause() instanceof OAuth2Exception
+                ? ((OAuth2Exception) e.getCause()).getOAuth2ErrorCode()
+                : UNAUTHORIZED_ERROR;
+        Map<String, String> body = ImmutableMap.of("error", error, "error_description", StringUtils.defaultString(e.getMessage()));
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.UNAUTHORIZED);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON_UTF8);
+        response.getHeaders().set(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"" + error + "\"");
+        return Mono.fromCallable(() -> response.bufferFactory().wrap(objectMapper.writeValueAsBytes(body)))
+                .flatMap(buffer -> response.writeWith(Mono.just(buffer)));
+    }
+}
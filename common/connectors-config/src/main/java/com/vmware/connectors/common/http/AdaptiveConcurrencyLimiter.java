@@ -0,0 +1,340 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
+
+/**
+ * Limits how many calls a card request fans out to a backend at once, with a
+ * limit per backend host that adapts AIMD-style to how the backend copes:
+ * <ul>
+ * <li>Each call that completes within {@code tolerance} times the backend's
+ * usual latency raises the limit by 1/limit (about one per round of calls).</li>
+ * <li>A slower call, a 429 or 5xx response, or a failure to get a response at
+ * all cuts the limit by 10%, at most once per round of calls.</li>
+ * </ul>
+ * The usual latency is a moving average of the calls that weren't slow, so it
+ * follows backends that are slow but healthy without following them into
+ * overload. Once the limit is down to 1, slow calls can't be blamed on
+ * concurrency, and they count towards the usual latency too. Calls beyond
+ * the limit wait for a slot, up to {@code maxWaiting} of them per backend;
+ * any more fail at once with {@link BulkheadFullException}.
+ * <p>
+ * A call's latency is measured from when it gets its slot until it signals
+ * its result, so only the limited call itself is timed, not what's done with
+ * the result downstream.
+ * <p>
+ * Each backend's current limit is published as the
+ * {@code connectors.http.concurrency.limit} gauge, tagged with the backend
+ * (for the first hundred backends; see {@link HostTags}).
+ * <p>
+ * Base URLs come with card requests, so a backend nothing has called for
+ * ten minutes is forgotten, and starts again from {@code initialLimit}.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_SMOOTHING = 0.05;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final int initialLimit;
+    private final int maxLimit;
+    private final int maxWaiting;
+    private final double tolerance;
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoClock;
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+    private final HostTags hostTags = new HostTags(HostTags.MAX_HOSTS);
+    private final AtomicLong nextSweepNanos;
+
+    /**
+     * @param initialLimit  the concurrency limit for a backend not seen before
+     * @param maxLimit      the highest the limit can grow
+     * @param maxWaiting    how many calls can wait for a slot with each backend
+     * @param tolerance     how many times its usual latency a call can take before the backend counts as overloaded
+     * @param meterRegistry where to publish the limits
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit, int maxWaiting, double tolerance, MeterRegistry meterRegistry) {
+        this(initialLimit, maxLimit, maxWaiting, tolerance, meterRegistry, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit, int maxWaiting, double tolerance, MeterRegistry meterRegistry,
+                               LongSupplier nanoClock) {
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.maxWaiting = maxWaiting;
+        this.tolerance = tolerance;
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+        this.nextSweepNanos = new AtomicLong(nanoClock.getAsLong() + IDLE_NANOS);
+    }
+
+    /**
+     * Makes a call wait, on subscription, until the backend has a slot for it.
+     * For example, to fan out to a backend:
+     * <pre>
+     * Flux.fromIterable(ids)
+     *         .flatMap(id -&gt; limiter.limit(baseUrl, fetch(baseUrl, id)))
+     *         .map(this::toCard)
+     * </pre>
+     * Only the backend calls should be limited; work on their results belongs
+     * outside, so it doesn't hold a slot or count towards the latency.
+     *
+     * @param backend the backend's base URL; calls are limited per host
+     * @param call    the call to the backend
+     * @param <T>     the call's result type
+     * @return the limited call
+     */
+    public <T> Mono<T> limit(String backend, Mono<T> call) {
+        String host = host(backend);
+        return Mono.defer(() -> {
+            Slot slot = new Slot();
+            return Mono.<Void>create(sink -> acquire(host, slot, sink))
+                    .then(Mono.defer(() -> {
+                        slot.startNanos = nanoClock.getAsLong();
+                        return call;
+                    }))
+                    .doOnSuccess(result -> slot.end(Outcome.COMPLETED))
+                    .doOnError(e -> slot.end(isOverload(e) ? Outcome.OVERLOADED : Outcome.FAILED))
+                    .doFinally(signal -> slot.release());
+        });
+    }
+
+    private void acquire(String host, Slot slot, MonoSink<Void> sink) {
+        retireIdle();
+        // A limit that was just retired is being forgotten; use a new one
+        while (!limits.computeIfAbsent(host, this::newLimit).acquire(slot, sink)) {
+            Thread.yield();
+        }
+    }
+
+    /*
+     * At most once per idle period, forgets the backends that have been idle
+     * for one.
+     */
+    private void retireIdle() {
+        long now = nanoClock.getAsLong();
+        long nextSweep = nextSweepNanos.get();
+        if (now - nextSweep >= 0 && nextSweepNanos.compareAndSet(nextSweep, now + IDLE_NANOS)) {
+            limits.values().removeIf(limit -> limit.retireIfIdle(now));
+        }
+    }
+
+    /**
+     * @param backend the backend's base URL
+     * @return the backend's current concurrency limit
+     */
+    public int currentLimit(String backend) {
+        Limit limit = limits.get(host(backend));
+        return limit == null ? initialLimit : limit.current();
+    }
+
+    /**
+     * @return the number of backends being tracked
+     */
+    int trackedBackends() {
+        return limits.size();
+    }
+
+    private Limit newLimit(String host) {
+        String tag = hostTags.tag(host);
+        if (!HostTags.OTHER.equals(tag)) {
+            // Reads whichever limit the backend has now, since a retired one is replaced
+            Gauge.builder("connectors.http.concurrency.limit", this, limiter -> limiter.currentLimit(host))
+                    .description("Calls allowed in flight to a backend while fanning out")
+                    .tag("backend", tag)
+                    .register(meterRegistry);
+        }
+        return new Limit(host);
+    }
+
+    // The scheme, host and port of a base URL; also used by RateLimitTracker
+    static String host(String backend) {
+        try {
+            URI uri = URI.create(backend);
+            return uri.getRawAuthority() == null ? backend : uri.getScheme() + "://" + uri.getRawAuthority();
+        } catch (IllegalArgumentException e) {
+            return backend;
+        }
+    }
+
+    /*
+     * A 404 or 403 says nothing about the backend's load; throttling,
+     * server errors and timeouts do.
+     */
+    private static boolean isOverload(Throwable e) {
+        if (e instanceof WebClientResponseException) {
+            WebClientResponseException response = (WebClientResponseException) e;
+            return response.getStatusCode() == TOO_MANY_REQUESTS || response.getStatusCode().is5xxServerError();
+        }
+        return true;
+    }
+
+    private enum Outcome {
+        CANCELLED, COMPLETED, FAILED, OVERLOADED
+    }
+
+    private final class Slot {
+        private Limit limit;
+        private MonoSink<Void> sink;
+        private boolean granted;
+        private long startNanos;
+        private long endNanos;
+        private Outcome outcome = Outcome.CANCELLED;
+
+        // Signalled before the result goes downstream, so that's not timed
+        void end(Outcome outcome) {
+            this.endNanos = nanoClock.getAsLong();
+            this.outcome = outcome;
+        }
+
+        void release() {
+            if (limit != null) {
+                limit.release(this);
+            }
+        }
+    }
+
+    private final class Limit {
+
+        private final String host;
+        private final Deque<Slot> queue = new ArrayDeque<>();
+        private double allowed = initialLimit;
+        private int inFlight;
+        private double usualLatencyNanos;
+        private long lastBackoffNanos = nanoClock.getAsLong();
+        private long lastUsedNanos = lastBackoffNanos;
+        private boolean retired;
+
+        Limit(String host) {
+            this.host = host;
+        }
+
+        /*
+         * Returns false if this limit has been retired, and the slot should
+         * come from a new one.
+         */
+        boolean acquire(Slot slot, MonoSink<Void> sink) {
+            synchronized (this) {
+                if (retired) {
+                    return false;
+                }
+                slot.limit = this;
+                lastUsedNanos = nanoClock.getAsLong();
+                if (waits(slot, sink)) {
+                    return true;
+                }
+            }
+            if (slot.granted) {
+                sink.success();
+            } else {
+                sink.error(new BulkheadFullException(host));
+            }
+            return true;
+        }
+
+        // Called holding the lock; true if the slot was queued
+        private boolean waits(Slot slot, MonoSink<Void> sink) {
+            if (inFlight < (int) allowed) {
+                inFlight++;
+                slot.granted = true;
+                return false;
+            }
+            if (queue.size() < maxWaiting) {
+                slot.sink = sink;
+                queue.add(slot);
+                return true;
+            }
+            return false;
+        }
+
+        boolean retireIfIdle(long now) {
+            synchronized (this) {
+                retired = inFlight == 0 && queue.isEmpty() && now - lastUsedNanos >= IDLE_NANOS;
+                return retired;
+            }
+        }
+
+        void release(Slot slot) {
+            List<Slot> admitted;
+            synchronized (this) {
+                if (!slot.granted) {
+                    queue.remove(slot);
+                    return;
+                }
+                slot.granted = false;
+                inFlight--;
+                lastUsedNanos = nanoClock.getAsLong();
+                adjust(slot);
+                admitted = admitWaiting();
+            }
+            admitted.forEach(next -> next.sink.success());
+        }
+
+        // Called holding the lock; the sinks are completed once it's let go of
+        private List<Slot> admitWaiting() {
+            List<Slot> admitted = new ArrayList<>();
+            while (inFlight < (int) allowed && !queue.isEmpty()) {
+                Slot next = queue.poll();
+                next.granted = true;
+                inFlight++;
+                admitted.add(next);
+            }
+            return admitted;
+        }
+
+        private void adjust(Slot slot) {
+            if (slot.outcome == Outcome.COMPLETED) {
+                long latency = slot.endNanos - slot.startNanos;
+                boolean slow = usualLatencyNanos > 0 && latency > tolerance * usualLatencyNanos;
+                if (!slow || allowed <= 1) {
+                    usualLatencyNanos = usualLatencyNanos == 0 ? latency : usualLatencyNanos + LATENCY_SMOOTHING * (latency - usualLatencyNanos);
+                }
+                if (slow) {
+                    backOff(slot);
+                } else {
+                    allowed = Math.min(maxLimit, allowed + 1 / allowed);
+                }
+            } else if (slot.outcome == Outcome.OVERLOADED) {
+                backOff(slot);
+            }
+        }
+
+        /*
+         * Calls started before the last backoff ran under the old, higher limit;
+         * they don't say anything about the new one.
+         */
+        private void backOff(Slot slot) {
+            if (slot.startNanos - lastBackoffNanos > 0) {
+                allowed = Math.max(1, allowed * BACKOFF_RATIO);
+                lastBackoffNanos = nanoClock.getAsLong();
+            }
+        }
+
+        int current() {
+            synchronized (this) {
+                return (int) allowed;
+            }
+        }
+    }
+}
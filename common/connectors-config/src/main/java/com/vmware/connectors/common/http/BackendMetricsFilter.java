@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import com.vmware.connectors.common.jfr.ConnectorEvents;
+import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.ServerTiming;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Times every backend call, until its response's headers arrive, in
+ * {@code connectors.http.backend.requests}, with a percentile histogram,
+ * tagged with:
+ * <ul>
+ * <li>{@code connector}: the connector's spring.application.name</li>
+ * <li>{@code uri}: the path template, e.g. {@code /rest/api/2/issue/{issueId}}</li>
+ * <li>{@code method}</li>
+ * <li>{@code status}: the response's status code, {@code IO_ERROR} if there
+ * wasn't one, or {@code CANCELLED} if the call was given up on (e.g. at the
+ * request's deadline)</li>
+ * <li>{@code outcome}: {@code SUCCESS}, {@code REDIRECTION},
+ * {@code CLIENT_ERROR}, {@code SERVER_ERROR} or {@code UNKNOWN}</li>
+ * </ul>
+ * WebClient (as of Spring 5.0) doesn't keep the template a URI was expanded
+ * from, so calls give theirs:
+ * <pre>
+ * rest.get()
+ *         .uri(baseUrl + "/rest/api/2/issue/{issueId}", issueId)
+ *         .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/2/issue/{issueId}")
+ * </pre>
+ * Otherwise the path is used, with the segments that have a digit in them
+ * (IDs, mostly) replaced by {@code {id}}, so the tag doesn't get a value per
+ * issue or pull request.
+ * <p>
+ * Calls made for a card request are also added to its Server-Timing header
+ * (see {@link ServerTiming}), and every call is recorded as a
+ * {@link ConnectorEvents.BackendExchange} Flight Recorder event.
+ */
+public class BackendMetricsFilter implements ExchangeFilterFunction {
+
+    /**
+     * The request attribute with the call's URI template. It's the one
+     * WebClient sets itself from Spring 5.1 on.
+     */
+    public static final String URI_TEMPLATE = WebClient.class.getName() + ".uriTemplate";
+
+    private static final String METRIC = "connectors.http.backend.requests";
+
+    private final String connector;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * @param connector     the connector's name, for the connector tag
+     * @param meterRegistry where to record the calls
+     */
+    public BackendMetricsFilter(String connector, MeterRegistry meterRegistry) {
+        this.connector = connector;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.subscriberContext().flatMap(context -> {
+            ServerTiming timing = context.getOrDefault(Reactive.SERVER_TIMING, null);
+            ConnectorEvents.BackendExchange event = ConnectorEvents.backendExchange();
+            long start = System.nanoTime();
+            // Only the first of response, error or cancel is recorded
+            AtomicBoolean recorded = new AtomicBoolean();
+            return next.exchange(request)
+                    .doOnNext(response -> {
+                        if (recorded.compareAndSet(false, true)) {
+                            int status = response.statusCode().value();
+                            long bytes = response.headers().contentLength().orElse(-1);
+                            record(request, Integer.toString(status), outcome(status), start, timing, event, bytes);
+                        }
+                    })
+                    .doOnError(e -> {
+                        if (recorded.compareAndSet(false, true)) {
+                            record(request, "IO_ERROR", "UNKNOWN", start, timing, event, -1);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (recorded.compareAndSet(false, true)) {
+                            record(request, "CANCELLED", "UNKNOWN", start, timing, event, -1);
+                        }
+                    });
+        });
+    }
+
+    private void record(ClientRequest request, String status, String outcome, long start,
+                        ServerTiming timing, ConnectorEvents.BackendExchange event, long bytes) {
+        long nanos = System.nanoTime() - start;
+        String uri = uriTemplate(request);
+        Timer.builder(METRIC)
+                .description("Calls to the connector's backend")
+                .tag("connector", connector)
+                .tag("uri", uri)
+                .tag("method", request.method().name())
+                .tag("status", status)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (timing != null) {
+            timing.backendCall(request.method().name(), uri, nanos);
+        }
+        event.commit(request.method().name(), uri, status, bytes);
+    }
+
+    static String uriTemplate(ClientRequest request) {
+        return request.attribute(URI_TEMPLATE)
+                .map(String.class::cast)
+                .map(BackendMetricsFilter::path)
+                .orElseGet(() -> withoutIds(request.url().getRawPath()));
+    }
+
+    /*
+     * Templates are often the backend's base URL plus a path; only the path
+     * (without the query) is wanted.
+     */
+    private static String path(String template) {
+        String path = template;
+        int scheme = path.indexOf("://");
+        if (scheme >= 0) {
+            int slash = path.indexOf('/', scheme + 3);
+            path = slash < 0 ? "/" : path.substring(slash);
+        }
+        return StringUtils.defaultIfEmpty(StringUtils.substringBefore(path, "?"), "/");
+    }
+
+    private static String withoutIds(String path) {
+        if (StringUtils.isEmpty(path)) {
+            return "/";
+        }
+        return Arrays.stream(path.split("/", -1))
+                .map(segment -> StringUtils.containsAny(segment, "0123456789") ? "{id}" : segment)
+                .collect(Collectors.joining("/"));
+    }
+
+    private static String outcome(int status) {
+        if (status >= 200 && status < 300) {
+            return "SUCCESS";
+        } else if (status >= 300 && status < 400) {
+            return "REDIRECTION";
+        } else if (status >= 400 && status < 500) {
+            return "CLIENT_ERROR";
+        } else if (status >= 500 && status < 600) {
+            return "SERVER_ERROR";
+        }
+        return "UNKNOWN";
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Isolates backend hosts from each other: each host gets a fixed number of
+ * requests in flight and a bounded queue of requests waiting for one of
+ * them. Requests beyond that fail with {@link BulkheadFullException} without
+ * being sent, so one slow tenant backend can't take every connection.
+ * <p>
+ * A request is in flight until its response body has been read (or it fails
+ * or is cancelled), so a host that is slow to send bodies is isolated too.
+ * As WebClient requires anyway, every response's body must be read or
+ * released; one that never is keeps its host's permit.
+ * <p>
+ * Hosts are only tracked while they have requests in flight or waiting, so
+ * base URLs that come with card requests don't pile up.
+ */
+public class BulkheadFilter implements ExchangeFilterFunction {
+
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final Runnable rejectionListener;
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConcurrent     the maximum number of requests in flight to each host
+     * @param maxWaiting        the maximum number of requests waiting to be sent to each host
+     * @param rejectionListener called every time a request is rejected, e.g. to count it
+     */
+    public BulkheadFilter(int maxConcurrent, int maxWaiting, Runnable rejectionListener) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaiting = maxWaiting;
+        this.rejectionListener = rejectionListener;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        String host = host(request.url());
+        return Mono.defer(() -> {
+            Permit permit = new Permit();
+            AtomicBoolean responded = new AtomicBoolean();
+            return Mono.<Void>create(sink -> acquire(host, permit, sink))
+                    .then(Mono.defer(() -> next.exchange(request)))
+                    .doOnNext(response -> responded.set(true))
+                    .map(response -> releasingAfterBody(response, permit))
+                    // Without a response, there's no body to wait for
+                    .doFinally(signal -> {
+                        if (!responded.get()) {
+                            permit.release();
+                        }
+                    });
+        });
+    }
+
+    private void acquire(String host, Permit permit, MonoSink<Void> sink) {
+        // A bulkhead that just went idle is being forgotten; use a new one
+        while (!bulkheads.computeIfAbsent(host, Bulkhead::new).acquire(permit, sink)) {
+            Thread.yield();
+        }
+    }
+
+    private static ClientResponse releasingAfterBody(ClientResponse response, Permit permit) {
+        return ClientResponse.from(response)
+                .body(response.body(BodyExtractors.toDataBuffers())
+                        .doFinally(signal -> permit.release()))
+                .build();
+    }
+
+    /**
+     * @return the number of requests in flight to all hosts
+     */
+    public int inFlight() {
+        return bulkheads.values().stream().mapToInt(Bulkhead::inFlight).sum();
+    }
+
+    /**
+     * @return the number of requests waiting to be sent to any host
+     */
+    public int waiting() {
+        return bulkheads.values().stream().mapToInt(Bulkhead::waiting).sum();
+    }
+
+    /**
+     * @return the number of hosts with requests in flight or waiting
+     */
+    int hosts() {
+        return bulkheads.size();
+    }
+
+    private static String host(URI url) {
+        return url.getScheme() + "://" + url.getRawAuthority();
+    }
+
+    private enum Admission {
+        GRANTED, QUEUED, REJECTED
+    }
+
+    private static final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+        private Bulkhead bulkhead;
+        private MonoSink<Void> sink;
+        private boolean granted;
+
+        void release() {
+            if (bulkhead != null && released.compareAndSet(false, true)) {
+                bulkhead.release(this);
+            }
+        }
+    }
+
+    private final class Bulkhead {
+
+        private final String host;
+        private final Deque<Permit> queue = new ArrayDeque<>();
+        private int active;
+        private boolean retired;
+
+        Bulkhead(String host) {
+            this.host = host;
+        }
+
+        /**
+         * @return false if this bulkhead has been retired, and the permit should go to a new one
+         */
+        boolean acquire(Permit permit, MonoSink<Void> sink) {
+            Admission admission = admit(permit, sink);
+            if (admission == null) {
+                return false;
+            }
+            if (admission == Admission.GRANTED) {
+                sink.success();
+            } else if (admission == Admission.REJECTED) {
+                rejectionListener.run();
+                sink.error(new BulkheadFullException(host));
+            }
+            return true;
+        }
+
+        private Admission admit(Permit permit, MonoSink<Void> sink) {
+            synchronized (this) {
+                if (retired) {
+                    return null;
+                }
+                permit.bulkhead = this;
+                permit.sink = sink;
+                if (active < maxConcurrent) {
+                    active++;
+                    permit.granted = true;
+                    return Admission.GRANTED;
+                }
+                if (queue.size() < maxWaiting) {
+                    queue.add(permit);
+                    return Admission.QUEUED;
+                }
+                return Admission.REJECTED;
+            }
+        }
+
+        /*
+         * Called once the request is done with the bulkhead, however it ended.
+         * A request that was granted a slot hands it to the next one waiting;
+         * one that was still waiting just leaves the queue.
+         */
+        void release(Permit permit) {
+            Permit next = null;
+            boolean idle;
+            synchronized (this) {
+                if (permit.granted) {
+                    next = handOver(permit);
+                } else {
+                    queue.remove(permit);
+                }
+                idle = active == 0 && queue.isEmpty();
+                retired = idle;
+            }
+            if (idle) {
+                bulkheads.remove(host, this);
+            }
+            if (next != null) {
+                next.sink.success();
+            }
+        }
+
+        // Called holding the lock; the next permit's sink is completed once it's let go of
+        private Permit handOver(Permit permit) {
+            permit.granted = false;
+            Permit next = queue.poll();
+            if (next == null) {
+                active--;
+            } else {
+                next.granted = true;
+            }
+            return next;
+        }
+
+        int inFlight() {
+            synchronized (this) {
+                return active;
+            }
+        }
+
+        int waiting() {
+            synchronized (this) {
+                return queue.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+/**
+ * Thrown instead of sending a request to a backend host that already has as
+ * many requests in flight and waiting as its {@link BulkheadFilter}, or its
+ * {@link AdaptiveConcurrencyLimiter}, allows.
+ */
+public class BulkheadFullException extends RuntimeException {
+
+    private final String host;
+
+    public BulkheadFullException(String host) {
+        super("Too many requests in flight to " + host);
+        this.host = host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+}
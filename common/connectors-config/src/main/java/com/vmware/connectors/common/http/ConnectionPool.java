@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.resources.PoolResources;
+
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-size connection pool per backend host, with a bounded queue of
+ * pending acquisitions and eviction of connections that have sat idle for
+ * too long. Keeps counts of open, active and pending connections across all
+ * hosts so they can be published as gauges.
+ * <p>
+ * A connection left idle for the max idle time is closed by a timer on its
+ * event loop, so quiet backends don't keep sockets open. It is also checked
+ * when it's next acquired, in case the timer hasn't run yet.
+ */
+public class ConnectionPool implements PoolResources {
+
+    private static final AttributeKey<Long> RELEASED_AT = AttributeKey.valueOf(ConnectionPool.class.getName() + ".releasedAt");
+
+    private final PoolResources pools;
+    private final int maxConnections;
+    private final int maxPendingAcquires;
+    private final long maxIdleNanos;
+    private final Map<ChannelPool, ChannelPool> limitedPools = new ConcurrentHashMap<>();
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * @param name               the pool name, used in reactor-netty's logging
+     * @param maxConnections     the maximum number of connections to each host
+     * @param acquireTimeout     how long to wait for a connection, in milliseconds
+     * @param maxPendingAcquires the maximum number of requests waiting for a connection to each host
+     * @param maxIdleTime        how long a connection may stay unused, in milliseconds
+     */
+    public ConnectionPool(String name, int maxConnections, long acquireTimeout, int maxPendingAcquires, long maxIdleTime) {
+        this.pools = PoolResources.fixed(name, maxConnections, acquireTimeout);
+        this.maxConnections = maxConnections;
+        this.maxPendingAcquires = maxPendingAcquires;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleTime);
+    }
+
+    @Override
+    public ChannelPool selectOrCreate(SocketAddress address,
+                                      Supplier<? extends Bootstrap> bootstrap,
+                                      Consumer<? super Channel> onChannelCreate,
+                                      EventLoopGroup group) {
+        ChannelPool pool = pools.selectOrCreate(address, bootstrap, channel -> {
+            open.incrementAndGet();
+            channel.closeFuture().addListener(future -> open.decrementAndGet());
+            onChannelCreate.accept(channel);
+        }, group);
+        return limitedPools.computeIfAbsent(pool, p -> new LimitedChannelPool(p, group));
+    }
+
+    @Override
+    public void dispose() {
+        pools.dispose();
+    }
+
+    @Override
+    public Mono<Void> disposeLater() {
+        return pools.disposeLater();
+    }
+
+    /**
+     * @return the number of connections open to all hosts
+     */
+    public int openConnections() {
+        return open.get();
+    }
+
+    /**
+     * @return the number of connections currently serving a request
+     */
+    public int activeConnections() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of open connections waiting in the pool for a request
+     */
+    public int idleConnections() {
+        return Math.max(0, open.get() - active.get());
+    }
+
+    /**
+     * @return the number of requests waiting for a connection
+     */
+    public int pendingAcquires() {
+        return pending.get();
+    }
+
+    private final class LimitedChannelPool implements ChannelPool {
+
+        private final ChannelPool pool;
+        private final EventLoopGroup group;
+        // Requests holding or waiting for a connection to this host
+        private final AtomicInteger demand = new AtomicInteger();
+
+        LimitedChannelPool(ChannelPool pool, EventLoopGroup group) {
+            this.pool = pool;
+            this.group = group;
+        }
+
+        @Override
+        public Future<Channel> acquire() {
+            return acquire(group.next().newPromise());
+        }
+
+        @Override
+        public Future<Channel> acquire(Promise<Channel> promise) {
+            if (demand.incrementAndGet() > maxConnections + maxPendingAcquires) {
+                demand.decrementAndGet();
+                return promise.setFailure(new IllegalStateException(
+                        "Too many requests (" + maxPendingAcquires + ") already waiting for a connection"));
+            }
+            pending.incrementAndGet();
+            promise.addListener(future -> {
+                pending.decrementAndGet();
+                if (!future.isSuccess()) {
+                    demand.decrementAndGet();
+                }
+            });
+            acquireFresh(promise);
+            return promise;
+        }
+
+        private void acquireFresh(Promise<Channel> promise) {
+            pool.acquire().addListener((Future<Channel> future) -> {
+                if (!future.isSuccess()) {
+                    promise.tryFailure(future.cause());
+                    return;
+                }
+                Channel channel = future.getNow();
+                // Also cancels the idle timer
+                if (idleTooLong(channel.attr(RELEASED_AT).getAndSet(null))) {
+                    // Release the closed connection so the pool forgets it, then try again
+                    channel.close().addListener(closed -> pool.release(channel).addListener(released -> acquireFresh(promise)));
+                } else if (promise.trySuccess(channel)) {
+                    active.incrementAndGet();
+                } else {
+                    pool.release(channel);
+                }
+            });
+        }
+
+        private boolean idleTooLong(Long releasedAt) {
+            return releasedAt != null && System.nanoTime() - releasedAt > maxIdleNanos;
+        }
+
+        @Override
+        public Future<Void> release(Channel channel) {
+            return release(channel, channel.eventLoop().newPromise());
+        }
+
+        @Override
+        public Future<Void> release(Channel channel, Promise<Void> promise) {
+            active.decrementAndGet();
+            demand.decrementAndGet();
+            Long releasedAt = System.nanoTime();
+            channel.attr(RELEASED_AT).set(releasedAt);
+            channel.eventLoop().schedule(() -> {
+                // Only if it wasn't acquired (and released again) in the meantime
+                if (channel.attr(RELEASED_AT).compareAndSet(releasedAt, null)) {
+                    channel.close();
+                }
+            }, maxIdleNanos, TimeUnit.NANOSECONDS);
+            return pool.release(channel, promise);
+        }
+
+        @Override
+        public void close() {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import com.vmware.connectors.common.utils.DeadlineExceededException;
+import com.vmware.connectors.common.utils.Reactive;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Holds every backend call to the deadline of the request it's made for
+ * (see {@link Reactive#DEADLINE}). A call that hasn't answered by then fails
+ * with {@link DeadlineExceededException}, and one that would start after it
+ * isn't sent at all.
+ */
+public class DeadlineFilter implements ExchangeFilterFunction {
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.subscriberContext()
+                .flatMap(context -> {
+                    if (!context.hasKey(Reactive.DEADLINE)) {
+                        return next.exchange(request);
+                    }
+                    Duration remaining = Duration.between(Instant.now(), context.<Instant>get(Reactive.DEADLINE));
+                    if (remaining.isNegative() || remaining.isZero()) {
+                        return Mono.error(exceeded(request));
+                    }
+                    return next.exchange(request)
+                            .timeout(remaining, Mono.error(exceeded(request)));
+                });
+    }
+
+    private static DeadlineExceededException exceeded(ClientRequest request) {
+        return new DeadlineExceededException("Deadline passed waiting for " + request.method() + " " + request.url());
+    }
+}
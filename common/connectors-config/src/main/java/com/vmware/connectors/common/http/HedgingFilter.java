@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Sends a second attempt of a slow GET and uses whichever attempt answers
+ * first, so one stalled backend node doesn't hold up a whole card request.
+ * <p>
+ * Only GETs that opt in are hedged, since the backend sees the request twice:
+ * <pre>
+ * rest.get()
+ *         .uri(uri)
+ *         .attribute(HedgingFilter.HEDGE, true)
+ * </pre>
+ * The second attempt is sent once the first has taken longer than
+ * {@code percentile} of the backend host's recent response times, which are
+ * sampled from all its GETs, hedged or not. The attempt that answers second
+ * is cancelled, or if its response comes anyway, has its body released. Each host
+ * earns {@code budget} hedges per request (e.g. 0.05 for one in twenty), so
+ * hedging can't add more than that to a backend's load, even when all of its
+ * responses are slow.
+ * <p>
+ * Hedges sent and hedges that answered first are counted in
+ * {@code connectors.http.hedge.sent} and {@code connectors.http.hedge.won},
+ * tagged with the backend (for the first hundred backends; see
+ * {@link HostTags}).
+ * <p>
+ * Base URLs come with card requests, so a host nothing has sent a GET to for
+ * ten minutes is forgotten, with its response times.
+ */
+public class HedgingFilter implements ExchangeFilterFunction {
+
+    /**
+     * The request attribute that opts a GET in to hedging.
+     */
+    public static final String HEDGE = HedgingFilter.class.getName() + ".HEDGE";
+
+    private static final int SAMPLES = 200;
+    private static final int MIN_SAMPLES = 20;
+    private static final double MAX_SAVED_HEDGES = 10;
+    private static final double ONE_HEDGE = 1;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final double percentile;
+    private final double budget;
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoClock;
+    private final Map<String, Backend> backends = new ConcurrentHashMap<>();
+    private final HostTags hostTags = new HostTags(HostTags.MAX_HOSTS);
+    private final AtomicLong nextSweepNanos;
+
+    /**
+     * @param percentile    how slow, as a percentile of recent response times (e.g. 0.95), an attempt is before it's hedged
+     * @param budget        the hedges each backend host earns per request
+     * @param meterRegistry where to count the hedges
+     */
+    public HedgingFilter(double percentile, double budget, MeterRegistry meterRegistry) {
+        this(percentile, budget, meterRegistry, System::nanoTime);
+    }
+
+    HedgingFilter(double percentile, double budget, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.percentile = percentile;
+        this.budget = budget;
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+        this.nextSweepNanos = new AtomicLong(nanoClock.getAsLong() + IDLE_NANOS);
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (request.method() != HttpMethod.GET) {
+            return next.exchange(request);
+        }
+        retireIdle();
+        Backend backend = backends.computeIfAbsent(host(request.url()), Backend::new);
+        if (!Boolean.TRUE.equals(request.attribute(HEDGE).orElse(false))) {
+            return timed(backend, request, next);
+        }
+        return Mono.defer(() -> {
+            long delayNanos = backend.hedgeDelay();
+            if (delayNanos < 0) {
+                return timed(backend, request, next);
+            }
+            AtomicBoolean answered = new AtomicBoolean();
+            Mono<ClientResponse> first = attempt(backend, request, next, answered);
+            // A hedge the budget can't pay for never answers, so the first attempt wins
+            Mono<ClientResponse> hedge = Mono.delay(Duration.ofNanos(delayNanos))
+                    .flatMap(ignored -> backend.withdraw() ? attempt(backend, request, next, answered) : Mono.never())
+                    .doOnNext(response -> backend.won.increment());
+            return Mono.first(first, hedge);
+        });
+    }
+
+    /**
+     * @return the number of hosts being tracked
+     */
+    int trackedBackends() {
+        return backends.size();
+    }
+
+    /*
+     * At most once per idle period, forgets the hosts that have been idle
+     * for one. A request still using a forgotten host just records into it.
+     */
+    private void retireIdle() {
+        long now = nanoClock.getAsLong();
+        long nextSweep = nextSweepNanos.get();
+        if (now - nextSweep >= 0 && nextSweepNanos.compareAndSet(nextSweep, now + IDLE_NANOS)) {
+            backends.values().removeIf(backend -> backend.idleSince(now - IDLE_NANOS));
+        }
+    }
+
+    private Mono<ClientResponse> timed(Backend backend, ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            long start = nanoClock.getAsLong();
+            return next.exchange(request)
+                    .doOnNext(response -> backend.record(nanoClock.getAsLong() - start));
+        });
+    }
+
+    /*
+     * Only the attempt that answers first gets to signal; the other never
+     * does, so Mono.first can't pick it. Its response is still let go of,
+     * even if it arrives after the attempt was cancelled.
+     */
+    private Mono<ClientResponse> attempt(Backend backend, ClientRequest request, ExchangeFunction next,
+                                         AtomicBoolean answered) {
+        return timed(backend, request, next)
+                .filter(response -> answered.compareAndSet(false, true) || release(response))
+                .switchIfEmpty(Mono.never());
+    }
+
+    private static boolean release(ClientResponse response) {
+        response.body(BodyExtractors.toDataBuffers())
+                .subscribe(DataBufferUtils::release, error -> { /* Nobody is waiting for it */ });
+        return false;
+    }
+
+    private static String host(URI url) {
+        return url.getScheme() + "://" + url.getRawAuthority();
+    }
+
+    private final class Backend {
+
+        private final long[] latencies = new long[SAMPLES];
+        private final Counter sent;
+        private final Counter won;
+        private int recorded;
+        private int nextSample;
+        private double savedHedges;
+        private long lastUsedNanos = nanoClock.getAsLong();
+
+        Backend(String host) {
+            String tag = hostTags.tag(host);
+            this.sent = Counter.builder("connectors.http.hedge.sent")
+                    .description("Second attempts sent for slow backend GETs")
+                    .tag("backend", tag)
+                    .register(meterRegistry);
+            this.won = Counter.builder("connectors.http.hedge.won")
+                    .description("Second attempts that answered before the first")
+                    .tag("backend", tag)
+                    .register(meterRegistry);
+        }
+
+        /*
+         * Called once per request: earns it its share of the hedge budget and
+         * says how long to wait before hedging it, or -1 for not at all.
+         */
+        long hedgeDelay() {
+            long[] sorted;
+            synchronized (this) {
+                lastUsedNanos = nanoClock.getAsLong();
+                savedHedges = Math.min(MAX_SAVED_HEDGES, savedHedges + budget);
+                if (recorded < MIN_SAMPLES) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(latencies, recorded);
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length - 1, (int) (percentile * sorted.length))];
+        }
+
+        boolean withdraw() {
+            synchronized (this) {
+                if (savedHedges < ONE_HEDGE) {
+                    return false;
+                }
+                savedHedges -= ONE_HEDGE;
+            }
+            sent.increment();
+            return true;
+        }
+
+        void record(long latencyNanos) {
+            synchronized (this) {
+                lastUsedNanos = nanoClock.getAsLong();
+                latencies[nextSample] = latencyNanos;
+                nextSample = (nextSample + 1) % SAMPLES;
+                recorded = Math.min(SAMPLES, recorded + 1);
+            }
+        }
+
+        boolean idleSince(long nanos) {
+            synchronized (this) {
+                return lastUsedNanos - nanos <= 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The backend tag of per-host meters. Base URLs come with card requests, and
+ * Micrometer 1.0 can't remove a meter once it's registered, so only the
+ * first {@code maxHosts} hosts get a tag of their own; the rest share
+ * {@link #OTHER}.
+ */
+final class HostTags {
+
+    static final String OTHER = "other";
+
+    static final int MAX_HOSTS = 100;
+
+    private final int maxHosts;
+    private final Set<String> tagged = ConcurrentHashMap.newKeySet();
+
+    HostTags(int maxHosts) {
+        this.maxHosts = maxHosts;
+    }
+
+    String tag(String host) {
+        if (tagged.contains(host)) {
+            return host;
+        }
+        synchronized (tagged) {
+            if (tagged.contains(host) || tagged.size() < maxHosts) {
+                tagged.add(host);
+                return host;
+            }
+        }
+        return OTHER;
+    }
+}
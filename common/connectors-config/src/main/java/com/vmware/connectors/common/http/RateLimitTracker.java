@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps track of each token's rate limit with each backend host, as reported
+ * by the backend's response headers, and holds back card fetches that would
+ * exceed it.
+ * <p>
+ * GitHub reports the limit in {@code X-RateLimit-Limit},
+ * {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset}; GitLab in
+ * {@code RateLimit-Limit}, {@code RateLimit-Remaining} and
+ * {@code RateLimit-Reset}. Both give the reset time in epoch seconds. A
+ * {@code Retry-After} header means no calls until it has passed.
+ * <ul>
+ * <li>While a token has plenty of calls left, fetches go out as usual.</li>
+ * <li>Once fewer than {@code lowWatermark} of its calls are left, each fetch
+ * is delayed to spread the rest over the time until the limit resets (by at
+ * most {@code maxDelay}).</li>
+ * <li>Once it has none left, fetches aren't sent at all until the reset, since
+ * they would certainly fail; the caller's fallback is used instead.</li>
+ * </ul>
+ * A fetch waits for its pacing before it's subscribed to, so anything it
+ * holds while it runs (such as an {@link AdaptiveConcurrencyLimiter} slot)
+ * should be taken inside the scheduled call. Tokens are only kept as hashes.
+ */
+public class RateLimitTracker {
+
+    private static final String[] LIMIT_HEADERS = {"X-RateLimit-Limit", "RateLimit-Limit"};
+    private static final String[] REMAINING_HEADERS = {"X-RateLimit-Remaining", "RateLimit-Remaining"};
+    private static final String[] RESET_HEADERS = {"X-RateLimit-Reset", "RateLimit-Reset"};
+
+    private static final long MAX_TOKENS = 100_000;
+
+    private final double lowWatermark;
+    private final long maxDelay;
+    private final Runnable shortCircuitListener;
+    private final Cache<String, Quota> quotas = CacheBuilder.newBuilder()
+            .maximumSize(MAX_TOKENS)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    /**
+     * @param lowWatermark         the fraction of a token's limit below which its fetches are paced
+     * @param maxDelay             the longest a fetch is delayed for pacing, in milliseconds
+     * @param shortCircuitListener called every time a fetch isn't sent because its token has no calls left
+     */
+    public RateLimitTracker(double lowWatermark, long maxDelay, Runnable shortCircuitListener) {
+        this.lowWatermark = lowWatermark;
+        this.maxDelay = maxDelay;
+        this.shortCircuitListener = shortCircuitListener;
+    }
+
+    /**
+     * Records the rate limit a response reports for a token. Call it with
+     * every response, including errors, for example:
+     * <pre>
+     * rest.get()
+     *         .uri(uri)
+     *         .header(AUTHORIZATION, auth)
+     *         .exchange()
+     *         .doOnNext(response -&gt; rateLimits.update(baseUrl, auth, response))
+     * </pre>
+     *
+     * @param backend  the backend's base URL; limits are kept per host
+     * @param token    the credentials the request was sent with
+     * @param response the backend's response
+     */
+    public void update(String backend, String token, ClientResponse response) {
+        HttpHeaders headers = response.headers().asHttpHeaders();
+        long now = System.currentTimeMillis();
+        Long retryAfter = parse(headers, HttpHeaders.RETRY_AFTER);
+        if (retryAfter != null) {
+            quota(backend, token).set(0, 0, now + TimeUnit.SECONDS.toMillis(retryAfter));
+            return;
+        }
+        Long remaining = parse(headers, REMAINING_HEADERS);
+        Long reset = parse(headers, RESET_HEADERS);
+        if (remaining == null || reset == null) {
+            return;
+        }
+        Long limit = parse(headers, LIMIT_HEADERS);
+        quota(backend, token).set(limit == null ? 0 : limit, remaining, TimeUnit.SECONDS.toMillis(reset));
+    }
+
+    /**
+     * Sends a fetch when the token's rate limit allows it.
+     *
+     * @param backend  the backend's base URL
+     * @param token    the credentials the fetch is sent with
+     * @param call     the fetch
+     * @param fallback what to use instead when the token has no calls left, e.g. a cached result or empty
+     * @param <T>      the fetch's result type
+     * @return the paced fetch
+     */
+    public <T> Mono<T> schedule(String backend, String token, Mono<T> call, Mono<T> fallback) {
+        return Mono.defer(() -> {
+            Quota quota = quotas.getIfPresent(key(backend, token));
+            if (quota == null) {
+                return call;
+            }
+            long delay = quota.reserve(System.currentTimeMillis());
+            if (delay < 0) {
+                shortCircuitListener.run();
+                return fallback;
+            }
+            return delay == 0 ? call : Mono.delay(Duration.ofMillis(delay)).then(call);
+        });
+    }
+
+    private Quota quota(String backend, String token) {
+        return quotas.asMap().computeIfAbsent(key(backend, token), k -> new Quota());
+    }
+
+    // The same token can be good for several hosts, each with its own limit
+    private static String key(String backend, String token) {
+        return AdaptiveConcurrencyLimiter.host(backend) + " " + Hashing.sha256().hashString(token, UTF_8);
+    }
+
+    private static Long parse(HttpHeaders headers, String... names) {
+        for (String name : names) {
+            String value = headers.getFirst(name);
+            if (value != null) {
+                try {
+                    return Long.valueOf(value.trim());
+                } catch (NumberFormatException e) {
+                    // e.g. a Retry-After given as an HTTP date; not worth pacing on
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private final class Quota {
+
+        private long limit;
+        private long remaining;
+        private long resetAt;
+
+        void set(long limit, long remaining, long resetAt) {
+            synchronized (this) {
+                this.limit = limit;
+                this.remaining = remaining;
+                this.resetAt = resetAt;
+            }
+        }
+
+        /*
+         * Takes one call out of the quota, so fetches fanned out before any of
+         * their responses arrive are counted too.
+         *
+         * Returns how long to delay the call, or -1 if it shouldn't be sent.
+         */
+        long reserve(long now) {
+            synchronized (this) {
+                long untilReset = resetAt - now;
+                if (untilReset <= 0) {
+                    // The limit has reset since we last heard; the next response will tell
+                    return 0;
+                }
+                if (remaining <= 0) {
+                    return -1;
+                }
+                remaining--;
+                if (remaining >= limit * lowWatermark) {
+                    return 0;
+                }
+                return Math.min(maxDelay, untilReset / (remaining + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.vmware.connectors.common.json.JsonDocumentTooLargeException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Collapses identical GETs that are in flight at the same time into one call
+ * to the backend, and gives every caller its own copy of the response.
+ * <p>
+ * GETs are identical if they have the same URI, headers and cookies, so
+ * callers never see responses fetched with someone else's credentials,
+ * whichever way the backend takes them. Headers and cookies are only kept
+ * as a hash.
+ * <p>
+ * A GET can join another until the other's response arrives. A response
+ * nobody joined goes to its caller as is, still streaming. A shared response
+ * is read fully before it's handed out, since a body can only be read once,
+ * and fails with {@link JsonDocumentTooLargeException} past
+ * {@code maxBodySize}. If the caller whose call was joined cancels before
+ * the response arrives, the GETs that joined it make calls of their own.
+ */
+public class SingleFlightFilter implements ExchangeFilterFunction {
+
+    private static final DefaultDataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    private final long maxBodySize;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * @param maxBodySize the most bytes of a shared response to read, or -1 for no limit
+     */
+    public SingleFlightFilter(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (request.method() != HttpMethod.GET) {
+            return next.exchange(request);
+        }
+        return Mono.defer(() -> {
+            requestCount.incrementAndGet();
+            return call(key(request), request, next);
+        });
+    }
+
+    /**
+     * @return the number of GETs that went through the filter
+     */
+    public long requests() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of GETs that were answered by another GET's call to the backend
+     */
+    public long coalesced() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return the fraction of GETs that didn't need a call to the backend of their own
+     */
+    public double savedRatio() {
+        long total = requestCount.get();
+        return total == 0 ? 0 : (double) coalescedCount.get() / total;
+    }
+
+    /**
+     * @return the number of calls that GETs can currently join
+     */
+    int inFlight() {
+        return flights.size();
+    }
+
+    private Mono<ClientResponse> call(String key, ClientRequest request, ExchangeFunction next) {
+        Flight own = new Flight(key);
+        // Joining under the map's lock, so a call that's being answered can't be joined
+        Flight flight = flights.compute(key, (k, existing) -> existing == null ? own : existing.join());
+        if (flight == own) { //NOPMD whether this call is the one that was put in the map
+            return own.lead(request, next);
+        }
+        return flight.shared
+                .doOnNext(shared -> coalescedCount.incrementAndGet())
+                .map(SharedResponse::copy)
+                .switchIfEmpty(Mono.defer(() -> call(key, request, next)));
+    }
+
+    private static String key(ClientRequest request) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(request.headers());
+        headers.forEach((name, values) -> put(hasher, name.toLowerCase(Locale.ROOT), values));
+        new TreeMap<>(request.cookies()).forEach((name, values) -> put(hasher, name, values));
+        return request.method() + " " + request.url() + " " + hasher.hash();
+    }
+
+    private static void put(Hasher hasher, String name, List<String> values) {
+        hasher.putString(name, UTF_8).putInt(values.size());
+        values.forEach(value -> hasher.putInt(value.length()).putString(value, UTF_8));
+    }
+
+    private final class Flight {
+
+        private final String key;
+        private final AtomicInteger joiners = new AtomicInteger();
+
+        // Completes empty if the call is cancelled before it's answered
+        private final MonoProcessor<SharedResponse> shared = MonoProcessor.create();
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        Flight join() {
+            joiners.incrementAndGet();
+            return this;
+        }
+
+        Mono<ClientResponse> lead(ClientRequest request, ExchangeFunction next) {
+            return next.exchange(request)
+                    .flatMap(this::land)
+                    .doOnError(this::fail)
+                    .doOnCancel(this::abandon);
+        }
+
+        private Mono<ClientResponse> land(ClientResponse response) {
+            flights.remove(key, this);
+            if (joiners.get() == 0) {
+                return Mono.just(response);
+            }
+            // Read on behalf of everyone, so the caller cancelling doesn't stop it
+            SharedResponse.read(response, maxBodySize).subscribe(shared);
+            return shared.map(SharedResponse::copy);
+        }
+
+        private void fail(Throwable e) {
+            if (flights.remove(key, this)) {
+                shared.onError(e);
+            }
+        }
+
+        private void abandon() {
+            if (flights.remove(key, this)) {
+                shared.onComplete();
+            }
+        }
+    }
+
+    private static final class SharedResponse {
+
+        private final ClientResponse response;
+        private final byte[] body;
+
+        private SharedResponse(ClientResponse response, byte[] body) { //NOPMD the body is read into a new array
+            this.response = response;
+            this.body = body;
+        }
+
+        static Mono<SharedResponse> read(ClientResponse response, long maxBodySize) {
+            return response.body(BodyExtractors.toDataBuffers())
+                    .collect(ByteArrayOutputStream::new, (body, buffer) -> append(body, buffer, maxBodySize))
+                    .map(body -> new SharedResponse(response, body.toByteArray()));
+        }
+
+        private static void append(ByteArrayOutputStream body, DataBuffer buffer, long maxBodySize) {
+            try {
+                if (maxBodySize >= 0 && body.size() + (long) buffer.readableByteCount() > maxBodySize) {
+                    throw new JsonDocumentTooLargeException(maxBodySize);
+                }
+                byte[] bytes = new byte[buffer.readableByteCount()];
+                buffer.read(bytes);
+                body.write(bytes, 0, bytes.length);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        ClientResponse copy() {
+            Flux<DataBuffer> copy = body.length == 0 ? Flux.empty() : Flux.defer(() -> Flux.just(BUFFER_FACTORY.wrap(body)));
+            return ClientResponse.from(response)
+                    .body(copy)
+                    .build();
+        }
+    }
+}
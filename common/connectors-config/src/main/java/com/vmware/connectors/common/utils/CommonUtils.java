@@ -21,7 +21,11 @@ public final class CommonUtils {
         // Utility class.
     }
 
-    public static void buildConnectorImageUrl(final Card.Builder card, final HttpServletRequest request) {
+    /**
+     * Works on either stack: pass the ServerHttpRequest on the reactive
+     * stack, or a ServletServerHttpRequest on the servlet stack.
+     */
+    public static void buildConnectorImageUrl(final Card.Builder card, final HttpRequest request) {
         final String uri = buildConnectorImageUrl(request);
 
         if (StringUtils.isNotBlank(uri)) {
@@ -29,6 +33,10 @@ public final class CommonUtils {
         }
     }
 
+    public static void buildConnectorImageUrl(final Card.Builder card, final HttpServletRequest request) {
+        buildConnectorImageUrl(card, new ServletServerHttpRequest(request));
+    }
+
     public static String buildConnectorImageUrl(final HttpRequest request) {
         return buildConnectorImageUrl(request, DEFAULT_IMAGE_PATH);
     }
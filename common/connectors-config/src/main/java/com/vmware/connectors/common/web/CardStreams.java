@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import com.vmware.connectors.common.payloads.response.Card;
+import com.vmware.connectors.common.utils.Reactive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.springframework.http.HttpStatus.NOT_ACCEPTABLE;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM;
+
+/**
+ * Writes the cards for a card request as each one is built, rather than all
+ * of them at once when the slowest is done.
+ * <p>
+ * A controller offers it as a second {@code /cards/requests} mapping:
+ * <pre>
+ * &#64;PostMapping(path = "/cards/requests", produces = {CardStreams.NDJSON_VALUE, TEXT_EVENT_STREAM_VALUE}, ...)
+ * public ResponseBodyEmitter streamCards(..., HttpRequest request) {
+ *     return CardStreams.stream(() -&gt; cards(...), request);
+ * }
+ * </pre>
+ * Cards are written as one JSON object per line for {@code application/x-ndjson},
+ * or one {@code card} event each for {@code text/event-stream}. If the
+ * request's deadline cuts the cards short, a last {@code {"partial":true}}
+ * line or {@code partial} event says so.
+ * <p>
+ * The response is committed before the first card, so a backend error can
+ * only end the stream early; it can't change the status any more.
+ * <p>
+ * Emitters are a Spring MVC feature, so streaming is only offered on the
+ * servlet stack for now. On the reactive stack a stream is refused with 406
+ * Not Acceptable before any card is built.
+ */
+public final class CardStreams {
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType NDJSON = MediaType.valueOf(NDJSON_VALUE);
+
+    private static final Logger logger = LoggerFactory.getLogger(CardStreams.class);
+
+    private CardStreams() {
+        // Utility class
+    }
+
+    /**
+     * @param cards   builds the cards; only called on the servlet stack
+     * @param request the card request, whose Accept header picks the format
+     * @return the emitter to return from the controller
+     * @throws ResponseStatusException with 406 Not Acceptable on the reactive stack
+     */
+    public static ResponseBodyEmitter stream(Supplier<Flux<Card>> cards, HttpRequest request) {
+        if (!(request instanceof ServletServerHttpRequest)) {
+            throw new ResponseStatusException(NOT_ACCEPTABLE, "Card streams are only offered on the servlet stack");
+        }
+        boolean events = request.getHeaders().getAccept().stream()
+                .anyMatch(accept -> TEXT_EVENT_STREAM.getType().equals(accept.getType())
+                        && TEXT_EVENT_STREAM.getSubtype().equals(accept.getSubtype()));
+        ResponseBodyEmitter emitter = events ? new SseEmitter() : new NdjsonEmitter();
+        AtomicBoolean partial = new AtomicBoolean();
+
+        Disposable subscription = Reactive.untilDeadline(cards.get(), () -> partial.set(true))
+                .doOnNext(card -> send(emitter, events, card))
+                .subscriberContext(Reactive.setupContext())
+                .subscribe(
+                        card -> {
+                            // Already sent
+                        },
+                        e -> {
+                            logger.error("Card stream failed", e);
+                            emitter.completeWithError(e);
+                        },
+                        () -> {
+                            if (partial.get()) {
+                                sendPartial(emitter, events);
+                            }
+                            emitter.complete();
+                        }
+                );
+
+        // The client went away or the request timed out; stop building cards
+        emitter.onTimeout(subscription::dispose);
+        emitter.onCompletion(subscription::dispose);
+        return emitter;
+    }
+
+    private static void send(ResponseBodyEmitter emitter, boolean events, Card card) {
+        try {
+            if (events) {
+                ((SseEmitter) emitter).send(SseEmitter.event().name("card").data(card, APPLICATION_JSON));
+            } else {
+                emitter.send(card, APPLICATION_JSON);
+                emitter.send("\n", MediaType.TEXT_PLAIN);
+            }
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private static void sendPartial(ResponseBodyEmitter emitter, boolean events) {
+        try {
+            if (events) {
+                ((SseEmitter) emitter).send(SseEmitter.event().name("partial").data(""));
+            } else {
+                emitter.send(Collections.singletonMap("partial", true), APPLICATION_JSON);
+                emitter.send("\n", MediaType.TEXT_PLAIN);
+            }
+        } catch (IOException e) {
+            logger.debug("Couldn't mark the card stream as partial", e);
+        }
+    }
+
+    private static final class NdjsonEmitter extends ResponseBodyEmitter {
+
+        @Override
+        protected void extendResponse(ServerHttpResponse outputMessage) {
+            super.extendResponse(outputMessage);
+            outputMessage.getHeaders().setContentType(NDJSON);
+        }
+    }
+}
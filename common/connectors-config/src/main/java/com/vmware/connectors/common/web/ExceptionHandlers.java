@@ -5,16 +5,19 @@
 
 package com.vmware.connectors.common.web;
 
+import com.vmware.connectors.common.http.BulkheadFullException;
+import com.vmware.connectors.common.json.JsonDocumentTooLargeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.support.WebExchangeBindException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
 import java.util.Collections;
@@ -36,12 +39,25 @@ public class ExceptionHandlers {
 
     //Handles  validation exceptions
     @ExceptionHandler(MethodArgumentNotValidException.class)
-    @ResponseStatus(BAD_REQUEST)
     @ResponseBody
-    public Map<String, Map<String, String>> handleValidationException(MethodArgumentNotValidException e) {
-        Map<String, String> errorMap = e.getBindingResult().getFieldErrors().stream()
+    public ResponseEntity<Map<String, Map<String, String>>> handleValidationException(MethodArgumentNotValidException e) {
+        return validationErrors(e.getBindingResult());
+    }
+
+    // The reactive stack's validation exception
+    @ExceptionHandler(WebExchangeBindException.class)
+    @ResponseBody
+    public ResponseEntity<Map<String, Map<String, String>>> handleValidationException(WebExchangeBindException e) {
+        return validationErrors(e.getBindingResult());
+    }
+
+    // JSON even when a card stream was asked for; nothing has been streamed yet
+    private static ResponseEntity<Map<String, Map<String, String>>> validationErrors(BindingResult bindingResult) {
+        Map<String, String> errorMap = bindingResult.getFieldErrors().stream()
                 .collect(Collectors.toMap(FieldError::getField, FieldError::getDefaultMessage));
-        return Collections.singletonMap("errors", errorMap);
+        return ResponseEntity.status(BAD_REQUEST)
+                .contentType(APPLICATION_JSON)
+                .body(Collections.singletonMap("errors", errorMap));
     }
 
     @ExceptionHandler
@@ -66,4 +82,26 @@ public class ExceptionHandlers {
             return builder.body(e.getResponseBodyAsString());
         }
     }
+
+    @ExceptionHandler
+    @ResponseBody
+    public ResponseEntity<Object> handleTooLargeException(JsonDocumentTooLargeException e) {
+        // The backend sent more than we're willing to decode; that's its fault, not the client's
+        logger.error("Backend response abandoned: {}", e.getMessage());
+        Map<String, String> body = Collections.singletonMap("error", "backend_response_too_large");
+        return ResponseEntity.status(BAD_GATEWAY)
+                .contentType(APPLICATION_JSON)
+                .body(body);
+    }
+
+    @ExceptionHandler
+    @ResponseBody
+    public ResponseEntity<Object> handleBulkheadFullException(BulkheadFullException e) {
+        // The backend is already swamped by other requests; the client can try again later
+        logger.warn(e.getMessage());
+        Map<String, String> body = Collections.singletonMap("error", "backend_busy");
+        return ResponseEntity.status(SERVICE_UNAVAILABLE)
+                .contentType(APPLICATION_JSON)
+                .body(body);
+    }
 }
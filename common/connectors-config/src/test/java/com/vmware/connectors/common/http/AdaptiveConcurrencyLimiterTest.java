@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs the limiter against simulated backends, on a virtual clock.
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final String BACKEND = "https://backend.example.com";
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private long now;
+
+    // Backend responses to deliver, by when they're due
+    private final PriorityQueue<Event> events = new PriorityQueue<>(
+            Comparator.comparingLong((Event event) -> event.dueNanos).thenComparingLong(event -> event.sequence));
+    private long sequence;
+    private int active;
+
+    // The backend's limit after each response
+    private final List<Integer> limits = new ArrayList<>();
+
+    private final AdaptiveConcurrencyLimiter limiter =
+            new AdaptiveConcurrencyLimiter(10, 50, 1000, 2.0, new SimpleMeterRegistry(), () -> now);
+
+    @Test
+    void settlesBelowWhereTheBackendThrashes() {
+        // The first fan-out brings the limit down from 10
+        fanOut(call -> limiter.limit(BACKEND, call));
+        limits.clear();
+
+        long limited = fanOut(call -> limiter.limit(BACKEND, call));
+
+        // It probes one above where the backend thrashes, and backs off again
+        assertThat(limits, everyItem(both(greaterThanOrEqualTo(8)).and(lessThanOrEqualTo(9))));
+        assertThat(limiter.currentLimit(BACKEND), is(8));
+
+        long unlimited = fanOut(UnaryOperator.identity());
+        assertThat(limited, lessThan(unlimited));
+    }
+
+    @Test
+    void timesOnlyTheLimitedCall() {
+        now = MS;
+        for (int i = 0; i < 5; i++) {
+            call(0);
+        }
+        assertThat(limiter.currentLimit(BACKEND), is(10));
+
+        // Slow work on the result isn't the backend's doing
+        call(100 * MS);
+        assertThat(limiter.currentLimit(BACKEND), is(10));
+    }
+
+    @Test
+    void rejectsCallsBeyondTheWaitingLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 2.0, new SimpleMeterRegistry(), () -> now);
+        MonoProcessor<String> first = MonoProcessor.create();
+        AtomicReference<String> second = new AtomicReference<>();
+
+        limiter.limit(BACKEND, first).subscribe();
+        limiter.limit(BACKEND, Mono.just("second")).subscribe(second::set);
+
+        assertThrows(BulkheadFullException.class, () -> limiter.limit(BACKEND, Mono.just("third")).block());
+
+        first.onNext("first");
+        assertThat(second.get(), is("second"));
+    }
+
+    @Test
+    void forgetsIdleBackends() {
+        // Brings the limit down from 10
+        fanOut(call -> limiter.limit(BACKEND, call));
+        assertThat(limiter.currentLimit(BACKEND), is(lessThan(10)));
+
+        now += TimeUnit.MINUTES.toNanos(11);
+        limiter.limit("https://other.example.com", Mono.just("other")).block();
+
+        assertThat(limiter.trackedBackends(), is(1));
+        assertThat(limiter.currentLimit(BACKEND), is(10));
+    }
+
+    @Test
+    void tagsTheFirstHundredBackends() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 50, 1000, 2.0, registry, () -> now);
+
+        for (int i = 0; i < 150; i++) {
+            limiter.limit("https://backend" + i + ".example.com", Mono.just("ok")).block();
+        }
+
+        assertThat(registry.find("connectors.http.concurrency.limit").gauges().size(), is(HostTags.MAX_HOSTS));
+        assertThat(registry.find("connectors.http.concurrency.limit").tag("backend", "https://backend0.example.com").gauge(),
+                is(notNullValue()));
+    }
+
+    /*
+     * A 10ms call to a backend that, past 8 calls in flight, thrashes and
+     * takes 10ms for each call it has.
+     */
+    private Mono<String> thrashingBackend() {
+        return Mono.defer(() -> {
+            active++;
+            long latency = active <= 8 ? 10 * MS : active * 10 * MS;
+            MonoProcessor<String> response = MonoProcessor.create();
+            events.add(new Event(now + latency, sequence++, () -> {
+                active--;
+                response.onNext("ok");
+            }));
+            return response;
+        });
+    }
+
+    /*
+     * Fans 200 calls out to the backend, at once.
+     *
+     * @return how long the fan-out took
+     */
+    private long fanOut(UnaryOperator<Mono<String>> pacing) {
+        long start = now;
+        AtomicInteger completed = new AtomicInteger();
+
+        Flux.range(0, 200)
+                .flatMap(i -> pacing.apply(thrashingBackend()))
+                .subscribe(response -> completed.incrementAndGet());
+
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            now = event.dueNanos;
+            event.action.run();
+            limits.add(limiter.currentLimit(BACKEND));
+        }
+
+        assertThat(completed.get(), is(200));
+        return now - start;
+    }
+
+    /*
+     * A 10ms call, followed by work on its result.
+     */
+    private void call(long workNanos) {
+        limiter.limit(BACKEND, Mono.fromCallable(() -> now += 10 * MS))
+                .doOnNext(result -> now += workNanos)
+                .block();
+    }
+
+    private static final class Event {
+        private final long dueNanos;
+        private final long sequence;
+        private final Runnable action;
+
+        private Event(long dueNanos, long sequence, Runnable action) {
+            this.dueNanos = dueNanos;
+            this.sequence = sequence;
+            this.action = action;
+        }
+    }
+}
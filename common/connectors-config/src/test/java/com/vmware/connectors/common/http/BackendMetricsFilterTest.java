@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+class BackendMetricsFilterTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final BackendMetricsFilter filter = new BackendMetricsFilter("jira", registry);
+
+    private final ExchangeFunction ok = request -> Mono.just(ClientResponse.create(HttpStatus.OK).build());
+
+    @Test
+    void tagsCallsWithTheirTemplate() {
+        filter.filter(get("https://jira.example.com/rest/api/2/issue/APF-27")
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/2/issue/{issueId}")
+                .build(), ok)
+                .block();
+
+        Meter.Id call = onlyCall();
+        assertThat(call.getName(), is("connectors.http.backend.requests"));
+        assertThat(call.getTag("connector"), is("jira"));
+        assertThat(call.getTag("uri"), is("/rest/api/2/issue/{issueId}"));
+        assertThat(call.getTag("method"), is("GET"));
+        assertThat(call.getTag("status"), is("200"));
+        assertThat(call.getTag("outcome"), is("SUCCESS"));
+    }
+
+    @Test
+    void tagsOnlyTheTemplatesPath() {
+        filter.filter(get("https://jira.example.com/rest/api/2/issue/APF-27?fields=summary")
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "https://jira.example.com/rest/api/2/issue/{issueId}?fields={fields}")
+                .build(), ok)
+                .block();
+
+        assertThat(onlyCall().getTag("uri"), is("/rest/api/2/issue/{issueId}"));
+    }
+
+    @Test
+    void keepsTemplatesWithoutVariables() {
+        // The API version isn't an ID
+        filter.filter(get("https://acme.my.salesforce.com/services/data/v39.0/query?q=SELECT")
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/services/data/v39.0/query")
+                .build(), ok)
+                .block();
+
+        assertThat(onlyCall().getTag("uri"), is("/services/data/v39.0/query"));
+    }
+
+    @Test
+    void replacesIdsWithoutATemplate() {
+        filter.filter(get("https://jira.example.com/rest/api/2/issue/APF-27").build(), ok)
+                .block();
+
+        assertThat(onlyCall().getTag("uri"), is("/rest/api/{id}/issue/{id}"));
+    }
+
+    @Test
+    void tagsBackendErrors() {
+        filter.filter(get("https://jira.example.com/rest/api/2/myself").build(),
+                request -> Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build()))
+                .block();
+
+        assertThat(onlyCall().getTag("status"), is("503"));
+        assertThat(onlyCall().getTag("outcome"), is("SERVER_ERROR"));
+    }
+
+    @Test
+    void tagsCallsWithoutAResponse() {
+        filter.filter(get("https://jira.example.com/rest/api/2/myself").build(),
+                request -> Mono.error(new IOException("Connection refused")))
+                .onErrorResume(IOException.class, e -> Mono.empty())
+                .block();
+
+        assertThat(onlyCall().getTag("status"), is("IO_ERROR"));
+        assertThat(onlyCall().getTag("outcome"), is("UNKNOWN"));
+    }
+
+    private Meter.Id onlyCall() {
+        List<Meter> meters = registry.getMeters();
+        assertThat(meters, hasSize(1));
+        return meters.get(0).getId();
+    }
+
+    private static ClientRequest.Builder get(String url) {
+        return ClientRequest.create(HttpMethod.GET, URI.create(url));
+    }
+}
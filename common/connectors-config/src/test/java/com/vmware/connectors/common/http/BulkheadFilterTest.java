@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.Disposable;
+import reactor.core.publisher.EmitterProcessor;
+import reactor.core.publisher.MonoProcessor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BulkheadFilterTest {
+
+    private final AtomicInteger rejections = new AtomicInteger();
+
+    // One request in flight and one waiting, per host
+    private final BulkheadFilter filter = new BulkheadFilter(1, 1, rejections::incrementAndGet);
+
+    // The calls that reached the backend, to be answered by the test
+    private final List<MonoProcessor<ClientResponse>> calls = new ArrayList<>();
+
+    private final ExchangeFunction backend = request -> {
+        MonoProcessor<ClientResponse> call = MonoProcessor.create();
+        calls.add(call);
+        return call;
+    };
+
+    @Test
+    void queuesThenRejects() {
+        send("https://a.example.com/1");
+        send("https://a.example.com/2");
+
+        assertThrows(BulkheadFullException.class, () -> filter.filter(get("https://a.example.com/3"), backend).block());
+
+        assertThat(calls.size(), is(1));
+        assertThat(filter.inFlight(), is(1));
+        assertThat(filter.waiting(), is(1));
+        assertThat(rejections.get(), is(1));
+    }
+
+    @Test
+    void isolatesHosts() {
+        send("https://a.example.com/1");
+        send("https://a.example.com/2");
+        send("https://b.example.com/1");
+
+        assertThat(calls.size(), is(2));
+        assertThat(filter.inFlight(), is(2));
+        assertThat(filter.hosts(), is(2));
+    }
+
+    @Test
+    void holdsThePermitUntilTheBodyIsRead() {
+        AtomicReference<ClientResponse> first = send("https://a.example.com/1");
+        send("https://a.example.com/2");
+
+        EmitterProcessor<DataBuffer> body = EmitterProcessor.create();
+        calls.get(0).onNext(ClientResponse.create(HttpStatus.OK).body(body).build());
+
+        // The headers are in, but not the body
+        assertThat(first.get(), notNullValue());
+        assertThat(calls.size(), is(1));
+        assertThat(filter.waiting(), is(1));
+
+        first.get().body(BodyExtractors.toDataBuffers()).subscribe();
+        body.onComplete();
+
+        assertThat(calls.size(), is(2));
+        assertThat(filter.inFlight(), is(1));
+        assertThat(filter.waiting(), is(0));
+    }
+
+    @Test
+    void releasesOnErrorAndCancel() {
+        send("https://a.example.com/1");
+        Disposable waiting = filter.filter(get("https://a.example.com/2"), backend).subscribe();
+
+        waiting.dispose();
+        assertThat(filter.waiting(), is(0));
+
+        calls.get(0).onError(new IOException("Connection reset"));
+        assertThat(filter.inFlight(), is(0));
+        assertThat(calls.size(), is(1));
+    }
+
+    @Test
+    void forgetsIdleHosts() {
+        AtomicReference<ClientResponse> response = send("https://a.example.com/1");
+        calls.get(0).onNext(ClientResponse.create(HttpStatus.NO_CONTENT).build());
+        assertThat(filter.hosts(), is(1));
+
+        response.get().body(BodyExtractors.toDataBuffers()).blockLast();
+
+        assertThat(filter.inFlight(), is(0));
+        assertThat(filter.hosts(), is(0));
+
+        // The host gets a new bulkhead when it's used again
+        send("https://a.example.com/2");
+        assertThat(calls.size(), is(2));
+        assertThat(filter.hosts(), is(1));
+    }
+
+    private AtomicReference<ClientResponse> send(String url) {
+        AtomicReference<ClientResponse> response = new AtomicReference<>();
+        filter.filter(get(url), backend)
+                .subscribe(response::set, error -> { /* Checked through the filter's counts */ });
+        return response;
+    }
+
+    private static ClientRequest get(String url) {
+        return ClientRequest.create(HttpMethod.GET, URI.create(url)).build();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import com.google.common.base.Throwables;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class ConnectionPoolTest {
+
+    private MockWebServer backend;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void start() throws IOException {
+        backend = new MockWebServer();
+        backend.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        pool.dispose();
+        backend.shutdown();
+    }
+
+    @Test
+    void countsConnections() throws Exception {
+        pool = new ConnectionPool("test", 2, 1000, 10, 60_000);
+        WebClient client = client();
+        backend.enqueue(new MockResponse().setBody("one"));
+        backend.enqueue(new MockResponse().setBody("two"));
+
+        assertThat(get(client).block(Duration.ofSeconds(5)), is("one"));
+        awaitUntil(() -> pool.activeConnections() == 0);
+        assertThat(pool.openConnections(), is(1));
+        assertThat(pool.idleConnections(), is(1));
+        assertThat(pool.pendingAcquires(), is(0));
+
+        // The idle connection is reused
+        assertThat(get(client).block(Duration.ofSeconds(5)), is("two"));
+        assertThat(backend.takeRequest().getSequenceNumber(), is(0));
+        assertThat(backend.takeRequest().getSequenceNumber(), is(1));
+        awaitUntil(() -> pool.activeConnections() == 0);
+        assertThat(pool.openConnections(), is(1));
+    }
+
+    @Test
+    void closesIdleConnections() throws Exception {
+        pool = new ConnectionPool("test", 2, 1000, 10, 200);
+        WebClient client = client();
+        backend.enqueue(new MockResponse().setBody("one"));
+        backend.enqueue(new MockResponse().setBody("two"));
+
+        get(client).block(Duration.ofSeconds(5));
+        awaitUntil(() -> pool.activeConnections() == 0);
+        assertThat(pool.openConnections(), is(1));
+
+        // Without another request to notice it
+        awaitUntil(() -> pool.openConnections() == 0);
+        assertThat(pool.idleConnections(), is(0));
+
+        // The next request gets a new connection
+        assertThat(get(client).block(Duration.ofSeconds(5)), is("two"));
+        backend.takeRequest();
+        assertThat(backend.takeRequest().getSequenceNumber(), is(0));
+    }
+
+    @Test
+    void rejectsAcquiresOverThePendingLimit() throws Exception {
+        pool = new ConnectionPool("test", 1, 5000, 0, 60_000);
+        WebClient client = client();
+        // MockWebServer 3.10 doesn't apply a headers delay
+        backend.enqueue(new MockResponse().setBody("slow").setBodyDelay(500, TimeUnit.MILLISECONDS));
+
+        CompletableFuture<String> slow = get(client).toFuture();
+        awaitUntil(() -> pool.activeConnections() == 1);
+
+        Throwable rejected = assertThrows(RuntimeException.class, () -> get(client).block(Duration.ofSeconds(5)));
+        assertThat(Throwables.getRootCause(rejected).getMessage(), containsString("waiting for a connection"));
+
+        assertThat(slow.get(5, TimeUnit.SECONDS), is("slow"));
+        awaitUntil(() -> pool.activeConnections() == 0);
+        assertThat(pool.pendingAcquires(), is(0));
+    }
+
+    private WebClient client() {
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(options -> options.poolResources(pool)))
+                .build();
+    }
+
+    private Mono<String> get(WebClient client) {
+        return client.get()
+                .uri(backend.url("/").uri())
+                .retrieve()
+                .bodyToMono(String.class);
+    }
+
+    // The pool is updated on Netty's threads, after the response is handed over
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for the pool");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import com.vmware.connectors.common.utils.DeadlineExceededException;
+import com.vmware.connectors.common.utils.Reactive;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeadlineFilterTest {
+
+    private static final ClientRequest REQUEST =
+            ClientRequest.create(HttpMethod.GET, URI.create("https://jira.example.com/rest/api/2/issue/APF-27")).build();
+
+    private final DeadlineFilter filter = new DeadlineFilter();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void leavesCallsWithoutADeadlineAlone() {
+        ClientResponse response = filter.filter(REQUEST, answering())
+                .block(Duration.ofSeconds(5));
+
+        assertThat(response.statusCode(), is(HttpStatus.OK));
+        assertThat(calls.get(), is(1));
+    }
+
+    @Test
+    void sendsCallsBeforeTheDeadline() {
+        ClientResponse response = filter.filter(REQUEST, answering())
+                .subscriberContext(context -> context.put(Reactive.DEADLINE, Instant.now().plusSeconds(5)))
+                .block(Duration.ofSeconds(5));
+
+        assertThat(response.statusCode(), is(HttpStatus.OK));
+    }
+
+    @Test
+    void failsCallsStillRunningAtTheDeadline() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ExchangeFunction stalled = request -> Mono.<ClientResponse>never().doOnCancel(() -> cancelled.set(true));
+
+        DeadlineExceededException e = assertThrows(DeadlineExceededException.class, () -> filter.filter(REQUEST, stalled)
+                .subscriberContext(context -> context.put(Reactive.DEADLINE, Instant.now().plusMillis(100)))
+                .block(Duration.ofSeconds(5)));
+
+        assertThat(e.getMessage(), containsString("GET https://jira.example.com/rest/api/2/issue/APF-27"));
+        assertThat(cancelled.get(), is(true));
+    }
+
+    @Test
+    void doesNotSendCallsAfterTheDeadline() {
+        assertThrows(DeadlineExceededException.class, () -> filter.filter(REQUEST, answering())
+                .subscriberContext(context -> context.put(Reactive.DEADLINE, Instant.now().minusMillis(1)))
+                .block(Duration.ofSeconds(5)));
+
+        assertThat(calls.get(), is(0));
+    }
+
+    private ExchangeFunction answering() {
+        return request -> {
+            calls.incrementAndGet();
+            return Mono.just(ClientResponse.create(HttpStatus.OK).build());
+        };
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class HedgingFilterTest {
+
+    private static final String URL = "https://jira.example.com/rest/api/2/issue/APF-27";
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    /*
+     * The calls that reached the backend, to be answered by the test. Like a
+     * connection that's already answering, they can answer after they're
+     * cancelled.
+     */
+    private final List<Subscriber<? super ClientResponse>> calls = new CopyOnWriteArrayList<>();
+
+    private final ExchangeFunction backend = request -> Mono.from(subscriber -> {
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                // Answered by the test
+            }
+
+            @Override
+            public void cancel() {
+                // Too late to stop it
+            }
+        });
+        calls.add(subscriber);
+    });
+
+    @Test
+    void waitsForSamplesBeforeHedging() throws Exception {
+        HedgingFilter filter = new HedgingFilter(0.95, 1.0, registry);
+
+        filter.filter(hedged(), backend).subscribe();
+        Thread.sleep(50);
+
+        assertThat(calls.size(), is(1));
+    }
+
+    @Test
+    void hedgesSlowGets() throws Exception {
+        HedgingFilter filter = new HedgingFilter(0.95, 1.0, registry);
+        sample(filter);
+
+        AtomicReference<ClientResponse> result = new AtomicReference<>();
+        filter.filter(hedged(), backend).subscribe(result::set);
+        awaitUntil(() -> calls.size() == 2);
+
+        ClientResponse hedge = ClientResponse.create(HttpStatus.OK).build();
+        answer(1, hedge);
+
+        assertThat(result.get(), sameInstance(hedge));
+        assertThat(count("connectors.http.hedge.sent"), is(1.0));
+        assertThat(count("connectors.http.hedge.won"), is(1.0));
+    }
+
+    @Test
+    void leavesOtherGetsAlone() throws Exception {
+        HedgingFilter filter = new HedgingFilter(0.95, 1.0, registry);
+        sample(filter);
+
+        filter.filter(get().build(), backend).subscribe();
+        Thread.sleep(50);
+
+        assertThat(calls.size(), is(1));
+    }
+
+    @Test
+    void hedgesWithinTheBudget() throws Exception {
+        // One hedge for every two requests
+        HedgingFilter filter = new HedgingFilter(0.95, 0.5, registry);
+        sample(filter);
+
+        filter.filter(hedged(), backend).subscribe();
+        Thread.sleep(50);
+        assertThat(calls.size(), is(1));
+
+        filter.filter(hedged(), backend).subscribe();
+        awaitUntil(() -> calls.size() == 3);
+        assertThat(count("connectors.http.hedge.sent"), is(1.0));
+    }
+
+    @Test
+    void releasesTheLoser() throws Exception {
+        HedgingFilter filter = new HedgingFilter(0.95, 1.0, registry);
+        sample(filter);
+
+        AtomicReference<ClientResponse> result = new AtomicReference<>();
+        filter.filter(hedged(), backend).subscribe(result::set);
+        awaitUntil(() -> calls.size() == 2);
+
+        ClientResponse hedge = ClientResponse.create(HttpStatus.OK).build();
+        answer(1, hedge);
+
+        // The first attempt answers anyway
+        AtomicBoolean released = new AtomicBoolean();
+        Flux<DataBuffer> body = Flux.just(new DefaultDataBufferFactory().wrap("late".getBytes(UTF_8)))
+                .doOnComplete(() -> released.set(true));
+        answer(0, ClientResponse.create(HttpStatus.OK).body(body).build());
+
+        assertThat(result.get(), sameInstance(hedge));
+        assertThat(released.get(), is(true));
+    }
+
+    @Test
+    void forgetsIdleHosts() throws Exception {
+        AtomicLong now = new AtomicLong();
+        HedgingFilter filter = new HedgingFilter(0.95, 1.0, registry, now::get);
+        sample(filter);
+        assertThat(filter.trackedBackends(), is(1));
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(11));
+        filter.filter(ClientRequest.create(HttpMethod.GET, URI.create("https://other.example.com/")).build(), backend)
+                .subscribe();
+
+        assertThat(filter.trackedBackends(), is(1));
+
+        // Jira has to be sampled again before it's hedged
+        filter.filter(hedged(), backend).subscribe();
+        Thread.sleep(50);
+        assertThat(calls.size(), is(2));
+    }
+
+    /*
+     * Gives the filter enough quick responses to know when a GET is slow.
+     */
+    private void sample(HedgingFilter filter) {
+        for (int i = 0; i < 20; i++) {
+            filter.filter(get().build(), backend).subscribe();
+            answer(i, ClientResponse.create(HttpStatus.OK).build());
+        }
+        calls.clear();
+    }
+
+    private double count(String counter) {
+        return registry.counter(counter, "backend", "https://jira.example.com").count();
+    }
+
+    private void answer(int call, ClientResponse response) {
+        calls.get(call).onNext(response);
+        calls.get(call).onComplete();
+    }
+
+    private static ClientRequest hedged() {
+        return get().attribute(HedgingFilter.HEDGE, true).build();
+    }
+
+    private static ClientRequest.Builder get() {
+        return ClientRequest.create(HttpMethod.GET, URI.create(URL));
+    }
+
+    // Hedges are sent from a timer thread
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for a hedge");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+class RateLimitTrackerTest {
+
+    private static final String GITHUB = "https://api.github.com";
+    private static final String ENTERPRISE = "https://github.acme.com/api/v3";
+
+    private final AtomicInteger shortCircuited = new AtomicInteger();
+
+    // Paced below 10% of the limit, by at most 200ms a call
+    private final RateLimitTracker rateLimits = new RateLimitTracker(0.1, 200, shortCircuited::incrementAndGet);
+
+    @Test
+    void sendsUnknownTokens() {
+        assertThat(schedule(GITHUB, "token").block(), is("call"));
+        assertThat(shortCircuited.get(), is(0));
+    }
+
+    @Test
+    void sendsWhileCallsAreLeft() {
+        rateLimits.update(GITHUB, "token", response("5000", "4000", inAnHour()));
+
+        assertThat(schedule(GITHUB, "token").block(), is("call"));
+    }
+
+    @Test
+    void pacesCallsBelowTheLowWatermark() {
+        rateLimits.update(GITHUB, "token", response("5000", "100", inAnHour()));
+
+        long start = System.nanoTime();
+        assertThat(schedule(GITHUB, "token").block(), is("call"));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(200L));
+    }
+
+    @Test
+    void fallsBackOnceNoCallsAreLeft() {
+        rateLimits.update(GITHUB, "token", response("5000", "1", inAnHour()));
+
+        // The last call left goes out, paced
+        assertThat(schedule(GITHUB, "token").block(), is("call"));
+        assertThat(schedule(GITHUB, "token").block(), is("fallback"));
+        assertThat(shortCircuited.get(), is(1));
+    }
+
+    @Test
+    void sendsAgainOnceTheLimitResets() {
+        rateLimits.update(GITHUB, "token", response("5000", "0", Instant.now().minusSeconds(1).getEpochSecond()));
+
+        assertThat(schedule(GITHUB, "token").block(), is("call"));
+    }
+
+    @Test
+    void waitsForRetryAfter() {
+        rateLimits.update(GITHUB, "token", ClientResponse.create(HttpStatus.FORBIDDEN)
+                .header("Retry-After", "60")
+                .build());
+
+        assertThat(schedule(GITHUB, "token").block(), is("fallback"));
+    }
+
+    @Test
+    void readsGitlabHeaders() {
+        rateLimits.update("https://gitlab.com", "token", ClientResponse.create(HttpStatus.OK)
+                .header("RateLimit-Limit", "600")
+                .header("RateLimit-Remaining", "0")
+                .header("RateLimit-Reset", String.valueOf(inAnHour()))
+                .build());
+
+        assertThat(schedule("https://gitlab.com", "token").block(), is("fallback"));
+    }
+
+    @Test
+    void keepsHostsAndTokensApart() {
+        rateLimits.update(GITHUB, "token", response("5000", "0", inAnHour()));
+
+        assertThat(schedule(GITHUB, "token").block(), is("fallback"));
+        assertThat(schedule(GITHUB + "/", "token").block(), is("fallback"));
+        assertThat(schedule(GITHUB, "other-token").block(), is("call"));
+        assertThat(schedule(ENTERPRISE, "token").block(), is("call"));
+    }
+
+    private Mono<String> schedule(String backend, String token) {
+        return rateLimits.schedule(backend, token, Mono.just("call"), Mono.just("fallback"));
+    }
+
+    private static ClientResponse response(String limit, String remaining, long reset) {
+        return ClientResponse.create(HttpStatus.OK)
+                .header("X-RateLimit-Limit", limit)
+                .header("X-RateLimit-Remaining", remaining)
+                .header("X-RateLimit-Reset", String.valueOf(reset))
+                .build();
+    }
+
+    private static long inAnHour() {
+        return Instant.now().plus(1, ChronoUnit.HOURS).getEpochSecond();
+    }
+}
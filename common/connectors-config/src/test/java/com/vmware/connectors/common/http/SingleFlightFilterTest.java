@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.http;
+
+import com.vmware.connectors.common.json.JsonDocumentTooLargeException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.Disposable;
+import reactor.core.publisher.MonoProcessor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+class SingleFlightFilterTest {
+
+    private static final String URL = "https://jira.example.com/rest/api/2/issue/APF-27";
+
+    private final SingleFlightFilter filter = new SingleFlightFilter(16);
+
+    // The calls that reached the backend, to be answered by the test
+    private final List<MonoProcessor<ClientResponse>> calls = new ArrayList<>();
+
+    private final ExchangeFunction backend = request -> {
+        MonoProcessor<ClientResponse> call = MonoProcessor.create();
+        calls.add(call);
+        return call;
+    };
+
+    @Test
+    void mergesIdenticalGets() {
+        AtomicReference<ClientResponse> first = send(get().build());
+        AtomicReference<ClientResponse> second = send(get().build());
+        assertThat(calls.size(), is(1));
+
+        calls.get(0).onNext(ClientResponse.create(HttpStatus.OK).body("{\"id\":27}").build());
+
+        assertThat(first.get().bodyToMono(String.class).block(), is("{\"id\":27}"));
+        assertThat(second.get().bodyToMono(String.class).block(), is("{\"id\":27}"));
+        assertThat(filter.requests(), is(2L));
+        assertThat(filter.coalesced(), is(1L));
+        assertThat(filter.inFlight(), is(0));
+    }
+
+    @Test
+    void keepsCredentialsApart() {
+        send(get().header("Authorization", "Bearer a").build());
+        send(get().header("Authorization", "Bearer b").build());
+        send(get().header("Proxy-Authorization", "Basic c").build());
+        send(get().cookie("USER_CATALOG_CONTEXT", "d").build());
+        send(get().cookie("USER_CATALOG_CONTEXT", "e").build());
+
+        assertThat(calls.size(), is(5));
+        assertThat(filter.coalesced(), is(0L));
+    }
+
+    @Test
+    void leavesOtherMethodsAlone() {
+        send(ClientRequest.create(HttpMethod.POST, URI.create(URL)).build());
+        send(ClientRequest.create(HttpMethod.POST, URI.create(URL)).build());
+
+        assertThat(calls.size(), is(2));
+        assertThat(filter.requests(), is(0L));
+    }
+
+    @Test
+    void streamsResponsesNobodyJoined() {
+        AtomicReference<ClientResponse> only = send(get().build());
+        ClientResponse response = ClientResponse.create(HttpStatus.OK).body("{\"id\":27}").build();
+
+        calls.get(0).onNext(response);
+
+        assertThat(only.get(), sameInstance(response));
+        assertThat(filter.inFlight(), is(0));
+
+        // A GET after the response arrived makes its own call
+        send(get().build());
+        assertThat(calls.size(), is(2));
+    }
+
+    @Test
+    void sharesErrors() {
+        AtomicReference<Throwable> first = sendForError(get().build());
+        AtomicReference<Throwable> second = sendForError(get().build());
+
+        calls.get(0).onError(new IOException("Connection reset"));
+
+        assertThat(first.get(), instanceOf(IOException.class));
+        assertThat(second.get(), instanceOf(IOException.class));
+        assertThat(filter.inFlight(), is(0));
+    }
+
+    @Test
+    void limitsSharedBodies() {
+        AtomicReference<Throwable> first = sendForError(get().build());
+        AtomicReference<Throwable> second = sendForError(get().build());
+
+        calls.get(0).onNext(ClientResponse.create(HttpStatus.OK).body("{\"description\":\"too long\"}").build());
+
+        assertThat(first.get(), instanceOf(JsonDocumentTooLargeException.class));
+        assertThat(second.get(), instanceOf(JsonDocumentTooLargeException.class));
+    }
+
+    @Test
+    void joinersCallThemselvesWhenTheFirstCallIsCancelled() {
+        Disposable first = filter.filter(get().build(), backend).subscribe();
+        AtomicReference<ClientResponse> second = send(get().build());
+
+        first.dispose();
+
+        assertThat(calls.size(), is(2));
+        calls.get(1).onNext(ClientResponse.create(HttpStatus.OK).body("{\"id\":27}").build());
+        assertThat(second.get().bodyToMono(String.class).block(), is("{\"id\":27}"));
+        assertThat(filter.coalesced(), is(0L));
+        assertThat(filter.inFlight(), is(0));
+    }
+
+    private AtomicReference<ClientResponse> send(ClientRequest request) {
+        AtomicReference<ClientResponse> response = new AtomicReference<>();
+        filter.filter(request, backend).subscribe(response::set);
+        return response;
+    }
+
+    private AtomicReference<Throwable> sendForError(ClientRequest request) {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        filter.filter(request, backend).subscribe(response -> { }, error::set);
+        return error;
+    }
+
+    private static ClientRequest.Builder get() {
+        return ClientRequest.create(HttpMethod.GET, URI.create(URL));
+    }
+}
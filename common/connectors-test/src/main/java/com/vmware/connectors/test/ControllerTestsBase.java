@@ -15,12 +15,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.autoconfigure.web.reactive.function.client.WebClientCodecCustomizer;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -34,6 +36,7 @@ import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -194,11 +197,18 @@ public class ControllerTestsBase {
     @TestConfiguration
     static class ControllerTestConfiguration {
 
+        /*
+         * Customized like Spring Boot's own builder, so the calls go through
+         * the backend filters as they do in a connector, only with the
+         * connector the tests pace their mock backends with.
+         */
         @Bean
-        public WebClient.Builder webClientBuilder(WebClientCodecCustomizer codecCustomizer) {
+        public WebClient.Builder webClientBuilder(ObjectProvider<List<WebClientCustomizer>> customizers) {
             WebClient.Builder builder = WebClient.builder();
-            codecCustomizer.customize(builder);
+            List<WebClientCustomizer> ordered = new ArrayList<>(customizers.getIfAvailable(Collections::emptyList));
+            AnnotationAwareOrderComparator.sort(ordered);
+            ordered.forEach(customizer -> customizer.customize(builder));
             return builder.clientConnector(new PhaserClientHttpConnector());
-         }
+        }
     }
 }
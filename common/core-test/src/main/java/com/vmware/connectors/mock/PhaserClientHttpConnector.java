@@ -17,6 +17,7 @@ import reactor.core.scheduler.Schedulers;
 import java.net.URI;
 import java.util.concurrent.Phaser;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 public class PhaserClientHttpConnector implements ClientHttpConnector {
@@ -36,11 +37,21 @@ public class PhaserClientHttpConnector implements ClientHttpConnector {
 
     @Override
     public Mono<ClientHttpResponse> connect(HttpMethod method, URI uri, Function<? super ClientHttpRequest, Mono<Void>> requestCallback) {
-        int phase = phaser.getPhase();
-        phaser.register();
-        return reactorClientHttpConnector.connect(method, uri, requestCallback)
-                .doOnSuccessOrError((response, throwable) -> phaser.arriveAndDeregister())
-                .delayUntil(response -> awaitAdvance(phase));
+        // A call only waits with the others once it's sent, and stops holding them up if it's cancelled
+        return Mono.defer(() -> {
+            int phase = phaser.getPhase();
+            phaser.register();
+            AtomicBoolean arrived = new AtomicBoolean();
+            Runnable arrive = () -> {
+                if (arrived.compareAndSet(false, true)) {
+                    phaser.arriveAndDeregister();
+                }
+            };
+            return reactorClientHttpConnector.connect(method, uri, requestCallback)
+                    .doOnSuccessOrError((response, throwable) -> arrive.run())
+                    .doOnCancel(arrive)
+                    .delayUntil(response -> awaitAdvance(phase));
+        });
     }
 
     private Mono<?> awaitAdvance(int phase) {
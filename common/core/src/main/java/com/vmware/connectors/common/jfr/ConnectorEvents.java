@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.jfr;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * JDK Flight Recorder events for a connector's work, so a recording shows
+ * which backends, documents and card requests its GC and CPU time went to:
+ * <ul>
+ * <li>{@code com.vmware.connectors.BackendExchange}: a backend call, with its
+ * method, URI template, status and Content-Length.</li>
+ * <li>{@code com.vmware.connectors.JsonDecode}: a backend response decoded as
+ * a JSON document, with its size.</li>
+ * <li>{@code com.vmware.connectors.CardBuild}: the cards for one card request,
+ * with the connector and how many there were.</li>
+ * </ul>
+ * They're in the {@code Connectors} category, without stack traces (they
+ * would only show Reactor's internals), and recorded whenever a recording is
+ * running, e.g. one started with
+ * <pre>
+ * jcmd &lt;pid&gt; JFR.start
+ * </pre>
+ * An event is begun when the work starts and committed when it's done:
+ * <pre>
+ * ConnectorEvents.CardBuild event = ConnectorEvents.cardBuild();
+ * ...
+ * event.commit(cards.getCards().size(), cards.isPartial());
+ * </pre>
+ * The events are compiled (by the jfr profile) on JDKs with the
+ * {@code jdk.jfr} API. Elsewhere these methods return a no-op event, and
+ * without a recording, committing does nothing.
+ */
+public final class ConnectorEvents {
+
+    private static final String RECORDER_EVENTS = ConnectorEvents.class.getPackage().getName() + ".FlightRecorderEvents";
+
+    private static final Factory FACTORY = load();
+
+    private static final AtomicReference<String> CONNECTOR_NAME = new AtomicReference<>("connector");
+
+    private ConnectorEvents() {
+        // Do not construct
+    }
+
+    /**
+     * @param name the connector's name, for the card build events
+     */
+    public static void setConnector(String name) {
+        CONNECTOR_NAME.set(name);
+    }
+
+    static String connector() {
+        return CONNECTOR_NAME.get();
+    }
+
+    /**
+     * @return a begun backend call event
+     */
+    public static BackendExchange backendExchange() {
+        return FACTORY.backendExchange();
+    }
+
+    /**
+     * @return a begun JSON decode event
+     */
+    public static JsonDecode jsonDecode() {
+        return FACTORY.jsonDecode();
+    }
+
+    /**
+     * @return a begun card build event
+     */
+    public static CardBuild cardBuild() {
+        return FACTORY.cardBuild();
+    }
+
+    public interface BackendExchange {
+
+        /**
+         * @return whether the event is on; if not, committing it does nothing
+         */
+        boolean isEnabled();
+
+        /**
+         * Ends and commits the event.
+         *
+         * @param method      the call's HTTP method
+         * @param uriTemplate the call's URI template
+         * @param status      the response's status code, IO_ERROR or CANCELLED
+         * @param bytes       the response's Content-Length, or -1 if it didn't say
+         */
+        void commit(String method, String uriTemplate, String status, long bytes);
+    }
+
+    public interface JsonDecode {
+
+        /**
+         * @return whether the event is on; if not, committing it does nothing
+         */
+        boolean isEnabled();
+
+        /**
+         * Ends and commits the event.
+         *
+         * @param bytes the size of the document decoded
+         */
+        void commit(long bytes);
+    }
+
+    public interface CardBuild {
+
+        /**
+         * @return whether the event is on; if not, committing it does nothing
+         */
+        boolean isEnabled();
+
+        /**
+         * Ends and commits the event.
+         *
+         * @param cards   how many cards were built
+         * @param partial whether the request's deadline cut them short
+         */
+        void commit(int cards, boolean partial);
+    }
+
+    interface Factory {
+        BackendExchange backendExchange();
+
+        JsonDecode jsonDecode();
+
+        CardBuild cardBuild();
+    }
+
+    private static Factory load() {
+        try {
+            return (Factory) Class.forName(RECORDER_EVENTS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not compiled in, or no jdk.jfr in this JRE
+            return new NoEvents();
+        }
+    }
+
+    private static final class NoEvents implements Factory, BackendExchange, JsonDecode, CardBuild {
+
+        @Override
+        public BackendExchange backendExchange() {
+            return this;
+        }
+
+        @Override
+        public JsonDecode jsonDecode() {
+            return this;
+        }
+
+        @Override
+        public CardBuild cardBuild() {
+            return this;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void commit(String method, String uriTemplate, String status, long bytes) {
+            //NOPMD
+        }
+
+        @Override
+        public void commit(long bytes) {
+            //NOPMD
+        }
+
+        @Override
+        public void commit(int cards, boolean partial) {
+            //NOPMD
+        }
+    }
+}
@@ -9,21 +9,57 @@ import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.Option;
 import com.jayway.jsonpath.Predicate;
+import com.jayway.jsonpath.spi.json.JsonProvider;
 
 /**
  * Created by Rob Worsnop on 10/19/16.
  */
 public class JsonDocument {
+    // Immutable, so one instance serves every document
+    private static final Configuration CONFIGURATION = configurationFor(Configuration.defaultConfiguration().jsonProvider());
+
     private final Object document;
     private final Configuration configuration;
 
     public JsonDocument(Object document) {
+        this(document, CONFIGURATION);
+    }
+
+    /**
+     * @param document the document tree
+     * @param configuration the configuration to read it with; see {@link #configurationFor(JsonProvider)}
+     */
+    public JsonDocument(Object document, Configuration configuration) {
         this.document = document;
-        configuration = Configuration.defaultConfiguration().addOptions(Option.SUPPRESS_EXCEPTIONS);
+        this.configuration = configuration;
+    }
+
+    /**
+     * @param jsonProvider the provider that built (or will build) the documents
+     * @return the configuration JsonDocuments should be read with, meant to be created once and shared
+     */
+    public static Configuration configurationFor(JsonProvider jsonProvider) {
+        return Configuration.defaultConfiguration()
+                .jsonProvider(jsonProvider)
+                .addOptions(Option.SUPPRESS_EXCEPTIONS);
     }
 
     public <T> T read(String jsonPath, Predicate... filters) {
-        return JsonPath.using(configuration).parse(document).read(jsonPath, filters);
+        if (filters.length == 0) {
+            return JsonPathCache.compile(jsonPath).read(document, configuration);
+        }
+        // Filters are usually built per call, so there's nothing worth caching
+        return JsonPath.compile(jsonPath, filters).read(document, configuration);
+    }
+
+    /**
+     * Reads all of the projection's paths in one walk of the document.
+     *
+     * @param projection the named paths to read
+     * @return the values, by name
+     */
+    public JsonProjection.Result project(JsonProjection projection) {
+        return projection.apply(document, configuration);
     }
 
     @Override
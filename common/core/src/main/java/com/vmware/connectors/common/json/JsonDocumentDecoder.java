@@ -5,12 +5,15 @@
 
 package com.vmware.connectors.common.json;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.spi.json.JsonProvider;
+import com.vmware.connectors.common.jfr.ConnectorEvents;
 import org.apache.commons.io.IOUtils;
 import org.reactivestreams.Publisher;
 import org.springframework.core.ResolvableType;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.HttpMessageDecoder;
 import org.springframework.http.server.reactive.ServerHttpRequest;
@@ -26,12 +29,75 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.springframework.hateoas.MediaTypes.HAL_JSON;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 
 public class JsonDocumentDecoder implements HttpMessageDecoder<JsonDocument> {
-    private final JsonProvider jsonProvider = Configuration.defaultConfiguration().jsonProvider();
+    /**
+     * Decode hint holding a {@link JsonProjection}. When streaming, parts of the
+     * document that none of its paths can reach are skipped instead of decoded.
+     *
+     * @see JsonDocumentExtractors#toJsonDocument(JsonProjection)
+     */
+    public static final String FIELDS_HINT = JsonDocumentDecoder.class.getName() + ".fields";
+
+    private final JsonProvider jsonProvider;
+    private final Configuration configuration;
+    private final JsonFactory jsonFactory;
+    private final boolean streaming;
+    private long maxBodySize = -1;
+    private Runnable maxBodySizeListener = () -> { };
+
+    /**
+     * Creates a decoder that aggregates the whole response before parsing it.
+     */
+    public JsonDocumentDecoder() {
+        this(false);
+    }
+
+    /**
+     * @param streaming if true, DataBuffers are fed to a non-blocking parser as
+     *                  they arrive and the document tree is built incrementally,
+     *                  without ever holding the response as a String. Otherwise,
+     *                  the whole response is aggregated and then parsed.
+     */
+    public JsonDocumentDecoder(boolean streaming) {
+        this(streaming, Configuration.defaultConfiguration().jsonProvider(), new JsonFactory());
+    }
+
+    /**
+     * @param streaming see {@link #JsonDocumentDecoder(boolean)}
+     * @param jsonProvider builds the document trees
+     * @param jsonFactory creates the non-blocking parsers used when streaming
+     */
+    public JsonDocumentDecoder(boolean streaming, JsonProvider jsonProvider, JsonFactory jsonFactory) {
+        this.streaming = streaming;
+        this.jsonProvider = jsonProvider;
+        this.configuration = JsonDocument.configurationFor(jsonProvider);
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Limits how much of a response body will be decoded. A body that grows
+     * past it fails with {@link JsonDocumentTooLargeException} as soon as the
+     * chunk that crosses the limit arrives, which also cancels the rest of the
+     * response instead of buffering it.
+     *
+     * @param maxBodySize the maximum body size in bytes, or -1 (the default) for no limit
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * @param maxBodySizeListener called every time a body exceeds the maximum size, e.g. to count it
+     */
+    public void setMaxBodySizeListener(Runnable maxBodySizeListener) {
+        this.maxBodySizeListener = maxBodySizeListener;
+    }
 
     @Override
     public Map<String, Object> getDecodeHints(ResolvableType actualType, ResolvableType elementType, ServerHttpRequest request, ServerHttpResponse response) {
@@ -51,11 +117,28 @@ public class JsonDocumentDecoder implements HttpMessageDecoder<JsonDocument> {
 
     @Override
     public Mono<JsonDocument> decodeToMono(Publisher<DataBuffer> inputStream, ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
-        return Flux.from(inputStream)
-                .flatMap(buffer -> toString(buffer, mimeType.getCharset()))
+        return Mono.defer(() -> {
+            ConnectorEvents.JsonDecode event = ConnectorEvents.jsonDecode();
+            if (!event.isEnabled()) {
+                return decodeToMono(limitSize(inputStream), mimeType, hints);
+            }
+            AtomicLong bytes = new AtomicLong();
+            return decodeToMono(limitSize(inputStream).doOnNext(buffer -> bytes.addAndGet(buffer.readableByteCount())), mimeType, hints)
+                    .doOnSuccess(document -> event.commit(bytes.get()));
+        });
+    }
+
+    private Mono<JsonDocument> decodeToMono(Flux<DataBuffer> input, MimeType mimeType, Map<String, Object> hints) {
+        Charset charset = mimeType.getCharset();
+        // The non-blocking parser only understands UTF-8, which is what JSON backends send anyway
+        if (streaming && (charset == null || UTF_8.equals(charset))) {
+            return decodeStreaming(input, fieldFilter(hints));
+        }
+        return input
+                .flatMap(buffer -> toString(buffer, charset))
                 .collect(StringBuilder::new, StringBuilder::append)
                 .map(StringBuilder::toString)
-                .map(message -> new JsonDocument(jsonProvider.parse(message)));
+                .map(message -> new JsonDocument(jsonProvider.parse(message), configuration));
     }
 
     @Override
@@ -63,6 +146,40 @@ public class JsonDocumentDecoder implements HttpMessageDecoder<JsonDocument> {
         return Arrays.asList(APPLICATION_JSON, HAL_JSON);
     }
 
+    private Flux<DataBuffer> limitSize(Publisher<DataBuffer> inputStream) {
+        if (maxBodySize < 0) {
+            return Flux.from(inputStream);
+        }
+        return Flux.defer(() -> {
+            AtomicLong bodySize = new AtomicLong();
+            return Flux.from(inputStream)
+                    .map(buffer -> {
+                        if (bodySize.addAndGet(buffer.readableByteCount()) > maxBodySize) {
+                            DataBufferUtils.release(buffer);
+                            maxBodySizeListener.run();
+                            // Erroring out of map cancels the upstream, closing the backend connection
+                            throw new JsonDocumentTooLargeException(maxBodySize);
+                        }
+                        return buffer;
+                    });
+        });
+    }
+
+    private static JsonProjection.Node fieldFilter(Map<String, Object> hints) {
+        JsonProjection fields = (JsonProjection) hints.get(FIELDS_HINT);
+        JsonProjection.Node filter = fields == null ? null : fields.fieldFilter();
+        return filter == null ? JsonProjection.Node.ALL : filter;
+    }
+
+    private Mono<JsonDocument> decodeStreaming(Flux<DataBuffer> input, JsonProjection.Node fieldFilter) {
+        return input
+                .reduceWith(() -> new StreamingJsonTreeBuilder(jsonFactory, jsonProvider, fieldFilter), StreamingJsonTreeBuilder::feed)
+                .flatMap(builder -> {
+                    Object document = builder.complete();
+                    return builder.hasRoot() ? Mono.just(new JsonDocument(document, configuration)) : Mono.empty();
+                });
+    }
+
     private static Flux<String> toString(DataBuffer buffer, Charset charset) {
         try (InputStream is = buffer.asInputStream(true)) {
             return Flux.just(IOUtils.toString(is, charset));
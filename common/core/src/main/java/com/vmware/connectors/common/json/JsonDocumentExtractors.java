@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import org.springframework.core.ResolvableType;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpInputMessage;
+import org.springframework.http.codec.HttpMessageReader;
+import org.springframework.web.reactive.function.BodyExtractor;
+import org.springframework.web.reactive.function.UnsupportedMediaTypeException;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Body extractors for reading a {@link JsonDocument} with decode hints, which
+ * bodyToMono doesn't pass on to the decoder.
+ * <p>
+ * Use with an exchange:
+ * <pre>
+ * rest.get()
+ *         .uri(...)
+ *         .exchange()
+ *         .flatMap(Reactive::checkStatus)
+ *         .flatMap(response -&gt; response.body(JsonDocumentExtractors.toJsonDocument(FIELDS)))
+ * </pre>
+ */
+public final class JsonDocumentExtractors {
+
+    private static final ResolvableType JSON_DOCUMENT_TYPE = ResolvableType.forClass(JsonDocument.class);
+
+    private JsonDocumentExtractors() {
+        // Do not construct
+    }
+
+    /**
+     * Reads the body as a {@link JsonDocument}, skipping the parts of it that
+     * none of the projection's paths can reach. Reading the resulting document
+     * with any of those paths gives the same answer as with the full document.
+     *
+     * @param fields the paths the caller is going to read from the document
+     * @return the body extractor
+     */
+    public static BodyExtractor<Mono<JsonDocument>, ReactiveHttpInputMessage> toJsonDocument(JsonProjection fields) {
+        return (message, context) -> {
+            MediaType contentType = message.getHeaders().getContentType();
+            MediaType mediaType = contentType == null ? MediaType.APPLICATION_OCTET_STREAM : contentType;
+
+            Map<String, Object> hints = new HashMap<>(context.hints());
+            hints.put(JsonDocumentDecoder.FIELDS_HINT, fields);
+
+            return context.messageReaders().stream()
+                    .filter(reader -> reader.canRead(JSON_DOCUMENT_TYPE, mediaType))
+                    .findFirst()
+                    .map(reader -> JsonDocumentExtractors.<JsonDocument>cast(reader).readMono(JSON_DOCUMENT_TYPE, message, hints))
+                    .orElseGet(() -> Mono.error(new UnsupportedMediaTypeException(mediaType, supportedMediaTypes(context.messageReaders()))));
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> HttpMessageReader<T> cast(HttpMessageReader<?> reader) {
+        return (HttpMessageReader<T>) reader;
+    }
+
+    private static List<MediaType> supportedMediaTypes(List<HttpMessageReader<?>> readers) {
+        return readers.stream()
+                .flatMap(reader -> reader.getReadableMediaTypes().stream())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import org.springframework.core.codec.DecodingException;
+
+/**
+ * Thrown when a backend response body grows past the maximum size the
+ * {@link JsonDocumentDecoder} is allowed to decode. The rest of the body is
+ * never read.
+ */
+public class JsonDocumentTooLargeException extends DecodingException {
+
+    private final long maxBodySize;
+
+    public JsonDocumentTooLargeException(long maxBodySize) {
+        super("Response body exceeded the maximum of " + maxBodySize + " bytes");
+        this.maxBodySize = maxBodySize;
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.jayway.jsonpath.JsonPath;
+
+/**
+ * Process-wide cache of compiled JsonPath expressions.
+ * <p>
+ * Connectors read the same handful of constant path strings out of every
+ * backend response, so each one only needs to be compiled once. The cache is
+ * bounded, so a caller that builds path strings dynamically can't grow it
+ * without limit.
+ */
+public final class JsonPathCache {
+
+    private static final int MAX_SIZE = 1024;
+
+    private static final LoadingCache<String, JsonPath> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .recordStats()
+            .build(new CacheLoader<String, JsonPath>() {
+                @Override
+                public JsonPath load(String path) {
+                    return JsonPath.compile(path);
+                }
+            });
+
+    private JsonPathCache() {
+        // Utility class
+    }
+
+    /**
+     * @param path a JsonPath expression without filter placeholders
+     * @return the compiled expression, compiled at most once per process (while it stays in the cache)
+     * @throws com.jayway.jsonpath.InvalidPathException if the path can't be compiled
+     */
+    public static JsonPath compile(String path) {
+        try {
+            return CACHE.getUnchecked(path);
+        } catch (UncheckedExecutionException e) {
+            // Surface the same exception JsonPath.compile would have thrown
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * @return the number of lookups that found an already compiled path
+     */
+    public static long hitCount() {
+        return CACHE.stats().hitCount();
+    }
+
+    /**
+     * @return the number of lookups that had to compile the path
+     */
+    public static long missCount() {
+        return CACHE.stats().missCount();
+    }
+
+    /**
+     * @return the number of compiled paths currently held
+     */
+    public static long size() {
+        return CACHE.size();
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A named set of JsonPath expressions that are all evaluated in a single walk
+ * of a {@link JsonDocument}.
+ * <p>
+ * Build one per kind of backend response, once, and apply it with
+ * {@link JsonDocument#project(JsonProjection)}:
+ * <pre>
+ * private static final JsonProjection ISSUE = new JsonProjection.Builder()
+ *         .path("key", "$.key")
+ *         .path("components", "$.fields.components[*].name")
+ *         .build();
+ * </pre>
+ * Paths made of property names, array indexes, wildcards and (as the last
+ * step) multi-property selections like {@code ['body', 'author']} share the
+ * walk; anything else (filters, deep scans, functions...) is evaluated
+ * separately with a cached compiled JsonPath. Either way, each path yields
+ * exactly what {@link JsonDocument#read(String, com.jayway.jsonpath.Predicate...)}
+ * would have: the value (or null) for definite paths and a list of matches
+ * for paths containing a wildcard.
+ */
+public final class JsonProjection {
+
+    // One step of a path: .name, .* or [*], [2], ['name'] or ['name', 'other']
+    private static final Pattern STEP = Pattern.compile("\\.(?<property>[^.\\[\\]()@*?]+)"
+            + "|(?<wildcard>\\.\\*|\\[\\*])"
+            + "|\\[(?<index>\\d+)]"
+            + "|\\[\\s*(?<quoted>'[^']*'(?:\\s*,\\s*'[^']*')*)\\s*]");
+
+    private final Map<String, Integer> slots;
+    private final boolean[] indefinite;
+    private final Node root;
+    private final Map<Integer, String> fallbacks;
+
+    private JsonProjection(Builder builder) {
+        this.slots = Collections.unmodifiableMap(new LinkedHashMap<>(builder.slots));
+        this.indefinite = new boolean[slots.size()];
+        this.root = new Node();
+        this.fallbacks = new LinkedHashMap<>();
+
+        int slot = 0;
+        for (String jsonPath : builder.paths) {
+            List<Step> steps = parse(jsonPath);
+            if (steps == null) {
+                fallbacks.put(slot, jsonPath);
+            } else {
+                indefinite[slot] = addToTree(steps, slot);
+            }
+            slot++;
+        }
+    }
+
+    /**
+     * The values a {@link JsonProjection} picked out of one document.
+     */
+    public static final class Result {
+        private final Map<String, Integer> slots;
+        private final Object[] values;
+
+        @SuppressWarnings("PMD.ArrayIsStoredDirectly")
+        private Result(Map<String, Integer> slots, Object[] values) {
+            this.slots = slots;
+            this.values = values;
+        }
+
+        /**
+         * @param name the name the path was declared under
+         * @param <T> the expected type of the value
+         * @return the value, null if a definite path matched nothing, or a list of matches for an indefinite path
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T get(String name) {
+            Integer slot = slots.get(name);
+            if (slot == null) {
+                throw new IllegalArgumentException("No path named " + name + " in this projection");
+            }
+            return (T) values[slot];
+        }
+    }
+
+    /**
+     * @return the root of the path tree, for skipping unreachable parts of a
+     * document while decoding it, or null if some of the paths are evaluated
+     * by JsonPath itself and could need any part of the document
+     */
+    Node fieldFilter() {
+        if (fallbacks.isEmpty()) {
+            return root;
+        }
+        return null;
+    }
+
+    Result apply(Object document, Configuration configuration) {
+        JsonProvider provider = configuration.jsonProvider();
+        Object[] values = new Object[slots.size()];
+        for (int slot = 0; slot < values.length; slot++) {
+            if (indefinite[slot]) {
+                values[slot] = new ArrayList<>();
+            }
+        }
+
+        if (document != null) {
+            walk(root, document, provider, values);
+        }
+
+        fallbacks.forEach((slot, jsonPath) -> values[slot] = JsonPathCache.compile(jsonPath).read(document, configuration));
+        return new Result(slots, values);
+    }
+
+    private void walk(Node node, Object value, JsonProvider provider, Object[] values) {
+        for (Leaf leaf : node.leaves) {
+            collect(leaf, value, provider, values);
+        }
+        if (provider.isMap(value)) {
+            walkMap(node, value, provider, values);
+        } else if (provider.isArray(value)) {
+            walkArray(node, value, provider, values);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collect(Leaf leaf, Object value, JsonProvider provider, Object[] values) {
+        Object leafValue = leaf.properties == null ? value : merge(value, leaf.properties, provider);
+        if (leafValue == JsonProvider.UNDEFINED) {
+            return;
+        }
+        if (indefinite[leaf.slot]) {
+            ((List<Object>) values[leaf.slot]).add(leafValue);
+        } else {
+            values[leaf.slot] = leafValue;
+        }
+    }
+
+    private void walkMap(Node node, Object map, JsonProvider provider, Object[] values) {
+        node.properties.forEach((property, child) -> {
+            Object childValue = provider.getMapValue(map, property);
+            if (childValue != JsonProvider.UNDEFINED) {
+                walk(child, childValue, provider, values);
+            }
+        });
+        if (node.wildcard != null) {
+            for (String key : provider.getPropertyKeys(map)) {
+                walk(node.wildcard, provider.getMapValue(map, key), provider, values);
+            }
+        }
+    }
+
+    private void walkArray(Node node, Object array, JsonProvider provider, Object[] values) {
+        int length = provider.length(array);
+        node.indexes.forEach((index, child) -> {
+            if (index < length) {
+                walk(child, provider.getArrayIndex(array, index), provider, values);
+            }
+        });
+        if (node.wildcard != null) {
+            for (Object element : provider.toIterable(array)) {
+                walk(node.wildcard, element, provider, values);
+            }
+        }
+    }
+
+    private static Object merge(Object value, List<String> properties, JsonProvider provider) {
+        if (!provider.isMap(value)) {
+            return JsonProvider.UNDEFINED;
+        }
+        // Same as JsonPath: missing properties are left out of the merged map
+        Object merged = provider.createMap();
+        for (String property : properties) {
+            Object propertyValue = provider.getMapValue(value, property);
+            if (propertyValue != JsonProvider.UNDEFINED) {
+                provider.setProperty(merged, property, propertyValue);
+            }
+        }
+        return merged;
+    }
+
+    private boolean addToTree(List<Step> steps, int slot) {
+        Node node = root;
+        boolean wildcard = false;
+        for (Step step : steps) {
+            if (step.properties != null) {
+                node.addLeaf(new Leaf(slot, step.properties));
+                return wildcard;
+            }
+            wildcard |= step.wildcard;
+            node = node.child(step);
+        }
+        node.addLeaf(new Leaf(slot, null));
+        return wildcard;
+    }
+
+    /*
+     * Returns null if the path uses anything beyond plain navigation, in which
+     * case JsonPath itself evaluates it.
+     */
+    private static List<Step> parse(String jsonPath) {
+        String path = jsonPath.trim();
+        if (path.isEmpty() || path.charAt(0) != '$') {
+            return null;
+        }
+        List<Step> steps = new ArrayList<>();
+        Matcher matcher = STEP.matcher(path);
+        for (int position = 1; position < path.length(); position = matcher.end()) {
+            boolean merged = !steps.isEmpty() && steps.get(steps.size() - 1).properties != null;
+            if (merged || !matcher.region(position, path.length()).lookingAt()) {
+                // A multi-property selection that isn't the last step, or unsupported syntax
+                return null;
+            }
+            steps.add(Step.fromMatch(matcher));
+        }
+        return steps;
+    }
+
+    private static final class Step {
+        private final String property;
+        private final int index;
+        private final boolean wildcard;
+        private final List<String> properties;
+
+        private Step(String property, int index, boolean wildcard, List<String> properties) {
+            this.property = property;
+            this.index = index;
+            this.wildcard = wildcard;
+            this.properties = properties;
+        }
+
+        private static Step fromMatch(Matcher matcher) {
+            String property = matcher.group("property");
+            if (property != null) {
+                return new Step(property, -1, false, null);
+            }
+            if (matcher.group("wildcard") != null) {
+                return new Step(null, -1, true, null);
+            }
+            if (matcher.group("index") != null) {
+                return new Step(null, Integer.parseInt(matcher.group("index")), false, null);
+            }
+            List<String> names = new ArrayList<>();
+            for (String quoted : matcher.group("quoted").split("\\s*,\\s*")) {
+                names.add(quoted.substring(1, quoted.length() - 1));
+            }
+            return names.size() > 1 ? new Step(null, -1, false, names) : new Step(names.get(0), -1, false, null);
+        }
+    }
+
+    /**
+     * A position in the tree of declared paths. While decoding, it tells
+     * which parts of a value any of the paths can reach.
+     */
+    static final class Node {
+        /**
+         * Keeps the whole value.
+         */
+        static final Node ALL = new Node();
+
+        static {
+            ALL.wholeValue = true;
+        }
+
+        private final Map<String, Node> properties = new LinkedHashMap<>();
+        private final Map<Integer, Node> indexes = new LinkedHashMap<>();
+        private final List<Leaf> leaves = new ArrayList<>();
+        private final Set<String> mergedProperties = new HashSet<>();
+        private Node wildcard;
+        private boolean wholeValue;
+
+        /**
+         * @param property the name of a property of the object at this position
+         * @return what to keep of the property's value, or null if no path reaches it
+         */
+        Node forProperty(String property) {
+            if (wholeValue || mergedProperties.contains(property)) {
+                return ALL;
+            }
+            return select(properties.get(property));
+        }
+
+        /**
+         * @param index an index into the array at this position
+         * @return what to keep of the element, or null if no path reaches it
+         */
+        Node forIndex(int index) {
+            return wholeValue ? ALL : select(indexes.get(index));
+        }
+
+        private Node select(Node child) {
+            if (child == null) {
+                return wildcard;
+            }
+            // Reached both by name and by wildcard; keeping it all is simpler than merging the two
+            return wildcard == null ? child : ALL;
+        }
+
+        private void addLeaf(Leaf leaf) {
+            leaves.add(leaf);
+            if (leaf.properties == null) {
+                wholeValue = true;
+            } else {
+                mergedProperties.addAll(leaf.properties);
+            }
+        }
+
+        private Node child(Step step) {
+            if (step.wildcard) {
+                if (wildcard == null) {
+                    wildcard = new Node();
+                }
+                return wildcard;
+            } else if (step.property != null) {
+                return properties.computeIfAbsent(step.property, property -> new Node());
+            }
+            return indexes.computeIfAbsent(step.index, index -> new Node());
+        }
+    }
+
+    private static final class Leaf {
+        private final int slot;
+        private final List<String> properties;
+
+        private Leaf(int slot, List<String> properties) {
+            this.slot = slot;
+            this.properties = properties;
+        }
+    }
+
+    public static class Builder {
+        private final Map<String, Integer> slots = new LinkedHashMap<>();
+        private final List<String> paths = new ArrayList<>();
+
+        /**
+         * @param name the name to look the value up by in the {@link Result}
+         * @param jsonPath the JsonPath expression, as would be given to {@link JsonDocument#read}
+         * @return this builder
+         */
+        public Builder path(String name, String jsonPath) {
+            if (slots.putIfAbsent(name, paths.size()) != null) {
+                throw new IllegalArgumentException("Duplicate path name: " + name);
+            }
+            paths.add(jsonPath);
+            return this;
+        }
+
+        public JsonProjection build() {
+            return new JsonProjection(this);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.spi.json.JacksonJsonProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Jackson-backed JsonPath provider that parses with the application's
+ * {@link ObjectMapper}, so documents share its configuration and its
+ * factory's buffer recyclers with the rest of the application.
+ * <p>
+ * The trees it builds are plain maps and lists, like the ones json-smart
+ * builds, so either provider can read documents built by the other.
+ */
+public class ObjectMapperJsonProvider extends JacksonJsonProvider {
+
+    public ObjectMapperJsonProvider(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    /**
+     * Jackson's own arrays are ArrayLists; JacksonJsonProvider's are
+     * LinkedLists, which makes every indexed read a scan.
+     */
+    @Override
+    public List<Object> createArray() {
+        return new ArrayList<>();
+    }
+}
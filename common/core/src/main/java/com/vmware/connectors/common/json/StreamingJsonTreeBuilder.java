@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.jayway.jsonpath.InvalidJsonException;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Builds a JsonPath document tree incrementally, as bytes arrive from the
+ * backend, using Jackson's non-blocking parser.
+ * <p>
+ * Each {@link DataBuffer} is handed to the parser and released straight away;
+ * the only copy of the response that survives is the tree itself. Maps and
+ * arrays are created through the {@link JsonProvider}, so the result is the
+ * same kind of tree that {@link JsonProvider#parse(String)} would have built.
+ * <p>
+ * Given a field filter, values that none of its paths can reach are skipped at
+ * the token level and never materialized. Skipped array elements are left as
+ * null so that the indexes of the kept elements don't shift.
+ * <p>
+ * Not thread-safe: one instance per decoded response.
+ */
+final class StreamingJsonTreeBuilder {
+
+    private static final int MIN_SCRATCH_SIZE = 8192;
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final JsonProvider jsonProvider;
+    private final JsonProjection.Node rootFilter;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+
+    private byte[] scratch = new byte[0];
+    private Object root;
+    private boolean rootComplete;
+    private int skipDepth;
+
+    StreamingJsonTreeBuilder(JsonFactory jsonFactory, JsonProvider jsonProvider) {
+        this(jsonFactory, jsonProvider, JsonProjection.Node.ALL);
+    }
+
+    /**
+     * @param fieldFilter the parts of the document to keep
+     */
+    StreamingJsonTreeBuilder(JsonFactory jsonFactory, JsonProvider jsonProvider, JsonProjection.Node fieldFilter) {
+        try {
+            this.parser = jsonFactory.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new InvalidJsonException(e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        this.jsonProvider = jsonProvider;
+        this.rootFilter = fieldFilter;
+    }
+
+    /**
+     * Feeds the buffer to the parser and releases it.
+     *
+     * @param buffer the next chunk of the response body
+     * @return this builder
+     */
+    StreamingJsonTreeBuilder feed(DataBuffer buffer) {
+        try {
+            feedInput(buffer.asByteBuffer());
+            drain();
+            return this;
+        } catch (IOException e) {
+            throw new InvalidJsonException(e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    /**
+     * Signals the end of the response body.
+     *
+     * @return the root of the document tree, or null if the body was empty
+     */
+    Object complete() {
+        try {
+            feeder.endOfInput();
+            drain();
+            if (!stack.isEmpty()) {
+                throw new InvalidJsonException("Unexpected end of JSON input");
+            }
+            return root;
+        } catch (IOException e) {
+            throw new InvalidJsonException(e);
+        } finally {
+            close();
+        }
+    }
+
+    boolean hasRoot() {
+        return rootComplete;
+    }
+
+    void close() {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            throw new InvalidJsonException(e);
+        }
+    }
+
+    private void feedInput(ByteBuffer byteBuffer) throws IOException {
+        int length = byteBuffer.remaining();
+        if (byteBuffer.hasArray()) {
+            int start = byteBuffer.arrayOffset() + byteBuffer.position();
+            feeder.feedInput(byteBuffer.array(), start, start + length);
+        } else {
+            // The parser is always drained before the next feed, so the scratch array can be reused.
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, MIN_SCRATCH_SIZE)];
+            }
+            byteBuffer.get(scratch, 0, length);
+            feeder.feedInput(scratch, 0, length);
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken token = parser.nextToken();
+        while (token != null && token != JsonToken.NOT_AVAILABLE) {
+            onToken(token);
+            token = parser.nextToken();
+        }
+    }
+
+    private void onToken(JsonToken token) throws IOException {
+        if (skipDepth > 0) {
+            skip(token);
+        } else if (token == JsonToken.FIELD_NAME) {
+            stack.peek().fieldName = parser.getCurrentName();
+        } else if (token.isStructEnd()) {
+            addValue(stack.pop().container);
+        } else {
+            onValue(token);
+        }
+    }
+
+    private void onValue(JsonToken token) throws IOException {
+        JsonProjection.Node filter = filterForNextValue();
+        if (filter == null) {
+            // Nothing wants this value; step over it without building it
+            skipValue();
+            if (token.isStructStart()) {
+                skipDepth = 1;
+            }
+        } else if (token == JsonToken.START_OBJECT) {
+            stack.push(new Frame(jsonProvider.createMap(), filter));
+        } else if (token == JsonToken.START_ARRAY) {
+            stack.push(new Frame(jsonProvider.createArray(), filter));
+        } else {
+            addValue(scalarValue(token));
+        }
+    }
+
+    private void skip(JsonToken token) {
+        if (token.isStructStart()) {
+            skipDepth++;
+        } else if (token.isStructEnd()) {
+            skipDepth--;
+        }
+    }
+
+    private JsonProjection.Node filterForNextValue() {
+        Frame parent = stack.peek();
+        if (parent == null) {
+            return rootFilter;
+        }
+        return parent.fieldName == null ? parent.filter.forIndex(parent.index) : parent.filter.forProperty(parent.fieldName);
+    }
+
+    private Object scalarValue(JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return parser.getBooleanValue();
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new InvalidJsonException("Unexpected JSON token: " + token);
+        }
+    }
+
+    private void skipValue() {
+        Frame parent = stack.peek();
+        if (parent.fieldName == null) {
+            jsonProvider.setArrayIndex(parent.container, parent.index++, null);
+        } else {
+            parent.fieldName = null; //NOPMD the next value in this object is keyed by the next FIELD_NAME
+        }
+    }
+
+    private void addValue(Object value) {
+        Frame parent = stack.peek();
+        if (parent == null) {
+            root = value;
+            rootComplete = true;
+        } else if (parent.fieldName == null) {
+            jsonProvider.setArrayIndex(parent.container, parent.index++, value);
+        } else {
+            jsonProvider.setProperty(parent.container, parent.fieldName, value);
+            parent.fieldName = null; //NOPMD the next value in this object is keyed by the next FIELD_NAME
+        }
+    }
+
+    private static final class Frame {
+        private final Object container;
+        private final JsonProjection.Node filter;
+        private String fieldName;
+        private int index;
+
+        private Frame(Object container, JsonProjection.Node filter) {
+            this.container = container;
+            this.filter = filter;
+        }
+    }
+}
@@ -5,6 +5,7 @@
 
 package com.vmware.connectors.common.payloads.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.ArrayList;
@@ -18,6 +19,10 @@ public class Cards {
     @JsonProperty("cards")
     private final List<Card> cards = new ArrayList<>();
 
+    @JsonProperty("partial")
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean partial;
+
     /**
      * Gets collection of connector cards
      *
@@ -27,4 +32,17 @@ public class Cards {
         return cards;
     }
 
+    /**
+     * Whether some of the cards were left out because the request ran out of time
+     *
+     * @return true if there may be more cards than these
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
 }
@@ -5,18 +5,27 @@
 
 package com.vmware.connectors.common.utils;
 
+import com.vmware.connectors.common.jfr.ConnectorEvents;
+import com.vmware.connectors.common.payloads.response.Card;
+import com.vmware.connectors.common.payloads.response.Cards;
+import com.vmware.connectors.common.web.RequestDeadlineFilter;
+import com.vmware.connectors.common.web.ServerTiming;
 import org.slf4j.MDC;
 import org.springframework.http.HttpStatus;
 import org.springframework.util.MimeType;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Signal;
 import reactor.util.context.Context;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -28,6 +37,24 @@ import java.util.function.Supplier;
  * @author Rob Worsnop
  */
 public final class Reactive {
+    /**
+     * The reactive context key for the deadline (an {@link Instant}) of the
+     * request being handled.
+     */
+    public static final String DEADLINE = "deadline";
+
+    /**
+     * The reactive context key for the MDC (a {@code Map<String, String>}) of
+     * the request being handled.
+     */
+    public static final String MDC_CONTEXT = "mdc";
+
+    /**
+     * The reactive context key for the {@link ServerTiming} of the card
+     * request being handled, where backend calls are recorded.
+     */
+    public static final String SERVER_TIMING = "serverTiming";
+
     private Reactive() {
         // Do not construct
     }
@@ -37,22 +64,92 @@ public final class Reactive {
      * already set on the thread by servlet filter and an interceptor.
      * This method should be called at the end of each composed Flux and
      * passed to Flux.subscriberContext
-     * This is a temporary solution that works while we're still stuck on
-     * Servlet 3.0 instead of being fully reactive.
-     * When we move to full-blown webflux we can set up the reactive context
-     * in a WebFilter, with no need to do anything in controllers at all.
-     * This method will be removed once we have gone fully reactive.
+     * This is only needed on the servlet stack, where requests are handled
+     * through Servlet 3.0 async on Tomcat's threads.
+     * On the reactive stack (spring.main.web-application-type=reactive)
+     * {@link com.vmware.connectors.common.web.MdcWebFilter},
+     * {@link com.vmware.connectors.common.web.RequestDeadlineWebFilter} and
+     * {@link com.vmware.connectors.common.web.ServerTimingWebFilter} set up
+     * the reactive context instead; there is nothing on the thread, so this
+     * returns an empty context, which leaves theirs as it is.
      * @return the reactive context
      */
     public static Context setupContext() {
         Map<String, String> contextMap = MDC.getCopyOfContextMap();
-        return contextMap == null ? Context.empty() : Context.of("mdc", contextMap);
+        Context context = contextMap == null ? Context.empty() : Context.of(MDC_CONTEXT, contextMap);
+        Instant deadline = RequestDeadlineFilter.currentDeadline();
+        if (deadline != null) {
+            context = context.put(DEADLINE, deadline);
+        }
+        ServerTiming timing = ServerTiming.current();
+        return timing == null ? context : context.put(SERVER_TIMING, timing);
      }
 
+    /**
+     * Collects the cards built for a card request into {@link Cards}, for
+     * example:
+     * <pre>
+     * Flux.fromIterable(ids)
+     *         .flatMap(id -&gt; getCard(id))
+     *         .as(Reactive::collectCards)
+     *         .subscriberContext(Reactive.setupContext());
+     * </pre>
+     * If the request's deadline passes first, the backend calls still in
+     * progress are cancelled and the cards built so far are returned, marked
+     * as partial.
+     * <p>
+     * The collecting is recorded as a {@link ConnectorEvents.CardBuild}
+     * Flight Recorder event.
+     *
+     * @param cards the cards, as they are built
+     * @return all the cards, or those built by the deadline
+     */
+    public static Mono<Cards> collectCards(Flux<Card> cards) {
+        return Mono.defer(() -> {
+            ConnectorEvents.CardBuild event = ConnectorEvents.cardBuild();
+            Cards result = new Cards();
+            return untilDeadline(cards, () -> result.setPartial(true))
+                    .collect(() -> result, (collected, card) -> collected.getCards().add(card))
+                    .doOnSuccess(collected -> event.commit(collected.getCards().size(), collected.isPartial()));
+        });
+    }
+
+    /**
+     * Passes on items until the request's deadline (if it has one). Then the
+     * work still in progress is cancelled and the flux completes early.
+     *
+     * @param items      the items, as they are produced
+     * @param onCutShort called if the deadline cut the items short
+     * @param <T>        the item type
+     * @return the items produced by the deadline
+     */
+    public static <T> Flux<T> untilDeadline(Flux<T> items, Runnable onCutShort) {
+        return Mono.subscriberContext()
+                .flatMapMany(context -> {
+                    Optional<Instant> deadline = context.getOrEmpty(DEADLINE);
+                    if (!deadline.isPresent()) {
+                        return items;
+                    }
+                    Duration remaining = Duration.between(Instant.now(), deadline.get());
+                    // Only the timer firing cuts the items short, not their own completion
+                    Mono<Long> timer = Mono.delay(remaining.isNegative() ? Duration.ZERO : remaining)
+                            .doOnNext(tick -> onCutShort.run());
+                    return items
+                            .takeUntilOther(timer)
+                            // A backend call can notice the deadline just before we do
+                            .onErrorResume(DeadlineExceededException.class, e -> {
+                                onCutShort.run();
+                                return Flux.empty();
+                            });
+                });
+    }
+
     /**
      * Intended for use with Flux.doOnEach, this method allows processing
      * on a item (e.g., logging) to be done with MDC set on the
      * thread.
+     * Not needed while {@link ReactiveMdc} is installed (the default, see
+     * connectors.mdc.hook); a plain doOnNext sees the MDC too.
      * @param consumer the action to be performed on the emitted item
      * @param <R> The item type
      * @return a signal consumer to be passed to Flux.doOnEach
@@ -71,6 +168,8 @@ public final class Reactive {
     /**
      * Allows mapping methods to assume that MDC is set on the thread.
      * Replace .map(foo) with .flatMap(Reactive.wrapMapper(foo))
+     * Not needed while {@link ReactiveMdc} is installed; a plain map sees
+     * the MDC too, without copying it for every item.
      *
      * @param mapper The function for transforming the item
      * @param <T> The type of the item being transformed
@@ -99,6 +198,8 @@ public final class Reactive {
                 .map(MimeType::getCharset)
                 .orElse(StandardCharsets.ISO_8859_1);
         return response.bodyToMono(byte[].class)
+                // An error without a body is still an error
+                .defaultIfEmpty(new byte[0])
                 .flatMap(body -> Mono.error(new WebClientResponseException(
                         "Unexpected response",
                         response.statusCode().value(),
@@ -144,8 +245,8 @@ public final class Reactive {
 
     private static <R> R wrapCall(Context context, Supplier<R> supplier) {
         Map<String, String> savedContextMap = MDC.getCopyOfContextMap();
-        if (context.hasKey("mdc")) {
-            MDC.setContextMap(context. get("mdc"));
+        if (context.hasKey(MDC_CONTEXT)) {
+            MDC.setContextMap(context.get(MDC_CONTEXT));
         }
 
         try {
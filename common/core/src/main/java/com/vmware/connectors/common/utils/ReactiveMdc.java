@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.utils;
+
+import org.reactivestreams.Subscription;
+import org.slf4j.MDC;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+
+import java.util.Map;
+
+/**
+ * Sets the MDC on whatever thread a reactive signal arrives on, from the
+ * subscriber's context (see {@link Reactive#MDC_CONTEXT}), so plain
+ * {@code map}, {@code flatMap} and {@code doOnNext} log with the request's
+ * MDC:
+ * <pre>
+ * getIssue(auth, baseUrl, issueId)
+ *         .map(issue -&gt; toCard(issue))
+ *         .doOnNext(card -&gt; logger.debug("Created card {}", card));
+ * </pre>
+ * It's a global operator hook. A thread remembers the MDC it was last given,
+ * so the MDC is only set again when a signal for another request arrives,
+ * instead of being copied and restored around every item like
+ * {@link Reactive#wrapMapper} does.
+ */
+public final class ReactiveMdc {
+
+    private static final String HOOK_KEY = ReactiveMdc.class.getName();
+
+    private static final ThreadLocal<Map<String, String>> APPLIED = new ThreadLocal<>();
+
+    private ReactiveMdc() {
+        // Do not construct
+    }
+
+    /**
+     * Installs the hook. Operators assembled from now on restore the MDC.
+     *
+     * @return removes the hook again
+     */
+    public static Disposable install() {
+        Hooks.onEachOperator(HOOK_KEY, Operators.lift((scannable, subscriber) -> new MdcSubscriber<>(subscriber)));
+        return () -> Hooks.resetOnEachOperator(HOOK_KEY);
+    }
+
+    /**
+     * Tells the hook that something else (e.g. a servlet filter clearing it
+     * at the end of a request) has changed this thread's MDC.
+     */
+    public static void forget() {
+        APPLIED.remove();
+    }
+
+    static void restore(Context context) {
+        Map<String, String> mdc = context.getOrDefault(Reactive.MDC_CONTEXT, null);
+        Map<String, String> applied = APPLIED.get();
+        if (mdc == applied) { //NOPMD identity, not equals: this runs on every signal, and only the same map is already set
+            return;
+        }
+        if (mdc == null) {
+            // Don't leave the last request's MDC on the thread; a thread the hook never set is left alone
+            MDC.clear();
+            APPLIED.remove();
+        } else {
+            MDC.setContextMap(mdc);
+            APPLIED.set(mdc);
+        }
+    }
+
+    private static final class MdcSubscriber<T> implements CoreSubscriber<T> {
+
+        private final CoreSubscriber<? super T> actual;
+
+        MdcSubscriber(CoreSubscriber<? super T> actual) {
+            this.actual = actual;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            actual.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(T item) {
+            restore(actual.currentContext());
+            actual.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            restore(actual.currentContext());
+            actual.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            restore(actual.currentContext());
+            actual.onComplete();
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+    }
+}
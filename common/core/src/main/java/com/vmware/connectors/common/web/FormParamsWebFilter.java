@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import org.springframework.core.Ordered;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.http.MediaType.APPLICATION_FORM_URLENCODED;
+
+/**
+ * Lets {@code @RequestParam} see the fields of form posts on the reactive
+ * stack, as it does on the servlet stack.
+ * <p>
+ * WebFlux only binds {@code @RequestParam} to the query string, so the
+ * actions that take their fields as {@code application/x-www-form-urlencoded}
+ * would answer 400. This filter reads the form with
+ * {@link ServerWebExchange#getFormData()} and hands it on as more query
+ * parameters, without changing the request's URI.
+ */
+public class FormParamsWebFilter implements WebFilter, Ordered {
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!APPLICATION_FORM_URLENCODED.isCompatibleWith(exchange.getRequest().getHeaders().getContentType())) {
+            return chain.filter(exchange);
+        }
+        return exchange.getFormData()
+                .flatMap(form -> chain.filter(exchange.mutate()
+                        .request(new FormParamsRequest(exchange.getRequest(), form))
+                        .build()));
+    }
+
+    @Override
+    public int getOrder() {
+        // After Spring Security's WebFilterChainProxy (-100), so unauthorized forms aren't read
+        return 0;
+    }
+
+    private static final class FormParamsRequest extends ServerHttpRequestDecorator {
+
+        private final MultiValueMap<String, String> params;
+
+        private FormParamsRequest(ServerHttpRequest request, MultiValueMap<String, String> form) {
+            super(request);
+            params = new LinkedMultiValueMap<>();
+            request.getQueryParams().forEach((name, values) -> values.forEach(value -> params.add(name, value)));
+            form.forEach((name, values) -> values.forEach(value -> params.add(name, value)));
+        }
+
+        @Override
+        public MultiValueMap<String, String> getQueryParams() {
+            return params;
+        }
+    }
+}
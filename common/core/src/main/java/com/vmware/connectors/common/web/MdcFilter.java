@@ -5,6 +5,7 @@
 
 package com.vmware.connectors.common.web;
 
+import com.vmware.connectors.common.utils.ReactiveMdc;
 import org.slf4j.MDC;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -29,6 +30,11 @@ public class MdcFilter implements Filter {
 
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        // Spring Security's filters have run
+        ServerTiming timing = ServerTiming.forRequest(servletRequest);
+        if (timing != null) {
+            timing.authenticated();
+        }
         try {
             String requestId = HttpServletRequest.class.cast(servletRequest).getHeader("X-Request-Id");
             if (requestId != null) {
@@ -41,6 +47,7 @@ public class MdcFilter implements Filter {
             chain.doFilter(servletRequest, servletResponse);
         } finally {
             MDC.clear();
+            ReactiveMdc.forget();
         }
     }
 
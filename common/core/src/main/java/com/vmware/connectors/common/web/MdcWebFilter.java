@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.utils.ReactiveMdc;
+import org.springframework.core.Ordered;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The reactive stack's {@link MdcFilter}: puts the request ID and principal
+ * in the reactive context, where {@link ReactiveMdc}
+ * finds them, instead of on the thread.
+ * <p>
+ * It runs after Spring Security's filters, so the principal is known, and
+ * marks the end of the request's {@link ServerTiming} auth phase.
+ */
+public class MdcWebFilter implements WebFilter, Ordered {
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerTiming timing = (ServerTiming) exchange.getAttributes().get(ServerTiming.ATTRIBUTE);
+        if (timing != null) {
+            timing.authenticated();
+        }
+        return exchange.getPrincipal()
+                .map(principal -> Optional.of(principal.getName()))
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(principal -> {
+                    Map<String, String> mdc = new HashMap<>();
+                    String requestId = exchange.getRequest().getHeaders().getFirst("X-Request-Id");
+                    if (requestId != null) {
+                        mdc.put("requestId", requestId);
+                    }
+                    principal.ifPresent(name -> mdc.put("principal", name));
+                    Mono<Void> filtered = chain.filter(exchange);
+                    return mdc.isEmpty() ? filtered : filtered.subscriberContext(context -> context.put(Reactive.MDC_CONTEXT, mdc));
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        // Spring Security's WebFilterChainProxy is at -100
+        return 0;
+    }
+}
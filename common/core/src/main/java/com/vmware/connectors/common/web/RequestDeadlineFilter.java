@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Gives each request a deadline: the number of milliseconds in its
+ * X-Request-Deadline header, or the default, from when it arrives. Without
+ * either, the request has no deadline.
+ * <p>
+ * {@link com.vmware.connectors.common.utils.Reactive#setupContext()} passes
+ * the deadline on to the reactive context, where outbound calls and
+ * {@link com.vmware.connectors.common.utils.Reactive#collectCards} find it.
+ */
+public class RequestDeadlineFilter implements Filter {
+
+    public static final String DEADLINE_HEADER = "X-Request-Deadline";
+
+    private static final String DEADLINE_ATTRIBUTE = RequestDeadlineFilter.class.getName() + ".DEADLINE";
+
+    private final long defaultBudget;
+
+    /**
+     * @param defaultBudget how long, in milliseconds, a request without an X-Request-Deadline header has,
+     *                      or 0 for no deadline
+     */
+    public RequestDeadlineFilter(long defaultBudget) {
+        this.defaultBudget = defaultBudget;
+    }
+
+    /**
+     * @return the deadline of the request being handled on this thread, or null if it has none
+     */
+    public static Instant currentDeadline() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        return (Instant) attributes.getAttribute(DEADLINE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        //NOPMD
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        String header = HttpServletRequest.class.cast(servletRequest).getHeader(DEADLINE_HEADER);
+        deadline(header, defaultBudget)
+                .ifPresent(deadline -> servletRequest.setAttribute(DEADLINE_ATTRIBUTE, deadline));
+        chain.doFilter(servletRequest, servletResponse);
+    }
+
+    /*
+     * Returns empty if neither the header nor the default give a budget.
+     */
+    static Optional<Instant> deadline(String header, long defaultBudget) {
+        long budget = NumberUtils.toLong(header, defaultBudget);
+        if (budget <= 0) {
+            budget = defaultBudget;
+        }
+        return budget > 0 ? Optional.of(Instant.now().plusMillis(budget)) : Optional.empty();
+    }
+
+    @Override
+    public void destroy() {
+        //NOPMD
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import com.vmware.connectors.common.utils.Reactive;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * The reactive stack's {@link RequestDeadlineFilter}: gives card requests a
+ * deadline, the number of milliseconds in their X-Request-Deadline header
+ * or the default, and puts it straight in the reactive context under
+ * {@link Reactive#DEADLINE}. Without either, the request has no deadline.
+ */
+public class RequestDeadlineWebFilter implements WebFilter {
+
+    private static final String CARD_REQUESTS_PATH = "/cards/requests";
+
+    private final long defaultBudget;
+
+    /**
+     * @param defaultBudget how long, in milliseconds, a request without an X-Request-Deadline header has,
+     *                      or 0 for no deadline
+     */
+    public RequestDeadlineWebFilter(long defaultBudget) {
+        this.defaultBudget = defaultBudget;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!CARD_REQUESTS_PATH.equals(exchange.getRequest().getPath().pathWithinApplication().value())) {
+            return chain.filter(exchange);
+        }
+        String header = exchange.getRequest().getHeaders().getFirst(RequestDeadlineFilter.DEADLINE_HEADER);
+        return RequestDeadlineFilter.deadline(header, defaultBudget)
+                .map(deadline -> chain.filter(exchange)
+                        .subscriberContext(context -> context.put(Reactive.DEADLINE, deadline)))
+                .orElseGet(() -> chain.filter(exchange));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.servlet.ServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time went for one card request, as a {@code Server-Timing}
+ * header:
+ * <pre>
+ * Server-Timing: auth;dur=2.1, backend;desc="GET /rest/api/2/issue/{issueId}";dur=143.2, cards;dur=160.5
+ * </pre>
+ * <ul>
+ * <li>{@code auth}: from the request's arrival until it got past Spring
+ * Security (marked by the MDC filter, which runs right after).</li>
+ * <li>{@code backend}: each backend call, by method and URI template. They
+ * can overlap.</li>
+ * <li>{@code cards}: from there until the response was ready to write,
+ * backend calls included.</li>
+ * </ul>
+ * The time spent writing the response comes after the header has been sent,
+ * so it's only in the log line written for requests slower than a
+ * threshold:
+ * <pre>
+ * Slow card request: status=200 total=2513ms write=12ms timing="auth;dur=2.1, backend;..."
+ * </pre>
+ * <p>
+ * It's kept in the request (and the reactive context, under
+ * {@link com.vmware.connectors.common.utils.Reactive#SERVER_TIMING}) by
+ * {@link ServerTimingFilter} or {@link ServerTimingWebFilter}.
+ */
+public class ServerTiming {
+
+    private final static Logger logger = LoggerFactory.getLogger(ServerTiming.class);
+
+    public static final String HEADER_NAME = "Server-Timing";
+
+    static final String ATTRIBUTE = ServerTiming.class.getName();
+
+    // Enough to see which calls dominate without an unbounded header
+    private static final int MAX_BACKEND_ENTRIES = 20;
+
+    private final long start = System.nanoTime();
+    private final AtomicLong authenticatedAt = new AtomicLong();
+    private final AtomicLong readyAt = new AtomicLong();
+    private final AtomicLong backendCalls = new AtomicLong();
+    private final Queue<String> backendEntries = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @return the timing of the request being handled on this thread, or null if it has none
+     */
+    public static ServerTiming current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        return (ServerTiming) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    /**
+     * @param request a servlet request
+     * @return the request's timing, or null if it has none
+     */
+    public static ServerTiming forRequest(ServletRequest request) {
+        return (ServerTiming) request.getAttribute(ATTRIBUTE);
+    }
+
+    /**
+     * Marks the end of the auth phase. Only the first call counts.
+     */
+    public void authenticated() {
+        authenticatedAt.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * Marks the response as ready to write. Only the first call counts.
+     */
+    public void ready() {
+        readyAt.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * Records a backend call.
+     *
+     * @param method      the call's HTTP method
+     * @param uriTemplate the call's URI template
+     * @param nanos       how long it took
+     */
+    public void backendCall(String method, String uriTemplate, long nanos) {
+        if (backendCalls.incrementAndGet() <= MAX_BACKEND_ENTRIES) {
+            backendEntries.add("backend;desc=\"" + method + " " + uriTemplate.replace("\"", "") + "\";dur=" + millis(nanos));
+        }
+    }
+
+    /**
+     * @return the Server-Timing header value, with the phases so far
+     */
+    public String header() {
+        List<String> entries = new ArrayList<>();
+        long authEnd = authenticatedAt.get();
+        if (authEnd != 0) {
+            entries.add("auth;dur=" + millis(authEnd - start));
+        }
+        entries.addAll(backendEntries);
+        long more = backendCalls.get() - MAX_BACKEND_ENTRIES;
+        if (more > 0) {
+            entries.add("backend-more;desc=\"" + more + " more calls\"");
+        }
+        long cardsEnd = readyAt.get();
+        if (cardsEnd != 0) {
+            entries.add("cards;dur=" + millis(cardsEnd - (authEnd == 0 ? start : authEnd)));
+        }
+        return String.join(", ", entries);
+    }
+
+    /**
+     * Logs the request's timing, with the time spent writing the response,
+     * if it took longer than the threshold. Call it once the response has
+     * been written.
+     *
+     * @param thresholdMillis how long, in milliseconds, a request can take without being logged
+     * @param status          the response's status code
+     */
+    public void logIfSlow(long thresholdMillis, int status) {
+        long now = System.nanoTime();
+        long total = TimeUnit.NANOSECONDS.toMillis(now - start);
+        if (total < thresholdMillis) {
+            return;
+        }
+        long writeStart = readyAt.get();
+        long write = writeStart == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(now - writeStart);
+        logger.warn("Slow card request: status={} total={}ms write={}ms timing=\"{}\"", status, total, write, header());
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+}
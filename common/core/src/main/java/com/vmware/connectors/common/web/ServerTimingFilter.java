@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Starts a request's {@link ServerTiming}, and logs it once the response has
+ * been written if the request was slow. It has to run before Spring
+ * Security's filters, so the auth phase is timed.
+ * <p>
+ * {@link com.vmware.connectors.common.utils.Reactive#setupContext()} passes
+ * the timing on to the reactive context, where the backend calls are
+ * recorded.
+ */
+public class ServerTimingFilter implements Filter {
+
+    private final long slowThreshold;
+
+    /**
+     * @param slowThreshold how long, in milliseconds, a request can take before it's logged
+     */
+    public ServerTimingFilter(long slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        //NOPMD
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        ServerTiming timing = new ServerTiming();
+        servletRequest.setAttribute(ServerTiming.ATTRIBUTE, timing);
+        HttpServletResponse response = HttpServletResponse.class.cast(servletResponse);
+        chain.doFilter(servletRequest, servletResponse);
+        if (servletRequest.isAsyncStarted()) {
+            // The cards are written later, on another thread
+            servletRequest.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    timing.logIfSlow(slowThreshold, response.getStatus());
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    //NOPMD
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    //NOPMD
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                    //NOPMD
+                }
+            });
+        } else {
+            timing.logIfSlow(slowThreshold, response.getStatus());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        //NOPMD
+    }
+}
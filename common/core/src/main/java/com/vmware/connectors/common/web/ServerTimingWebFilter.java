@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import com.vmware.connectors.common.utils.Reactive;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * The reactive stack's {@link ServerTimingFilter}: starts a card request's
+ * {@link ServerTiming}, puts it in the reactive context under
+ * {@link Reactive#SERVER_TIMING}, adds the Server-Timing header just before
+ * the response is committed, and logs the request once it's written if it
+ * was slow.
+ */
+public class ServerTimingWebFilter implements WebFilter, Ordered {
+
+    private static final String CARD_REQUESTS_PATH = "/cards/requests";
+
+    private final long slowThreshold;
+
+    /**
+     * @param slowThreshold how long, in milliseconds, a request can take before it's logged
+     */
+    public ServerTimingWebFilter(long slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!CARD_REQUESTS_PATH.equals(exchange.getRequest().getPath().pathWithinApplication().value())) {
+            return chain.filter(exchange);
+        }
+        ServerTiming timing = new ServerTiming();
+        exchange.getAttributes().put(ServerTiming.ATTRIBUTE, timing);
+        exchange.getResponse().beforeCommit(() -> {
+            timing.ready();
+            exchange.getResponse().getHeaders().add(ServerTiming.HEADER_NAME, timing.header());
+            return Mono.empty();
+        });
+        return chain.filter(exchange)
+                .doFinally(signal -> {
+                    HttpStatus status = exchange.getResponse().getStatusCode();
+                    timing.logIfSlow(slowThreshold, status == null ? HttpStatus.OK.value() : status.value());
+                })
+                .subscriberContext(context -> context.put(Reactive.SERVER_TIMING, timing));
+    }
+
+    @Override
+    public int getOrder() {
+        // Ahead of Spring Security's WebFilterChainProxy (-100), so auth is timed
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ReactiveAdapterRegistry;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.BindingContext;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.result.method.annotation.ModelAttributeMethodArgumentResolver;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Binds the URI template variables to model attributes on the reactive
+ * stack, as Spring MVC does.
+ * <p>
+ * Actions take their pull or merge request as a model attribute built from
+ * the path, for example {@code /api/v1/{owner}/{repo}/{number}/approve}, but
+ * WebFlux (as of Spring 5.0) only binds model attributes to the query string
+ * and the form. This resolver hands the URI variables on as more query
+ * parameters; a query or form parameter of the same name still wins, as it
+ * does on the servlet stack.
+ */
+public class UriVariablesModelAttributeResolver extends ModelAttributeMethodArgumentResolver {
+
+    public UriVariablesModelAttributeResolver(ReactiveAdapterRegistry adapterRegistry) {
+        super(adapterRegistry, true);
+    }
+
+    @Override
+    public Mono<Object> resolveArgument(MethodParameter parameter, BindingContext context, ServerWebExchange exchange) {
+        Map<String, String> uriVariables = exchange.getAttributeOrDefault(
+                HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Collections.emptyMap());
+        if (uriVariables.isEmpty()) {
+            return super.resolveArgument(parameter, context, exchange);
+        }
+        return super.resolveArgument(parameter, context, exchange.mutate()
+                .request(new UriVariablesRequest(exchange.getRequest(), uriVariables))
+                .build());
+    }
+
+    private static final class UriVariablesRequest extends ServerHttpRequestDecorator {
+
+        private final MultiValueMap<String, String> params;
+
+        private UriVariablesRequest(ServerHttpRequest request, Map<String, String> uriVariables) {
+            super(request);
+            params = new LinkedMultiValueMap<>(request.getQueryParams());
+            uriVariables.forEach((name, value) -> params.putIfAbsent(name, Collections.singletonList(value)));
+        }
+
+        @Override
+        public MultiValueMap<String, String> getQueryParams() {
+            return params;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.vmware.connectors.BackendExchange")
+@Label("Backend Exchange")
+@Description("A call to the connector's backend, until its response's headers arrived")
+@Category({"Connectors", "HTTP"})
+@StackTrace(false)
+class BackendExchangeEvent extends Event implements ConnectorEvents.BackendExchange {
+
+    @Label("Method")
+    String method;
+
+    @Label("URI Template")
+    String uriTemplate;
+
+    @Label("Status")
+    @Description("The response's status code, IO_ERROR or CANCELLED")
+    String status;
+
+    @Label("Response Size")
+    @Description("The response's Content-Length, or -1 if it didn't say")
+    @DataAmount
+    long bytes;
+
+    @Override
+    public void commit(String method, String uriTemplate, String status, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.method = method;
+            this.uriTemplate = uriTemplate;
+            this.status = status;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
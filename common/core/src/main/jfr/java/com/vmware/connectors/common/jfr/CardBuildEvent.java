@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.vmware.connectors.CardBuild")
+@Label("Card Build")
+@Description("The cards built for one card request, backend calls included")
+@Category({"Connectors", "Cards"})
+@StackTrace(false)
+class CardBuildEvent extends Event implements ConnectorEvents.CardBuild {
+
+    @Label("Connector")
+    String connector;
+
+    @Label("Card Count")
+    int cardCount;
+
+    @Label("Partial")
+    @Description("Whether the request's deadline cut the cards short")
+    boolean partial;
+
+    @Override
+    public void commit(int cards, boolean partial) {
+        end();
+        if (shouldCommit()) {
+            this.connector = ConnectorEvents.connector();
+            this.cardCount = cards;
+            this.partial = partial;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.jfr;
+
+/**
+ * Creates the {@link ConnectorEvents} as JDK Flight Recorder events. It's
+ * only compiled (by the jfr profile) on JDKs with the {@code jdk.jfr} API,
+ * and {@link ConnectorEvents} only loads it if it's there.
+ */
+class FlightRecorderEvents implements ConnectorEvents.Factory {
+
+    @Override
+    public ConnectorEvents.BackendExchange backendExchange() {
+        BackendExchangeEvent event = new BackendExchangeEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public ConnectorEvents.JsonDecode jsonDecode() {
+        JsonDecodeEvent event = new JsonDecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public ConnectorEvents.CardBuild cardBuild() {
+        CardBuildEvent event = new CardBuildEvent();
+        event.begin();
+        return event;
+    }
+}
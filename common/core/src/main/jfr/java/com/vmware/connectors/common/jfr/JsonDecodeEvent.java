@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.vmware.connectors.JsonDecode")
+@Label("JSON Decode")
+@Description("A backend response decoded as a JSON document, from its first byte to the document")
+@Category({"Connectors", "JSON"})
+@StackTrace(false)
+class JsonDecodeEvent extends Event implements ConnectorEvents.JsonDecode {
+
+    @Label("Document Size")
+    @DataAmount
+    long bytes;
+
+    @Override
+    public void commit(long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+/**
+ * Synthetic Jira issue responses for the JSON benchmarks.
+ */
+final class JiraPayloads {
+
+    private JiraPayloads() {
+        // Do not construct
+    }
+
+    /**
+     * @param approximateSize the size, in bytes, the payload should grow to
+     * @return a Jira issue whose comment history makes it roughly that big
+     */
+    static String issueWithComments(int approximateSize) {
+        StringBuilder json = new StringBuilder(approximateSize + 1024)
+                .append("{\"id\":\"1234567\",\"key\":\"APF-27\",\"fields\":{")
+                .append("\"summary\":\"Comments on the card are not rendered in the right order\",")
+                .append("\"project\":{\"name\":\"Access Platform\"},")
+                .append("\"priority\":{\"name\":\"Major\"},\"status\":{\"name\":\"In Progress\"},\"resolution\":null,")
+                .append("\"assignee\":{\"displayName\":\"Rob Worsnop\"},")
+                .append("\"components\":[{\"name\":\"UI\"},{\"name\":\"Backend\"}],")
+                .append("\"fixVersions\":[{\"name\":\"2.1\"},{\"name\":\"2.2\"}],")
+                .append("\"comment\":{\"comments\":[");
+        for (int i = 0; json.length() < approximateSize; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"").append(i)
+                    .append("\",\"author\":{\"name\":\"user").append(i % 17)
+                    .append("\",\"displayName\":\"User ").append(i % 17).append("\",\"active\":true},")
+                    .append("\"body\":\"Comment number ").append(i)
+                    .append(": the quick brown fox jumps over the lazy dog, café ☃, and then it does it again.\",")
+                    .append("\"created\":\"2017-10-19T14:28:17.656+0530\",\"visibility\":null,\"votes\":").append(i)
+                    .append(",\"ratio\":").append(i / 7.0).append('}');
+        }
+        return json.append("]}}}").toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
+
+/**
+ * Compares the buffered and streaming modes of {@link JsonDocumentDecoder} on
+ * multi-megabyte, Jira-like payloads delivered in 8K chunks (the way Reactor
+ * Netty hands them over).
+ * <p>
+ * Run with the benchmark profile; the gc profiler's gc.alloc.rate.norm line is
+ * the heap churn per decoded document:
+ * <pre>
+ * mvn -pl common/core -Pbenchmark test-compile exec:exec -Dbenchmark=JsonDocumentDecoderBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonDocumentDecoderBenchmark {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({"1", "4"})
+    private int megabytes;
+
+    private final JsonDocumentDecoder bufferedDecoder = new JsonDocumentDecoder(false);
+    private final JsonDocumentDecoder streamingDecoder = new JsonDocumentDecoder(true);
+
+    private DataBuffer payload;
+
+    @Setup
+    public void setup() {
+        byte[] bytes = JiraPayloads.issueWithComments(megabytes * 1024 * 1024).getBytes(UTF_8);
+        // Direct, like the pooled buffers Reactor Netty hands to the decoder
+        payload = new DefaultDataBufferFactory(true).allocateBuffer(bytes.length).write(bytes);
+    }
+
+    @Benchmark
+    public JsonDocument buffered() {
+        return decode(bufferedDecoder);
+    }
+
+    @Benchmark
+    public JsonDocument streaming() {
+        return decode(streamingDecoder);
+    }
+
+    private JsonDocument decode(JsonDocumentDecoder decoder) {
+        return decoder.decodeToMono(chunks(), ResolvableType.forClass(JsonDocument.class), APPLICATION_JSON_UTF8, Collections.emptyMap())
+                .block();
+    }
+
+    private Flux<DataBuffer> chunks() {
+        int length = payload.readableByteCount();
+        List<DataBuffer> chunks = new ArrayList<>(length / CHUNK_SIZE + 1);
+        for (int index = 0; index < length; index += CHUNK_SIZE) {
+            chunks.add(payload.slice(index, Math.min(CHUNK_SIZE, length - index)));
+        }
+        return Flux.fromIterable(chunks);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.InvalidJsonException;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
+
+class JsonDocumentDecoderTest {
+
+    private static final String JSON = "{\"key\":\"APF-27\",\"fields\":{\"summary\":\"Café ☃ summary\","
+            + "\"votes\":3,\"bigVotes\":12345678901,\"ratio\":1.5,\"resolved\":false,\"resolution\":null,"
+            + "\"components\":[{\"name\":\"UI\"},{\"name\":\"Backend\"}],\"labels\":[]}}";
+
+    private DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @Test
+    void streamingMatchesBuffered() {
+        // The buffered decoder needs the whole payload in one buffer to not split multi-byte characters
+        JsonDocument buffered = decode(new JsonDocumentDecoder(false), JSON, JSON.length() * 3);
+        JsonDocument streamed = decode(new JsonDocumentDecoder(true), JSON, 7);
+
+        for (String path : new String[]{"$.key", "$.fields.summary", "$.fields.votes", "$.fields.bigVotes",
+                "$.fields.ratio", "$.fields.resolved", "$.fields.resolution", "$.fields.components[*].name", "$.fields.labels"}) {
+            Object expected = buffered.read(path);
+            assertThat(path, streamed.read(path), equalTo(expected));
+        }
+        assertThat(streamed.<Integer>read("$.fields.votes"), isA(Integer.class));
+        assertThat(streamed.<Long>read("$.fields.bigVotes"), isA(Long.class));
+    }
+
+    @Test
+    void jacksonProviderMatchesJsonSmart() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonProvider jackson = new ObjectMapperJsonProvider(objectMapper);
+        JsonDocument smart = decode(new JsonDocumentDecoder(true), JSON, 7);
+
+        for (boolean streaming : new boolean[]{true, false}) {
+            JsonDocument document = decode(new JsonDocumentDecoder(streaming, jackson, objectMapper.getFactory()), JSON, JSON.length() * 3);
+            for (String path : new String[]{"$.key", "$.fields.summary", "$.fields.votes", "$.fields.bigVotes",
+                    "$.fields.ratio", "$.fields.resolved", "$.fields.resolution", "$.fields.components[*].name",
+                    "$.fields.components[1].name", "$.fields.labels"}) {
+                assertThat(path, document.read(path), equalTo(smart.read(path)));
+            }
+            assertThat(document.read("$.fields.components"), isA(ArrayList.class));
+        }
+    }
+
+    @Test
+    void streamingHandlesSplitMultiByteCharacters() {
+        // One byte per buffer splits every multi-byte UTF-8 sequence; direct buffers have no backing array
+        bufferFactory = new DefaultDataBufferFactory(true);
+        JsonDocument streamed = decode(new JsonDocumentDecoder(true), JSON, 1);
+        assertThat(streamed.read("$.fields.summary"), equalTo("Café ☃ summary"));
+    }
+
+    @Test
+    void streamingEmptyBody() {
+        JsonDocument document = new JsonDocumentDecoder(true)
+                .decodeToMono(Flux.empty(), ResolvableType.forClass(JsonDocument.class), APPLICATION_JSON_UTF8, Collections.emptyMap())
+                .block();
+        assertThat(document, nullValue());
+    }
+
+    @Test
+    void streamingTruncatedBody() {
+        Executable decode = () -> decode(new JsonDocumentDecoder(true), "{\"key\":[1,2", 4);
+        assertThrows(InvalidJsonException.class, decode);
+    }
+
+    @Test
+    void streamingSkipsUnreachableFields() {
+        JsonProjection fields = new JsonProjection.Builder()
+                .path("summary", "$.fields.summary")
+                .path("second", "$.fields.components[1].name")
+                .path("comments", "$.fields.comment.comments[*]['body', 'author']")
+                .path("authors", "$.fields.comment.comments[*].author.displayName")
+                .build();
+        String json = JiraPayloads.issueWithComments(4096);
+
+        JsonDocument full = decode(new JsonDocumentDecoder(true), json, 7);
+        JsonDocument filtered = decode(new JsonDocumentDecoder(true), json, 7,
+                Collections.singletonMap(JsonDocumentDecoder.FIELDS_HINT, fields));
+
+        for (String name : new String[]{"summary", "second", "comments", "authors"}) {
+            assertThat(name, filtered.project(fields).get(name), equalTo(full.project(fields).get(name)));
+        }
+        assertThat(filtered.read("$.key"), nullValue());
+        assertThat(filtered.read("$.fields.project"), nullValue());
+        assertThat(filtered.read("$.fields.components[0]"), nullValue());
+        assertThat(filtered.read("$.fields.comment.comments[0].created"), nullValue());
+    }
+
+    @Test
+    void streamingKeepsEverythingForFallbackPaths() {
+        JsonProjection fields = new JsonProjection.Builder()
+                .path("summary", "$.fields.summary")
+                .path("names", "$..name")
+                .build();
+
+        JsonDocument filtered = decode(new JsonDocumentDecoder(true), JSON, 7,
+                Collections.singletonMap(JsonDocumentDecoder.FIELDS_HINT, fields));
+
+        assertThat(filtered.read("$.key"), equalTo("APF-27"));
+    }
+
+    @Test
+    void bodyWithinMaxSize() {
+        for (boolean streaming : new boolean[]{true, false}) {
+            JsonDocumentDecoder decoder = new JsonDocumentDecoder(streaming);
+            decoder.setMaxBodySize(JSON.getBytes(UTF_8).length);
+            assertThat(decode(decoder, JSON, JSON.length() * 3).read("$.key"), equalTo("APF-27"));
+        }
+    }
+
+    @Test
+    void bodyOverMaxSizeFailsFast() {
+        String json = JiraPayloads.issueWithComments(4096);
+        for (boolean streaming : new boolean[]{true, false}) {
+            AtomicInteger exceeded = new AtomicInteger();
+            AtomicBoolean cancelled = new AtomicBoolean();
+            AtomicInteger emitted = new AtomicInteger();
+            JsonDocumentDecoder decoder = new JsonDocumentDecoder(streaming);
+            decoder.setMaxBodySize(1024);
+            decoder.setMaxBodySizeListener(exceeded::incrementAndGet);
+
+            Flux<DataBuffer> body = toBuffers(json, 256)
+                    .doOnNext(buffer -> emitted.incrementAndGet())
+                    .doOnCancel(() -> cancelled.set(true));
+            Executable decode = () -> decoder.decodeToMono(body, ResolvableType.forClass(JsonDocument.class), APPLICATION_JSON_UTF8, Collections.emptyMap())
+                    .block();
+
+            JsonDocumentTooLargeException e = assertThrows(JsonDocumentTooLargeException.class, decode);
+            assertThat(e.getMaxBodySize(), equalTo(1024L));
+            assertThat(exceeded.get(), equalTo(1));
+            assertThat(cancelled.get(), equalTo(true));
+            // The fifth 256 byte chunk crosses the limit; nothing after it is read
+            assertThat(emitted.get(), equalTo(5));
+        }
+    }
+
+    private JsonDocument decode(JsonDocumentDecoder decoder, String json, int chunkSize) {
+        return decode(decoder, json, chunkSize, Collections.emptyMap());
+    }
+
+    private JsonDocument decode(JsonDocumentDecoder decoder, String json, int chunkSize, Map<String, Object> hints) {
+        return decoder.decodeToMono(toBuffers(json, chunkSize), ResolvableType.forClass(JsonDocument.class), APPLICATION_JSON_UTF8, hints)
+                .block();
+    }
+
+    private Flux<DataBuffer> toBuffers(String json, int chunkSize) {
+        byte[] bytes = json.getBytes(UTF_8);
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            DataBuffer buffer = bufferFactory.allocateBuffer(chunkSize);
+            buffer.write(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+            buffers.add(buffer);
+        }
+        return Flux.fromIterable(buffers);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.Filter;
+import com.jayway.jsonpath.InvalidPathException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.jayway.jsonpath.Criteria.where;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonDocumentTest {
+
+    private static final JsonDocument DOCUMENT = new JsonDocument(Configuration.defaultConfiguration().jsonProvider().parse(
+            "{\"key\":\"APF-27\",\"fields\":{\"components\":[{\"name\":\"UI\",\"lead\":true},{\"name\":\"Backend\",\"lead\":false}]}}"));
+
+    @Test
+    void repeatedReadsCompileOnce() {
+        String path = "$.fields.components[0].name";
+        long misses = JsonPathCache.missCount();
+        long hits = JsonPathCache.hitCount();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(DOCUMENT.read(path), equalTo("UI"));
+        }
+
+        assertThat(JsonPathCache.missCount() - misses, equalTo(1L));
+        assertThat(JsonPathCache.hitCount() - hits, equalTo(2L));
+    }
+
+    @Test
+    void missingPathReadsAsNull() {
+        assertThat(DOCUMENT.read("$.fields.assignee.displayName"), nullValue());
+    }
+
+    @Test
+    void filteredRead() {
+        List<String> names = DOCUMENT.read("$.fields.components[?].name", Filter.filter(where("lead").is(true)));
+        assertThat(names, contains("UI"));
+    }
+
+    @Test
+    void invalidPath() {
+        assertThrows(InvalidPathException.class, () -> DOCUMENT.read("$.fields[["));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import com.jayway.jsonpath.Configuration;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonProjectionTest {
+
+    private static final JsonDocument ISSUE = new JsonDocument(Configuration.defaultConfiguration().jsonProvider().parse(
+            JiraPayloads.issueWithComments(2048)));
+
+    private static final String[] PATHS = {
+            "$",
+            "$.key",
+            "$.fields.summary",
+            "$['fields']['project']['name']",
+            "$.fields.resolution.name",
+            "$.fields.assignee",
+            "$.fields.missing.name",
+            "$.fields.components[*].name",
+            "$.fields.components[1].name",
+            "$.fields.components[5].name",
+            "$.fields.fixVersions.*.name",
+            "$.fields.comment.comments[*]['body', 'author']",
+            "$.fields.comment.comments[*].author.displayName",
+            "$.fields.comment.comments[*].visibility",
+            "$.fields.comment.comments[*].missing",
+            "$.fields.priority['name', 'id']",
+            "$.fields.comment.comments[-1].id",
+            "$..displayName",
+            "$.fields.comment.comments[?(@.votes > 3)].id",
+            "$.fields.components.length()"
+    };
+
+    @Test
+    void projectionMatchesRead() {
+        JsonProjection.Builder builder = new JsonProjection.Builder();
+        for (String path : PATHS) {
+            builder.path(path, path);
+        }
+        JsonProjection.Result result = ISSUE.project(builder.build());
+
+        for (String path : PATHS) {
+            Object expected = ISSUE.read(path);
+            assertThat(path, result.get(path), equalTo(expected));
+        }
+    }
+
+    @Test
+    void sharedPrefixes() {
+        JsonProjection projection = new JsonProjection.Builder()
+                .path("names", "$.fields.components[*].name")
+                .path("first", "$.fields.components[0].name")
+                .path("components", "$.fields.components")
+                .build();
+        JsonProjection.Result result = ISSUE.project(projection);
+
+        assertThat(result.<List<String>>get("names"), contains("UI", "Backend"));
+        assertThat(result.get("first"), equalTo("UI"));
+        assertThat(result.<List<Map<String, Object>>>get("components"), hasSize(2));
+    }
+
+    @Test
+    void nullDocument() {
+        JsonProjection projection = new JsonProjection.Builder()
+                .path("key", "$.key")
+                .path("names", "$.fields.components[*].name")
+                .build();
+        JsonProjection.Result result = new JsonDocument(null).project(projection);
+
+        assertThat(result.get("key"), nullValue());
+        assertThat(result.<List<String>>get("names"), empty());
+    }
+
+    @Test
+    void unknownName() {
+        JsonProjection projection = new JsonProjection.Builder().path("key", "$.key").build();
+        JsonProjection.Result result = ISSUE.project(projection);
+        assertThrows(IllegalArgumentException.class, () -> result.get("summary"));
+    }
+
+    @Test
+    void duplicateName() {
+        JsonProjection.Builder builder = new JsonProjection.Builder().path("key", "$.key");
+        assertThrows(IllegalArgumentException.class, () -> builder.path("key", "$.id"));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import com.jayway.jsonpath.spi.json.JsonSmartJsonProvider;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
+
+/**
+ * Compares the json-smart and Jackson JsonPath providers on synthetic backend
+ * responses shaped like Jira's, Concur's and Bitbucket's: parsing a response,
+ * decoding it in streaming mode (8K chunks) and reading the paths the
+ * connector reads.
+ * <pre>
+ * mvn -pl common/core -Pbenchmark test-compile exec:exec -Dbenchmark=JsonProviderBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonProviderBenchmark {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({"jira-issue", "concur-report", "bitbucket-activities"})
+    private String payload;
+
+    @Param({"json-smart", "jackson"})
+    private String provider;
+
+    private String json;
+    private byte[] bytes;
+    private String[] paths;
+    private JsonProvider jsonProvider;
+    private JsonDocumentDecoder decoder;
+    private JsonDocument document;
+
+    @Setup
+    public void setup() {
+        json = payload(payload);
+        bytes = json.getBytes(UTF_8);
+        paths = paths(payload);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        jsonProvider = "jackson".equals(provider) ? new ObjectMapperJsonProvider(objectMapper) : new JsonSmartJsonProvider();
+        decoder = new JsonDocumentDecoder(true, jsonProvider, objectMapper.getFactory());
+        document = new JsonDocument(jsonProvider.parse(json), JsonDocument.configurationFor(jsonProvider));
+    }
+
+    @Benchmark
+    public Object parse() {
+        return jsonProvider.parse(json);
+    }
+
+    @Benchmark
+    public JsonDocument decode() {
+        return decoder.decodeToMono(chunks(), ResolvableType.forClass(JsonDocument.class), APPLICATION_JSON_UTF8, Collections.emptyMap())
+                .block();
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(document.<Object>read(path));
+        }
+    }
+
+    private Flux<DataBuffer> chunks() {
+        DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+        List<DataBuffer> chunks = new ArrayList<>(bytes.length / CHUNK_SIZE + 1);
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+            chunks.add(bufferFactory.wrap(bytes).slice(offset, Math.min(CHUNK_SIZE, bytes.length - offset)));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    private static String payload(String payload) {
+        switch (payload) {
+            case "jira-issue":
+                return JiraPayloads.issueWithComments(16 * 1024);
+            case "concur-report":
+                return concurReport(8);
+            default:
+                return bitbucketActivities(16);
+        }
+    }
+
+    // An expense report, with the empty custom fields Concur sends for every entry
+    private static String concurReport(int entries) {
+        StringBuilder json = new StringBuilder()
+                .append("{\"EmployeeName\":\"Ajmera, Rahul\",\"ReportName\":\"Concur\",\"Purpose\":\"Concur\",")
+                .append("\"CurrencyCode\":\"INR\",\"ReportTotal\":\"10000.00000000\",")
+                .append("\"ApprovalStatusCode\":\"A_PEND\",\"ApprovalStatusName\":\"Submitted & Pending Approval\",")
+                .append("\"WorkflowActionURL\":\"https://concur.acme.com/api/expense/expensereport/v1.1/report/gWujNPAb67r9/WorkFlowAction\",")
+                .append("\"ExpenseEntriesList\":[");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"ReportEntryID\":\"gWunHZmfLtXF").append(i)
+                    .append("\",\"ExpenseTypeName\":\"Internet\",\"TransactionDate\":\"2018-02-04T00:00:00\",")
+                    .append("\"TransactionAmount\":\"").append(1250 * (i + 1)).append(".00000000\",")
+                    .append("\"BusinessPurpose\":\"Test Concur connector-").append(i).append("\",");
+            for (int custom = 1; custom <= 40; custom++) {
+                json.append("\"Custom").append(custom).append("\":{},");
+            }
+            json.append("\"HasComments\":\"Y\",\"CommentCount\":1}");
+        }
+        return json.append("]}").toString();
+    }
+
+    // A page of pull request activities, each with its user and comment author
+    private static String bitbucketActivities(int activities) {
+        StringBuilder json = new StringBuilder("{\"size\":").append(activities)
+                .append(",\"limit\":25,\"isLastPage\":true,\"start\":0,\"values\":[");
+        for (int i = 0; i < activities; i++) {
+            String user = "{\"name\":\"user" + i % 5 + "\",\"emailAddress\":\"user" + i % 5 + "@acme.com\","
+                    + "\"id\":" + (59145 + i % 5) + ",\"displayName\":\"User " + i % 5 + "\",\"active\":true,"
+                    + "\"slug\":\"user" + i % 5 + "\",\"type\":\"NORMAL\","
+                    + "\"links\":{\"self\":[{\"href\":\"https://stash.acme.com/users/user" + i % 5 + "\"}]}}";
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(1889340 + i).append(",\"createdDate\":1516386660711,\"user\":").append(user)
+                    .append(",\"action\":\"COMMENTED\",\"commentAction\":\"ADDED\",\"comment\":{")
+                    .append("\"properties\":{\"repositoryId\":1747},\"id\":").append(366498 + i)
+                    .append(",\"version\":0,\"text\":\"Test commit ").append(i).append(".\",\"author\":").append(user)
+                    .append(",\"createdDate\":1516386660711,\"updatedDate\":1516386660711,\"comments\":[],\"tasks\":[],")
+                    .append("\"permittedOperations\":{\"editable\":true,\"deletable\":true}}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String[] paths(String payload) {
+        switch (payload) {
+            case "jira-issue":
+                return new String[]{"$.id", "$.key", "$.fields.summary", "$.fields.fixVersions[*].name",
+                        "$.fields.components[*].name", "$.fields.comment.comments[*]['body', 'author']",
+                        "$.fields.project.name", "$.fields.priority.name", "$.fields.status.name",
+                        "$.fields.resolution.name", "$.fields.assignee.displayName"};
+            case "concur-report":
+                return new String[]{"$.ApprovalStatusName", "$.EmployeeName", "$.ReportName", "$.ReportTotal",
+                        "$.CurrencyCode", "$.ExpenseEntriesList[0].BusinessPurpose", "$.WorkflowActionURL"};
+            default:
+                return new String[]{"$.values[*].comment.text", "$.values[*].user.displayName", "$.values[*].action"};
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ReactiveMdcTest {
+
+    private Disposable hook;
+    private Scheduler scheduler;
+
+    @BeforeEach
+    void setup() {
+        hook = ReactiveMdc.install();
+        // One thread, so requests take turns on it
+        scheduler = Schedulers.newSingle("mdc-test");
+    }
+
+    @AfterEach
+    void shutdown() {
+        hook.dispose();
+        scheduler.dispose();
+    }
+
+    @Test
+    void plainMapSeesMdcOnAnotherThread() {
+        List<String> requestIds = Flux.range(1, 3)
+                .publishOn(scheduler)
+                .map(i -> MDC.get("requestId"))
+                .collectList()
+                .subscriberContext(mdc("abc"))
+                .block();
+
+        assertThat(requestIds, is(Collections.nCopies(3, "abc")));
+    }
+
+    @Test
+    void eachRequestSeesItsOwnMdc() {
+        String first = requestId(mdc("first"));
+        String second = requestId(mdc("second"));
+
+        assertThat(first, is("first"));
+        assertThat(second, is("second"));
+    }
+
+    @Test
+    void threadIsClearedForRequestsWithoutMdc() {
+        requestId(mdc("first"));
+
+        assertThat(requestId(Context.empty()), is(nullValue()));
+    }
+
+    private String requestId(Context context) {
+        return Mono.just("item")
+                .publishOn(scheduler)
+                .map(item -> Optional.ofNullable(MDC.get("requestId")))
+                .subscriberContext(context)
+                .block()
+                .orElse(null);
+    }
+
+    private static Context mdc(String requestId) {
+        return Context.of(Reactive.MDC_CONTEXT, Collections.singletonMap("requestId", requestId));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.utils;
+
+import com.vmware.connectors.common.payloads.response.Card;
+import com.vmware.connectors.common.payloads.response.Cards;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ReactiveTest {
+
+    @Test
+    void collectCardsWithoutDeadline() {
+        Cards cards = Flux.just(card("a"), card("b"))
+                .as(Reactive::collectCards)
+                .block();
+
+        assertThat(cards.getCards().size(), is(2));
+        assertThat(cards.isPartial(), is(false));
+    }
+
+    @Test
+    void collectCardsBeforeDeadline() {
+        Cards cards = Flux.just(card("a"), card("b"))
+                .as(Reactive::collectCards)
+                .subscriberContext(deadlineIn(Duration.ofSeconds(10)))
+                .block();
+
+        assertThat(cards.getCards().size(), is(2));
+        assertThat(cards.isPartial(), is(false));
+    }
+
+    @Test
+    void collectCardsStopsAtDeadline() {
+        Cards cards = Flux.just(card("fast"))
+                .concatWith(Mono.delay(Duration.ofSeconds(10)).map(ignored -> card("slow")))
+                .as(Reactive::collectCards)
+                .subscriberContext(deadlineIn(Duration.ofMillis(200)))
+                .block(Duration.ofSeconds(5));
+
+        assertThat(cards.getCards().size(), is(1));
+        assertThat(cards.getCards().get(0).getName(), is("fast"));
+        assertThat(cards.isPartial(), is(true));
+    }
+
+    @Test
+    void collectCardsWhenBackendCallHitsDeadline() {
+        Cards cards = Flux.just(card("fast"))
+                .concatWith(Mono.error(new DeadlineExceededException("too slow")))
+                .as(Reactive::collectCards)
+                .subscriberContext(deadlineIn(Duration.ofSeconds(10)))
+                .block();
+
+        assertThat(cards.getCards().size(), is(1));
+        assertThat(cards.isPartial(), is(true));
+    }
+
+    private static Context deadlineIn(Duration duration) {
+        return Context.of(Reactive.DEADLINE, Instant.now().plus(duration));
+    }
+
+    private static Card card(String name) {
+        return new Card.Builder()
+                .setName(name)
+                .build();
+    }
+}
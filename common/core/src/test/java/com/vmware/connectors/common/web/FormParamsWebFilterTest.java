@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.MultiValueMap;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.springframework.http.MediaType.APPLICATION_FORM_URLENCODED;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+class FormParamsWebFilterTest {
+
+    private final FormParamsWebFilter filter = new FormParamsWebFilter();
+
+    @Test
+    void formFieldsBecomeParams() {
+        MultiValueMap<String, String> params = filter(MockServerHttpRequest.post("/api/v1/issues/APF-27/comment?source=card")
+                .contentType(APPLICATION_FORM_URLENCODED)
+                .body("body=Hello%2C+world&opportunity_ids=1&opportunity_ids=2"));
+
+        assertThat(params.get("source"), contains("card"));
+        assertThat(params.get("body"), contains("Hello, world"));
+        assertThat(params.get("opportunity_ids"), contains("1", "2"));
+    }
+
+    @Test
+    void otherBodiesAreLeftAlone() {
+        MultiValueMap<String, String> params = filter(MockServerHttpRequest.post("/cards/requests?source=card")
+                .contentType(APPLICATION_JSON)
+                .body("{\"tokens\":{}}"));
+
+        assertThat(params.keySet(), contains("source"));
+    }
+
+    @Test
+    void uriIsUnchanged() {
+        AtomicReference<URI> uri = new AtomicReference<>();
+        filter.filter(MockServerWebExchange.from(MockServerHttpRequest.post("/api/v1/issues/APF-27/comment")
+                        .contentType(APPLICATION_FORM_URLENCODED)
+                        .body("body=Hello")),
+                exchange -> {
+                    uri.set(exchange.getRequest().getURI());
+                    return Mono.empty();
+                })
+                .block();
+
+        assertThat(uri.get().getPath(), is("/api/v1/issues/APF-27/comment"));
+        assertThat(uri.get().getQuery(), nullValue());
+    }
+
+    /*
+     * Returns the query params the request is handled with.
+     */
+    private MultiValueMap<String, String> filter(MockServerHttpRequest request) {
+        AtomicReference<MultiValueMap<String, String>> params = new AtomicReference<>();
+        filter.filter(MockServerWebExchange.from(request),
+                exchange -> {
+                    params.set(exchange.getRequest().getQueryParams());
+                    return Mono.empty();
+                })
+                .block();
+        return params.get();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+class RequestDeadlineFilterTest {
+
+    @AfterEach
+    void resetRequestAttributes() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void deadlineFromHeader() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/cards/requests");
+        request.addHeader(RequestDeadlineFilter.DEADLINE_HEADER, "500");
+
+        Instant before = Instant.now();
+        Instant deadline = filter(new RequestDeadlineFilter(2000), request);
+
+        assertThat(deadline, both(greaterThanOrEqualTo(before.plusMillis(500))).and(lessThanOrEqualTo(Instant.now().plusMillis(500))));
+    }
+
+    @Test
+    void defaultDeadline() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/cards/requests");
+
+        Instant before = Instant.now();
+        Instant deadline = filter(new RequestDeadlineFilter(2000), request);
+
+        assertThat(deadline, both(greaterThanOrEqualTo(before.plusMillis(2000))).and(lessThanOrEqualTo(Instant.now().plusMillis(2000))));
+    }
+
+    @Test
+    void defaultDeadlineForBadHeaders() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/cards/requests");
+        request.addHeader(RequestDeadlineFilter.DEADLINE_HEADER, "soon");
+
+        Instant before = Instant.now();
+        Instant deadline = filter(new RequestDeadlineFilter(2000), request);
+
+        assertThat(deadline, both(greaterThanOrEqualTo(before.plusMillis(2000))).and(lessThanOrEqualTo(Instant.now().plusMillis(2000))));
+    }
+
+    @Test
+    void noDeadlineByDefault() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/cards/requests");
+
+        assertThat(filter(new RequestDeadlineFilter(0), request), nullValue());
+    }
+
+    @Test
+    void deadlineFromHeaderWithoutDefault() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/cards/requests");
+        request.addHeader(RequestDeadlineFilter.DEADLINE_HEADER, "500");
+
+        Instant before = Instant.now();
+        Instant deadline = filter(new RequestDeadlineFilter(0), request);
+
+        assertThat(deadline, both(greaterThanOrEqualTo(before.plusMillis(500))).and(lessThanOrEqualTo(Instant.now().plusMillis(500))));
+    }
+
+    /*
+     * Returns the deadline the request's handler sees.
+     */
+    private static Instant filter(RequestDeadlineFilter filter, MockHttpServletRequest request) throws Exception {
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        return RequestDeadlineFilter.currentDeadline();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import com.vmware.connectors.common.utils.Reactive;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class RequestDeadlineWebFilterTest {
+
+    @Test
+    void deadlineFromHeader() {
+        Instant before = Instant.now();
+        Optional<Instant> deadline = filter(new RequestDeadlineWebFilter(2000),
+                MockServerHttpRequest.post("/cards/requests").header(RequestDeadlineFilter.DEADLINE_HEADER, "500"));
+
+        assertThat(deadline.get(), both(greaterThanOrEqualTo(before.plusMillis(500))).and(lessThanOrEqualTo(Instant.now().plusMillis(500))));
+    }
+
+    @Test
+    void defaultDeadline() {
+        Instant before = Instant.now();
+        Optional<Instant> deadline = filter(new RequestDeadlineWebFilter(2000), MockServerHttpRequest.post("/cards/requests"));
+
+        assertThat(deadline.get(), both(greaterThanOrEqualTo(before.plusMillis(2000))).and(lessThanOrEqualTo(Instant.now().plusMillis(2000))));
+    }
+
+    @Test
+    void noDeadlineByDefault() {
+        Optional<Instant> deadline = filter(new RequestDeadlineWebFilter(0), MockServerHttpRequest.post("/cards/requests"));
+
+        assertThat(deadline.isPresent(), is(false));
+    }
+
+    @Test
+    void onlyCardRequests() {
+        Optional<Instant> deadline = filter(new RequestDeadlineWebFilter(2000),
+                MockServerHttpRequest.post("/api/v1/issues/APF-27/comment").header(RequestDeadlineFilter.DEADLINE_HEADER, "500"));
+
+        assertThat(deadline.isPresent(), is(false));
+    }
+
+    /*
+     * Returns the deadline in the reactive context the request is handled in.
+     */
+    private static Optional<Instant> filter(RequestDeadlineWebFilter filter, MockServerHttpRequest.BaseBuilder<?> request) {
+        AtomicReference<Optional<Instant>> deadline = new AtomicReference<>();
+        filter.filter(MockServerWebExchange.from(request),
+                exchange -> Mono.subscriberContext()
+                        .doOnNext(context -> deadline.set(context.getOrEmpty(Reactive.DEADLINE)))
+                        .then())
+                .block();
+        return deadline.get();
+    }
+}
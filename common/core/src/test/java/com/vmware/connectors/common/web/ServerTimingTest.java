@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.common.web;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ServerTimingTest {
+
+    @Test
+    void phasesInOrder() {
+        ServerTiming timing = new ServerTiming();
+        timing.authenticated();
+        timing.backendCall("GET", "/api/now/table/{table}", TimeUnit.MILLISECONDS.toNanos(120));
+        timing.backendCall("POST", "/api/now/v1/batch", 1_500_000);
+        timing.ready();
+
+        String[] entries = timing.header().split(", ");
+        assertThat(entries.length, is(4));
+        assertThat(entries[0].matches("auth;dur=[0-9]+\\.[0-9]"), is(true));
+        assertThat(entries[1], is("backend;desc=\"GET /api/now/table/{table}\";dur=120.0"));
+        assertThat(entries[2], is("backend;desc=\"POST /api/now/v1/batch\";dur=1.5"));
+        assertThat(entries[3].matches("cards;dur=[0-9]+\\.[0-9]"), is(true));
+    }
+
+    @Test
+    void onlyWhatHappened() {
+        ServerTiming timing = new ServerTiming();
+        assertThat(timing.header(), is(""));
+
+        timing.backendCall("GET", "/user", 0);
+        assertThat(timing.header(), is("backend;desc=\"GET /user\";dur=0.0"));
+    }
+
+    @Test
+    void backendCallsAreCapped() {
+        ServerTiming timing = new ServerTiming();
+        IntStream.range(0, 25).forEach(i -> timing.backendCall("GET", "/issue/{id}", 0));
+
+        String[] entries = timing.header().split(", ");
+        assertThat(entries.length, is(21));
+        assertThat(Arrays.stream(entries).filter(entry -> entry.startsWith("backend;")).count(), is(20L));
+        assertThat(entries[20], is("backend-more;desc=\"5 more calls\""));
+    }
+}
@@ -14,17 +14,20 @@ import com.vmware.connectors.airwatch.exceptions.UnsupportedPlatform;
 import com.vmware.connectors.airwatch.greenbox.GreenBoxApp;
 import com.vmware.connectors.airwatch.greenbox.GreenBoxConnection;
 import com.vmware.connectors.airwatch.service.AppConfigService;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
 import com.vmware.connectors.common.json.JsonDocument;
 import com.vmware.connectors.common.payloads.request.CardRequest;
 import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import net.minidev.json.JSONArray;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseCookie;
 import org.springframework.http.ResponseEntity;
@@ -33,6 +36,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -48,6 +52,7 @@ import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.MediaType.APPLICATION_FORM_URLENCODED_VALUE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 
 /**
  * Created by harshas on 8/24/17.
@@ -94,8 +99,8 @@ public class AirWatchController {
         return ResponseEntity.ok(connectorMetadata);
     }
 
-    @PostMapping(path = "/cards/requests",
-            produces = APPLICATION_JSON_VALUE, consumes = APPLICATION_JSON_VALUE)
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
+    @PostMapping(path = "/cards/requests", consumes = APPLICATION_JSON_VALUE)
     public Mono<ResponseEntity<Cards>> getCards(
             @RequestHeader(name = AIRWATCH_AUTH_HEADER) String awAuth,
             @RequestHeader(name = AIRWATCH_BASE_URL_HEADER) String baseUrl,
@@ -103,22 +108,55 @@ public class AirWatchController {
             Locale locale,
             @Valid @RequestBody CardRequest cardRequest) {
 
+        if (!isValidCardRequest(cardRequest)) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        return cards(awAuth, baseUrl, routingPrefix, locale, cardRequest)
+                .as(Reactive::collectCards)
+                .map(ResponseEntity::ok)
+                .subscriberContext(Reactive.setupContext());
+    }
+
+    @PostMapping(path = "/cards/requests",
+            produces = {CardStreams.NDJSON_VALUE, TEXT_EVENT_STREAM_VALUE}, consumes = APPLICATION_JSON_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> streamCards(
+            @RequestHeader(name = AIRWATCH_AUTH_HEADER) String awAuth,
+            @RequestHeader(name = AIRWATCH_BASE_URL_HEADER) String baseUrl,
+            @RequestHeader(name = ROUTING_PREFIX) String routingPrefix,
+            Locale locale,
+            @Valid @RequestBody CardRequest cardRequest,
+            HttpRequest request) {
+
+        if (!isValidCardRequest(cardRequest)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok(CardStreams.stream(() -> cards(awAuth, baseUrl, routingPrefix, locale, cardRequest), request));
+    }
+
+    private boolean isValidCardRequest(CardRequest cardRequest) {
         String udid = cardRequest.getTokenSingleValue(UDID_KEY);
         String clientPlatform = cardRequest.getTokenSingleValue(PLATFORM_KEY);
 
         if (StringUtils.isAnyBlank(udid, clientPlatform)) {
             logger.debug("Either device UDID or client platform is blank.");
-            return Mono.just(ResponseEntity.badRequest().build());
+            return false;
         }
 
-        Set<String> appKeywords = cardRequest.getTokens("app_keywords");
-
-        if (appKeywords == null) {
+        if (cardRequest.getTokens("app_keywords") == null) {
             logger.debug("Request is missing app_keywords token.");
-            return Mono.just(ResponseEntity.badRequest().build());
+            return false;
         }
+        return true;
+    }
+
+    private Flux<Card> cards(String awAuth, String baseUrl, String routingPrefix,
+                             Locale locale, CardRequest cardRequest) {
+        String udid = cardRequest.getTokenSingleValue(UDID_KEY);
+        String clientPlatform = cardRequest.getTokenSingleValue(PLATFORM_KEY);
 
-        Stream<ManagedApp> managedApps = appKeywords.stream()
+        Stream<ManagedApp> managedApps = cardRequest.getTokens("app_keywords").stream()
                 .map(keyword -> appConfig.findManagedApp(keyword, clientPlatform))
                 .filter(Optional::isPresent)
                 .map(Optional::get)
@@ -126,10 +164,7 @@ public class AirWatchController {
 
         return Flux.fromStream(managedApps)
                 .flatMap(app -> getCardForApp(awAuth, baseUrl, udid,
-                        app, routingPrefix, clientPlatform, locale))
-                .collect(Cards::new, (cards, card) -> cards.getCards().add(card))
-                .map(ResponseEntity::ok)
-                .subscriberContext(Reactive.setupContext());
+                        app, routingPrefix, clientPlatform, locale));
     }
 
     @PostMapping(value = "/mdm/app/install", consumes = APPLICATION_FORM_URLENCODED_VALUE)
@@ -173,7 +208,7 @@ public class AirWatchController {
                 .retrieve()
                 .onStatus(HttpStatus::isError, response -> handleClientError(response, udid))
                 .bodyToMono(JsonDocument.class)
-                .flatMap(Reactive.wrapFlatMapper(body -> getCard(body, routingPrefix, appName, appBundle, udid, platform, locale)));
+                .flatMap(body -> getCard(body, routingPrefix, appName, appBundle, udid, platform, locale));
     }
 
     private static Mono<Throwable> handleClientError(ClientResponse response, String udid) {
@@ -256,13 +291,13 @@ public class AirWatchController {
                 .bodyToMono(JsonDocument.class)
                 .map(body -> body.read("$.eucToken"))
                 .cast(String.class)
-                .doOnEach(Reactive.wrapForItem(token -> logger.trace("Install app. Got EUC token: {}", token)));
+                .doOnNext(token -> logger.trace("Install app. Got EUC token: {}", token));
     }
 
     private Mono<GreenBoxConnection> getGbConnection(URI gbBaseUri, String eucToken) {
         return getCsrfToken(gbBaseUri, eucToken)
                 .map(csrfToken -> new GreenBoxConnection(gbBaseUri, eucToken, csrfToken))
-                .doOnEach(Reactive.wrapForItem(gbc -> logger.trace("Install app. Got GB connection: {}", gbc)));
+                .doOnNext(gbc -> logger.trace("Install app. Got GB connection: {}", gbc));
     }
 
     private Mono<String> installGbAppByName(
@@ -284,7 +319,7 @@ public class AirWatchController {
                 .retrieve()
                 .bodyToMono(JsonDocument.class)
                 .map(document -> toGreenBoxApp(document, appName))
-                .doOnEach(Reactive.wrapForItem(gba -> logger.trace("Found GB app {} for {}", gba, appName)));
+                .doOnNext(gba -> logger.trace("Found GB app {} for {}", gba, appName));
     }
 
     private GreenBoxApp toGreenBoxApp(JsonDocument document, String appName) {
@@ -313,6 +348,8 @@ public class AirWatchController {
          */
         return rest.post()
                 .uri(gbApp.getInstallLink())
+                // The app's install link
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/catalog-portal/services/api/activate/{appId}")
                 .cookie("USER_CATALOG_CONTEXT", gbSession.getEucToken())
                 .cookie("EUC_XSRF_TOKEN", gbSession.getCsrfToken())
                 .header("X-XSRF-TOKEN", gbSession.getCsrfToken())
@@ -320,8 +357,8 @@ public class AirWatchController {
                 .bodyToMono(JsonDocument.class)
                 .map(body -> body.read("$.status"))
                 .cast(String.class)
-                .doOnEach(Reactive.wrapForItem(status ->
-                        logger.trace("Install action status: {} for {}", status, gbApp)));
+                .doOnNext(status ->
+                        logger.trace("Install action status: {} for {}", status, gbApp));
     }
 
     private Mono<String> getCsrfToken(URI baseUri, String eucToken) {
@@ -334,12 +371,13 @@ public class AirWatchController {
                 .cookie("USER_CATALOG_CONTEXT", eucToken)
                 .exchange()
                 .flatMap(Reactive::checkStatus)
-                .map(response -> {
+                // Read the body too, so the connection and its bulkhead permit are released
+                .flatMap(response -> response.bodyToMono(Void.class).then(Mono.fromCallable(() -> {
                     ResponseCookie cookie = response.cookies().getFirst("EUC_XSRF_TOKEN");
                     if (cookie == null) {
                         throw new IllegalStateException("No cookie found!");
                     }
                     return cookie.getValue();
-                });
+                })));
     }
 }
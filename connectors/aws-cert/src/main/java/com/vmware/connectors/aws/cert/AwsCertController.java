@@ -10,6 +10,7 @@ import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.CommonUtils;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import org.apache.commons.lang3.tuple.Pair;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -21,18 +22,19 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.time.OffsetDateTime;
 import java.util.*;
@@ -70,31 +72,53 @@ public class AwsCertController {
         this.cardTextAccessor = cardTextAccessor;
     }
 
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
     @PostMapping(
             path = "/cards/requests",
-            produces = MediaType.APPLICATION_JSON_VALUE,
             consumes = MediaType.APPLICATION_JSON_VALUE
     )
     public Mono<Cards> getCards(
             @RequestHeader(ROUTING_PREFIX) String routingPrefix,
             final Locale locale,
             @Valid @RequestBody CardRequest cardRequest,
-            final HttpServletRequest request
+            final HttpRequest request
     ) {
         logger.trace("getCards called, routingPrefix={}, request={}", routingPrefix, cardRequest);
 
+        return cards(routingPrefix, locale, cardRequest, request)
+                .as(Reactive::collectCards)
+                .subscriberContext(Reactive.setupContext());
+    }
+
+    @PostMapping(
+            path = "/cards/requests",
+            produces = {CardStreams.NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE},
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseBodyEmitter streamCards(
+            @RequestHeader(ROUTING_PREFIX) String routingPrefix,
+            final Locale locale,
+            @Valid @RequestBody CardRequest cardRequest,
+            final HttpRequest request
+    ) {
+        logger.trace("streamCards called, routingPrefix={}, request={}", routingPrefix, cardRequest);
+
+        return CardStreams.stream(() -> cards(routingPrefix, locale, cardRequest, request), request);
+    }
+
+    private Flux<Card> cards(
+            String routingPrefix,
+            Locale locale,
+            CardRequest cardRequest,
+            HttpRequest request
+    ) {
         return Flux.fromStream(validateUrls(cardRequest.getTokens("approval_urls")))
                 .sort()
                 .flatMap(this::callForCardInfo)
                 .filter(pair -> pair.getRight().getStatusCode().is2xxSuccessful())
                 .filter(pair -> StringUtils.isNotBlank(pair.getRight().getBody()))
                 .map(this::parseCardInfoOutOfResponse)
-                .reduce(
-                        new Cards(),
-                        (cards, info) -> appendCard(cards, info, routingPrefix, locale, request)
-                )
-                .defaultIfEmpty(new Cards())
-                .subscriberContext(Reactive.setupContext());
+                .map(info -> makeCard(info, routingPrefix, locale, request));
     }
 
     private Stream<String> validateUrls(Set<String> approvalUrls) {
@@ -224,24 +248,11 @@ public class AwsCertController {
         return formParams;
     }
 
-    private Cards appendCard(Cards cards,
-                             AwsCertCardInfo info,
-                             String routingPrefix,
-                             Locale locale,
-                             HttpServletRequest request) {
-        logger.trace("appendCard called: info={}, routingPrefix={}", info, routingPrefix);
-
-        cards.getCards()
-                .add(makeCard(info, routingPrefix, locale, request));
-
-        return cards;
-    }
-
     private Card makeCard(
             AwsCertCardInfo info,
             String routingPrefix,
             Locale locale,
-            HttpServletRequest request
+            HttpRequest request
     ) {
         logger.trace("makeCard called: info={}, routingPrefix={}", info, routingPrefix);
 
@@ -19,15 +19,16 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.context.support.ResourceBundleMessageSource;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.mock.http.client.reactive.MockClientHttpResponse;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collections;
@@ -119,7 +120,7 @@ public class AwsCertControllerMockedTest {
 
         Map<String, Set<String>> tokens = Collections.singletonMap("approval_urls", approvalUrls);
         CardRequest cardRequest = new CardRequest(tokens);
-        HttpServletRequest servletRequest = new MockHttpServletRequest();
+        HttpRequest servletRequest = new ServletServerHttpRequest(new MockHttpServletRequest());
 
         Cards cards = controller.getCards("https://hero/connectors/aws", null, cardRequest, servletRequest).block();
 
@@ -9,25 +9,29 @@ import com.google.common.collect.ImmutableMap;
 import com.vmware.connectors.bitbucket.server.utils.BitbucketServerAction;
 import com.vmware.connectors.bitbucket.server.utils.BitbucketServerComment;
 import com.vmware.connectors.bitbucket.server.utils.BitbucketServerPullRequest;
+import com.vmware.connectors.common.http.AdaptiveConcurrencyLimiter;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
 import com.vmware.connectors.common.json.JsonDocument;
 import com.vmware.connectors.common.payloads.request.CardRequest;
 import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.CommonUtils;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.util.HashSet;
 import java.util.List;
@@ -54,16 +58,18 @@ public class BitbucketServerController {
 
     private final WebClient rest;
     private final CardTextAccessor cardTextAccessor;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
 
     @Autowired
-    public BitbucketServerController(WebClient rest, CardTextAccessor cardTextAccessor) {
+    public BitbucketServerController(WebClient rest, CardTextAccessor cardTextAccessor, AdaptiveConcurrencyLimiter concurrencyLimiter) {
         this.rest = rest;
         this.cardTextAccessor = cardTextAccessor;
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
     @PostMapping(
             value = "/cards/requests",
-            produces = MediaType.APPLICATION_JSON_VALUE,
             consumes = MediaType.APPLICATION_JSON_VALUE
     )
     public Mono<Cards> getCards(
@@ -72,21 +78,49 @@ public class BitbucketServerController {
             @RequestHeader(ROUTING_PREFIX) final String routingPrefix,
             final Locale locale,
             @Valid @RequestBody final CardRequest cardRequest,
-            final HttpServletRequest request) {
+            final HttpRequest request) {
 
         logger.trace("Cards requests for bitbucket server connector - baseUrlHeader: {}, routingPrefix: {}",
                 baseUrl,
                 routingPrefix);
 
+        return cards(authHeader, baseUrl, routingPrefix, locale, cardRequest, request)
+                .as(Reactive::collectCards)
+                .subscriberContext(Reactive.setupContext());
+    }
+
+    @PostMapping(
+            value = "/cards/requests",
+            produces = {CardStreams.NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE},
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseBodyEmitter streamCards(
+            @RequestHeader(AUTH_HEADER) final String authHeader,
+            @RequestHeader(BASE_URL_HEADER) final String baseUrl,
+            @RequestHeader(ROUTING_PREFIX) final String routingPrefix,
+            final Locale locale,
+            @Valid @RequestBody final CardRequest cardRequest,
+            final HttpRequest request) {
+
+        logger.trace("Card stream for bitbucket server connector - baseUrlHeader: {}, routingPrefix: {}",
+                baseUrl,
+                routingPrefix);
+
+        return CardStreams.stream(() -> cards(authHeader, baseUrl, routingPrefix, locale, cardRequest, request), request);
+    }
+
+    private Flux<Card> cards(final String authHeader,
+                             final String baseUrl,
+                             final String routingPrefix,
+                             final Locale locale,
+                             final CardRequest cardRequest,
+                             final HttpRequest request) {
         final Set<String> cardTokens = cardRequest.getTokens(BITBUCKET_PR_EMAIL_SUBJECT);
 
         final Set<BitbucketServerPullRequest> pullRequests = convertToBitbucketServerPR(cardTokens);
 
         return Flux.fromIterable(pullRequests)
-                .flatMap(pullRequest -> getCardForBitbucketServerPR(authHeader, pullRequest, baseUrl, routingPrefix, locale, request))
-                .collect(Cards::new, (cards, card) -> cards.getCards().add(card))
-                .defaultIfEmpty(new Cards())
-                .subscriberContext(Reactive.setupContext());
+                .flatMap(pullRequest -> getCardForBitbucketServerPR(authHeader, pullRequest, baseUrl, routingPrefix, locale, request));
     }
 
     @PostMapping(
@@ -151,6 +185,7 @@ public class BitbucketServerController {
         return rest.post()
                 .uri(baseUrl + "/rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}/pull-requests/{pullRequestId}/comments",
                         pullRequest.getProjectKey(), pullRequest.getRepositorySlug(), pullRequest.getPullRequestId())
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}/pull-requests/{pullRequestId}/comments")
                 .header(AUTHORIZATION, authHeader)
                 .contentType(MediaType.APPLICATION_JSON)
                 .syncBody(bitBucketServerComment)
@@ -177,6 +212,7 @@ public class BitbucketServerController {
          return rest.get()
                  .uri(baseUrl + "/rest/api/1.0/projects/{projectKey}/repos/{repostiorySlug}/pull-requests/{pullRequestId}/activities",
                         pullRequest.getProjectKey(), pullRequest.getRepositorySlug(), pullRequest.getPullRequestId())
+                 .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}/pull-requests/{pullRequestId}/activities")
                  .header(AUTHORIZATION, authHeader)
                  .retrieve()
                  .bodyToMono(JsonDocument.class)
@@ -211,6 +247,7 @@ public class BitbucketServerController {
                         pullRequest.getPullRequestId(),
                         bitBucketServerAction.getAction(),
                         version)
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}/pull-requests/{pullRequestId}/{action}")
                 .header(AUTHORIZATION, authHeader)
                 .header(ATLASSIAN_TOKEN, "no-check")
                 .retrieve()
@@ -231,13 +268,13 @@ public class BitbucketServerController {
                                                    final String baseUrl,
                                                    final String routingPrefix,
                                                    final Locale locale,
-                                                   final HttpServletRequest request) {
+                                                   final HttpRequest request) {
         logger.debug("Requesting pull request info from bitbucket server base url: {} and pull request info: {}", baseUrl, pullRequest);
 
         final Mono<JsonDocument> bitBucketServerResponse = getPullRequestInfo(authHeader, pullRequest, baseUrl);
         final Mono<List<String>> comments = getComments(baseUrl, authHeader, pullRequest);
 
-        return Mono.zip(bitBucketServerResponse, comments)
+        return concurrencyLimiter.limit(baseUrl, Mono.zip(bitBucketServerResponse, comments))
                 .onErrorResume(Reactive::skipOnNotFound)
                 .map(pair -> convertResponseIntoCard(pair.getT1(), pullRequest, routingPrefix, pair.getT2(), locale, request));
     }
@@ -248,6 +285,7 @@ public class BitbucketServerController {
         return rest.get()
                 .uri(baseUrl+ "/rest/api/1.0/projects/{projectKey}/repos/{respositorySlug}/pull-requests/{pullRequestId}",
                         pullRequest.getProjectKey(), pullRequest.getRepositorySlug(), pullRequest.getPullRequestId())
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}/pull-requests/{pullRequestId}")
                 .header(AUTHORIZATION, authHeader)
                 .retrieve()
                 .bodyToMono(JsonDocument.class);
@@ -258,7 +296,7 @@ public class BitbucketServerController {
                                          final String routingPrefix,
                                          final List<String> comments,
                                          final Locale locale,
-                                         final HttpServletRequest request) {
+                                         final HttpRequest request) {
         final boolean isPROpen = OPEN.equalsIgnoreCase(bitBucketServerResponse.read("$.state"));
 
         final Card.Builder card = new Card.Builder()
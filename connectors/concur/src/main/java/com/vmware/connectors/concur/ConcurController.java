@@ -5,12 +5,17 @@
 
 package com.vmware.connectors.concur;
 
+import com.vmware.connectors.common.http.AdaptiveConcurrencyLimiter;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
+import com.vmware.connectors.common.http.HedgingFilter;
 import com.vmware.connectors.common.json.JsonDocument;
+import com.vmware.connectors.common.json.JsonProjection;
 import com.vmware.connectors.common.payloads.request.CardRequest;
 import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.CommonUtils;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -19,14 +24,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.util.HtmlUtils;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -48,22 +54,33 @@ public class ConcurController {
 
     private static final Logger logger = LoggerFactory.getLogger(ConcurController.class);
 
+    private static final JsonProjection REPORT_FIELDS = new JsonProjection.Builder()
+            .path("approvalStatus", "$.ApprovalStatusName")
+            .path("reportFrom", "$.EmployeeName")
+            .path("reportPurpose", "$.ReportName")
+            .path("reportTotal", "$.ReportTotal")
+            .path("currencyCode", "$.CurrencyCode")
+            .path("businessPurpose", "$.ExpenseEntriesList[0].BusinessPurpose")
+            .build();
 
     private final WebClient rest;
     private final CardTextAccessor cardTextAccessor;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
     private final Resource concurrRequestTemplate;
 
     @Autowired
     public ConcurController(WebClient rest,
                             CardTextAccessor cardTextAccessor,
+                            AdaptiveConcurrencyLimiter concurrencyLimiter,
                             @Value("classpath:static/templates/concur-request-template.xml") Resource concurRequestTemplate) {
         this.rest = rest;
         this.cardTextAccessor = cardTextAccessor;
+        this.concurrencyLimiter = concurrencyLimiter;
         this.concurrRequestTemplate = concurRequestTemplate;
     }
 
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
     @PostMapping(path = "/cards/requests",
-            produces = APPLICATION_JSON_VALUE,
             consumes = APPLICATION_JSON_VALUE)
     public Mono<Cards> getCards(
             @RequestHeader(name = AUTHORIZATION_HEADER) final String authHeader,
@@ -71,17 +88,38 @@ public class ConcurController {
             @RequestHeader(name = ROUTING_PREFIX) final String routingPrefix,
             final Locale locale,
             @Valid @RequestBody CardRequest cardRequest,
-            final HttpServletRequest request) {
+            final HttpRequest request) {
 
+        return cards(authHeader, baseUrl, routingPrefix, locale, cardRequest, request)
+                .as(Reactive::collectCards)
+                .subscriberContext(Reactive.setupContext());
+    }
+
+    @PostMapping(path = "/cards/requests",
+            produces = {CardStreams.NDJSON_VALUE, TEXT_EVENT_STREAM_VALUE},
+            consumes = APPLICATION_JSON_VALUE)
+    public ResponseBodyEmitter streamCards(
+            @RequestHeader(name = AUTHORIZATION_HEADER) final String authHeader,
+            @RequestHeader(name = BACKEND_BASE_URL_HEADER) final String baseUrl,
+            @RequestHeader(name = ROUTING_PREFIX) final String routingPrefix,
+            final Locale locale,
+            @Valid @RequestBody CardRequest cardRequest,
+            final HttpRequest request) {
+
+        return CardStreams.stream(() -> cards(authHeader, baseUrl, routingPrefix, locale, cardRequest, request), request);
+    }
+
+    private Flux<Card> cards(final String authHeader,
+                             final String baseUrl,
+                             final String routingPrefix,
+                             final Locale locale,
+                             final CardRequest cardRequest,
+                             final HttpRequest request) {
         final Set<String> expenseReportIds = cardRequest.getTokens(EXPENSE_REPORT_ID);
 
         return Flux.fromIterable(expenseReportIds)
-                .flatMap(expenseReportId -> getCardForExpenseReport(
-                        authHeader, expenseReportId, baseUrl,
-                        routingPrefix, locale, request))
-                .collect(Cards::new, (cards, card) -> cards.getCards().add(card))
-                .defaultIfEmpty(new Cards())
-                .subscriberContext(Reactive.setupContext());
+                .flatMap(expenseReportId -> getCardForExpenseReport(authHeader, expenseReportId, baseUrl,
+                        routingPrefix, locale, request));
     }
 
     @PostMapping(path = "/api/expense/approve/{expenseReportId}",
@@ -121,6 +159,8 @@ public class ConcurController {
         return getWorkFlowActionUrl(authHeader, reportID, baseUrl)
                 .flatMap(url -> rest.post()
                     .uri(url)
+                    // The report's WorkflowActionURL
+                    .attribute(BackendMetricsFilter.URI_TEMPLATE, "/api/expense/expensereport/v1.1/report/{id}/WorkFlowAction")
                     .header(AUTHORIZATION, authHeader)
                     .contentType(APPLICATION_XML)
                     .accept(APPLICATION_JSON)
@@ -143,10 +183,10 @@ public class ConcurController {
                                                 final String baseUrl,
                                                 final String routingPrefix,
                                                 final Locale locale,
-                                                final HttpServletRequest request) {
+                                                final HttpRequest request) {
         logger.debug("Requesting expense request info from concur base URL: {} for ticket request id: {}", baseUrl, id);
 
-        return getReportDetails(authHeader, id, baseUrl)
+        return concurrencyLimiter.limit(baseUrl, getReportDetails(authHeader, id, baseUrl))
                 .onErrorResume(Reactive::skipOnNotFound)
                 .map(entity -> convertResponseIntoCard(entity,
                         id,
@@ -158,8 +198,10 @@ public class ConcurController {
     private Mono<ResponseEntity<JsonDocument>> getReportDetails(String authHeader, String id, String baseUrl) {
         return rest.get()
                 .uri(baseUrl + "/api/expense/expensereport/v2.0/report/{id}", id)
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/api/expense/expensereport/v2.0/report/{id}")
                 .header(AUTHORIZATION, authHeader)
                 .accept(APPLICATION_JSON)
+                .attribute(HedgingFilter.HEDGE, true)
                 .exchange()
                 .flatMap(Reactive::checkStatus)
                 .flatMap(response -> response.toEntity(JsonDocument.class));
@@ -177,9 +219,9 @@ public class ConcurController {
                                          final String expenseReportId,
                                          final String routingPrefix,
                                          final Locale locale,
-                                         final HttpServletRequest request) {
-        final JsonDocument response = entity.getBody();
-        final String approvalStatus = response.read("$.ApprovalStatusName");
+                                         final HttpRequest request) {
+        final JsonProjection.Result response = entity.getBody().project(REPORT_FIELDS);
+        final String approvalStatus = response.get("approvalStatus");
 
         final Card.Builder cardBuilder = new Card.Builder()
                 .setName("Concur")
@@ -202,11 +244,11 @@ public class ConcurController {
         return cardBuilder.build();
     }
 
-    private CardBody buildCardBodyBuilder(final JsonDocument response, Locale locale) {
-        final String approvalStatus = response.read("$.ApprovalStatusName");
-        final String reportFrom = response.read("$.EmployeeName");
-        final String reportPurpose = response.read("$.ReportName");
-        final String reportAmount = String.format("%.2f", Float.parseFloat(response.read("$.ReportTotal"))) + " " + response.read("$.CurrencyCode");
+    private CardBody buildCardBodyBuilder(final JsonProjection.Result response, Locale locale) {
+        final String approvalStatus = response.get("approvalStatus");
+        final String reportFrom = response.get("reportFrom");
+        final String reportPurpose = response.get("reportPurpose");
+        final String reportAmount = String.format("%.2f", Float.parseFloat(response.get("reportTotal"))) + " " + response.get("currencyCode");
 
         CardBody.Builder cardBodyBuilder = new CardBody.Builder()
                 .addField(makeCardBodyField(this.cardTextAccessor.getMessage("concur.report.status", locale), approvalStatus))
@@ -214,8 +256,9 @@ public class ConcurController {
                 .addField(makeCardBodyField(this.cardTextAccessor.getMessage("concur.report.purpose", locale), reportPurpose))
                 .addField(makeCardBodyField(this.cardTextAccessor.getMessage("concur.report.amount", locale), reportAmount));
 
-        if (StringUtils.isNotBlank(response.read("$.ExpenseEntriesList[0].BusinessPurpose"))) {
-            cardBodyBuilder.setDescription(response.read("$.ExpenseEntriesList[0].BusinessPurpose"));
+        final String businessPurpose = response.get("businessPurpose");
+        if (StringUtils.isNotBlank(businessPurpose)) {
+            cardBodyBuilder.setDescription(businessPurpose);
         }
 
         return cardBodyBuilder.build();
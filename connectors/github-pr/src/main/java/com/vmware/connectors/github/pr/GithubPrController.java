@@ -6,11 +6,15 @@
 package com.vmware.connectors.github.pr;
 
 import com.google.common.collect.ImmutableMap;
+import com.vmware.connectors.common.http.AdaptiveConcurrencyLimiter;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
+import com.vmware.connectors.common.http.RateLimitTracker;
 import com.vmware.connectors.common.payloads.request.CardRequest;
 import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.CommonUtils;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import com.vmware.connectors.github.pr.v3.PullRequest;
 import com.vmware.connectors.github.pr.v3.Review;
 import org.apache.commons.lang3.tuple.Pair;
@@ -18,16 +22,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.time.format.DateTimeFormatter;
 import java.util.Locale;
@@ -54,23 +61,34 @@ public class GithubPrController {
     private static final String REQUEST_PARAM_KEY = "request";
     private static final String SHA_PARAM_KEY = "sha";
 
+    private static final String PULL_REQUEST_PATH = "/repos/{owner}/{repo}/pulls/{number}";
+
     private static final int URI_SEGMENT_SIZE = 4;
 
     private final WebClient rest;
     private final CardTextAccessor cardTextAccessor;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final PullRequestCache pullRequestCache;
+    private final RateLimitTracker rateLimits;
 
     @Autowired
     public GithubPrController(
             WebClient rest,
-            CardTextAccessor cardTextAccessor
+            CardTextAccessor cardTextAccessor,
+            AdaptiveConcurrencyLimiter concurrencyLimiter,
+            PullRequestCache pullRequestCache,
+            RateLimitTracker rateLimits
     ) {
         this.rest = rest;
         this.cardTextAccessor = cardTextAccessor;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.pullRequestCache = pullRequestCache;
+        this.rateLimits = rateLimits;
     }
 
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
     @PostMapping(
             path = "/cards/requests",
-            produces = MediaType.APPLICATION_JSON_VALUE,
             consumes = MediaType.APPLICATION_JSON_VALUE
     )
     public Mono<Cards> getCards(
@@ -79,10 +97,41 @@ public class GithubPrController {
             @RequestHeader(ROUTING_PREFIX) String routingPrefix,
             Locale locale,
             @Valid @RequestBody CardRequest cardRequest,
-            final HttpServletRequest request
+            final HttpRequest request
     ) {
         logger.trace("getCards called: baseUrl={}, routingPrefix={}, request={}", baseUrl, routingPrefix, cardRequest);
 
+        return cards(auth, baseUrl, routingPrefix, locale, cardRequest, request)
+                .as(Reactive::collectCards)
+                .subscriberContext(Reactive.setupContext());
+    }
+
+    @PostMapping(
+            path = "/cards/requests",
+            produces = {CardStreams.NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE},
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseBodyEmitter streamCards(
+            @RequestHeader(AUTH_HEADER) String auth,
+            @RequestHeader(BASE_URL_HEADER) String baseUrl,
+            @RequestHeader(ROUTING_PREFIX) String routingPrefix,
+            Locale locale,
+            @Valid @RequestBody CardRequest cardRequest,
+            final HttpRequest request
+    ) {
+        logger.trace("streamCards called: baseUrl={}, routingPrefix={}, request={}", baseUrl, routingPrefix, cardRequest);
+
+        return CardStreams.stream(() -> cards(auth, baseUrl, routingPrefix, locale, cardRequest, request), request);
+    }
+
+    private Flux<Card> cards(
+            String auth,
+            String baseUrl,
+            String routingPrefix,
+            Locale locale,
+            CardRequest cardRequest,
+            HttpRequest request
+    ) {
         Stream<PullRequestId> pullRequestIds = cardRequest.getTokens("pull_request_urls")
                 .stream()
                 .filter(Objects::nonNull)
@@ -97,16 +146,7 @@ public class GithubPrController {
 
         return Flux.fromStream(pullRequestIds)
                 .flatMap(pullRequestId -> fetchPullRequest(baseUrl, pullRequestId, auth))
-                .map(pair -> makeCard(routingPrefix, pair, locale, request))
-                .reduce(
-                        new Cards(),
-                        (cards, card) -> {
-                            cards.getCards().add(card);
-                            return cards;
-                        }
-                )
-                .defaultIfEmpty(new Cards())
-                .subscriberContext(Reactive.setupContext());
+                .map(pair -> makeCard(routingPrefix, pair, locale, request));
     }
 
     private UriComponents parseUri(
@@ -146,22 +186,66 @@ public class GithubPrController {
             String auth
     ) {
         logger.trace("fetchPullRequest called: baseUrl={}, id={}", baseUrl, pullRequestId);
-        return rest.get()
-                .uri(makeGithubUri(baseUrl, pullRequestId))
-                .header(AUTHORIZATION, auth)
-                .retrieve()
-                .bodyToMono(PullRequest.class)
+        String uri = makeGithubUri(baseUrl, pullRequestId);
+        PullRequestCache.Entry cached = pullRequestCache.get(auth, uri);
+        // Paced before it takes a slot with the backend, so waiting doesn't hold one.
+        // Deferred, since exchange() already runs the client's filters, and the call may never be sent
+        Mono<PullRequest> call = concurrencyLimiter.limit(baseUrl, Mono.defer(() -> getPullRequest(baseUrl, uri, auth, cached)));
+        // Out of quota, the last pull request we saw beats no card at all
+        Mono<PullRequest> fallback = Mono.justOrEmpty(cached).map(PullRequestCache.Entry::getPullRequest);
+        return rateLimits.schedule(baseUrl, auth, call, fallback)
                 .onErrorResume(Reactive::skipOnNotFound)
                 .map(pullRequest -> Pair.of(pullRequestId, pullRequest));
         }
 
+    private Mono<PullRequest> getPullRequest(
+            String baseUrl,
+            String uri,
+            String auth,
+            PullRequestCache.Entry cached
+    ) {
+        return rest.get()
+                .uri(uri)
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, PULL_REQUEST_PATH)
+                .header(AUTHORIZATION, auth)
+                .headers(headers -> {
+                    if (cached != null) {
+                        headers.setIfNoneMatch(cached.getEtag());
+                    }
+                })
+                .exchange()
+                .doOnNext(response -> rateLimits.update(baseUrl, auth, response))
+                .flatMap(Reactive::checkStatus)
+                .flatMap(response -> readPullRequest(response, auth, uri, cached));
+    }
+
+    private Mono<PullRequest> readPullRequest(
+            ClientResponse response,
+            String auth,
+            String uri,
+            PullRequestCache.Entry cached
+    ) {
+        if (response.statusCode() == HttpStatus.NOT_MODIFIED && cached != null) {
+            // A 304 has no body; the one we kept is still current
+            return response.bodyToMono(Void.class)
+                    .then(Mono.just(cached.getPullRequest()));
+        }
+        String etag = response.headers().asHttpHeaders().getETag();
+        return response.bodyToMono(PullRequest.class)
+                .doOnNext(pullRequest -> {
+                    if (etag != null) {
+                        pullRequestCache.put(auth, uri, etag, pullRequest);
+                    }
+                });
+    }
+
     private String makeGithubUri(
             String baseUrl,
             PullRequestId pullRequestId
     ) {
         return UriComponentsBuilder
                 .fromHttpUrl(baseUrl)
-                .path("/repos/{owner}/{repo}/pulls/{number}")
+                .path(PULL_REQUEST_PATH)
                 .buildAndExpand(
                         ImmutableMap.of(
                                 "owner", pullRequestId.getOwner(),
@@ -178,7 +262,7 @@ public class GithubPrController {
             String routingPrefix,
             Pair<PullRequestId, PullRequest> info,
             Locale locale,
-            HttpServletRequest request
+            HttpRequest request
     ) {
         logger.trace("makeCard called: routingPrefix={}, info={}", routingPrefix, info);
 
@@ -465,6 +549,7 @@ public class GithubPrController {
     ) {
        return rest.patch()
                 .uri(makeGithubUri(baseUrl, pullRequestId))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, PULL_REQUEST_PATH)
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(ImmutableMap.of("state", "closed"))
@@ -490,6 +575,7 @@ public class GithubPrController {
 
         return rest.put()
                 .uri(makeGithubUri(baseUrl, pullRequestId) + "/merge")
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, PULL_REQUEST_PATH + "/merge")
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(ImmutableMap.of("sha", sha))
@@ -578,6 +664,7 @@ public class GithubPrController {
     ) {
         return rest.post()
                 .uri(makeGithubUri(baseUrl, pullRequestId) + "/reviews")
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, PULL_REQUEST_PATH + "/reviews")
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(review)
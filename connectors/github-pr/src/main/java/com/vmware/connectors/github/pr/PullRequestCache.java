@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.github.pr;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.vmware.connectors.github.pr.v3.PullRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Remembers the last pull request GitHub returned for a user and URL, along
+ * with its ETag, so the next fetch can be a conditional request.
+ * <p>
+ * GitHub answers a matching If-None-Match with a 304, which is quicker and
+ * doesn't count against the user's rate limit. Entries are keyed by a hash of
+ * the Authorization header, so one user never gets a pull request fetched
+ * with another user's credentials. The least recently used entries are
+ * evicted once the cache is full.
+ */
+@Component
+public class PullRequestCache {
+
+    private final Cache<String, Entry> cache;
+
+    @Autowired
+    public PullRequestCache(@Value("${github.pr.cache.maxSize:10000}") long maxSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * @return the cached entry, or null if there isn't one
+     */
+    public Entry get(String auth, String url) {
+        return cache.getIfPresent(key(auth, url));
+    }
+
+    public void put(String auth, String url, String etag, PullRequest pullRequest) {
+        cache.put(key(auth, url), new Entry(etag, pullRequest));
+    }
+
+    private static String key(String auth, String url) {
+        return Hashing.sha256().hashString(auth, UTF_8) + " " + url;
+    }
+
+    public static final class Entry {
+
+        private final String etag;
+        private final PullRequest pullRequest;
+
+        private Entry(String etag, PullRequest pullRequest) {
+            this.etag = etag;
+            this.pullRequest = pullRequest;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public PullRequest getPullRequest() {
+            return pullRequest;
+        }
+    }
+}
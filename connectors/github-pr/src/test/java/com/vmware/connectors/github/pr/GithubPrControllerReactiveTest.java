@@ -0,0 +1,16 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.github.pr;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs every {@link GithubPrControllerTest} again with the connector on Netty
+ * and WebFlux instead of Tomcat and Spring MVC.
+ */
+@TestPropertySource(properties = "spring.main.web-application-type=reactive")
+class GithubPrControllerReactiveTest extends GithubPrControllerTest {
+}
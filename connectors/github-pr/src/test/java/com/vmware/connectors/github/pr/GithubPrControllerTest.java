@@ -14,11 +14,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.match.MockRestRequestMatchers;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -27,6 +30,7 @@ import static org.hamcrest.Matchers.any;
 import static org.hamcrest.Matchers.is;
 import static org.springframework.http.HttpHeaders.ACCEPT_LANGUAGE;
 import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static org.springframework.http.HttpMethod.*;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_FORM_URLENCODED;
@@ -231,6 +235,93 @@ class GithubPrControllerTest extends ControllerTestsBase {
                 .andRespond(withStatus(NOT_FOUND));
     }
 
+    @Test
+    void testRequestCardsNotModified() throws Exception {
+        String auth = "etag-auth-token";
+        String[] prs = {"small-merged-pr", "small-open-pr", "big-closed-pr"};
+
+        for (int i = 0; i < prs.length; i++) {
+            mockBackend.expect(requestTo("/repos/vmware/test-repo/pulls/" + (i + 1)))
+                    .andExpect(header(AUTHORIZATION, "Bearer " + auth))
+                    .andExpect(method(GET))
+                    .andRespond(withSuccess(fromFile("fake/cards/" + prs[i] + ".json"), APPLICATION_JSON)
+                            .headers(etag("\"pr-" + (i + 1) + "\"")));
+        }
+        mockBackend.expect(requestTo("/repos/vmware/test-repo/pulls/0-not-found"))
+                .andRespond(withStatus(NOT_FOUND));
+
+        requestCards(auth, fromFile("requests/valid/cards/card.json"))
+                .expectStatus().isOk();
+        mockBackend.verify();
+        mockBackend.reset();
+
+        // GitHub says nothing changed, so the cards are built from the cached pull requests
+        for (int i = 0; i < prs.length; i++) {
+            mockBackend.expect(requestTo("/repos/vmware/test-repo/pulls/" + (i + 1)))
+                    .andExpect(header(AUTHORIZATION, "Bearer " + auth))
+                    .andExpect(header(IF_NONE_MATCH, "\"pr-" + (i + 1) + "\""))
+                    .andExpect(method(GET))
+                    .andRespond(withStatus(NOT_MODIFIED));
+        }
+        mockBackend.expect(requestTo("/repos/vmware/test-repo/pulls/0-not-found"))
+                .andRespond(withStatus(NOT_FOUND));
+
+        String body = requestCards(auth, fromFile("requests/valid/cards/card.json"))
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody()
+                .collect(Collectors.joining())
+                .map(JsonNormalizer::forCards)
+                .block();
+        assertThat(body, sameJSONAs(fromFile("responses/success/cards/card.json")).allowingAnyArrayOrdering());
+    }
+
+    @Test
+    void testRequestCardsRateLimitExhausted() throws Exception {
+        String auth = "rate-limited-auth-token";
+        String[] prs = {"small-merged-pr", "small-open-pr", "big-closed-pr"};
+
+        for (int i = 0; i < prs.length; i++) {
+            HttpHeaders headers = etag("\"pr-" + (i + 1) + "\"");
+            headers.addAll(exhausted());
+            mockBackend.expect(requestTo("/repos/vmware/test-repo/pulls/" + (i + 1)))
+                    .andExpect(header(AUTHORIZATION, "Bearer " + auth))
+                    .andRespond(withSuccess(fromFile("fake/cards/" + prs[i] + ".json"), APPLICATION_JSON)
+                            .headers(headers));
+        }
+        mockBackend.expect(requestTo("/repos/vmware/test-repo/pulls/0-not-found"))
+                .andRespond(withStatus(NOT_FOUND).headers(exhausted()));
+
+        requestCards(auth, fromFile("requests/valid/cards/card.json"))
+                .expectStatus().isOk();
+        mockBackend.verify();
+        mockBackend.reset();
+
+        // The token has no calls left, so the cards are built from the cached pull requests without calling GitHub
+        String body = requestCards(auth, fromFile("requests/valid/cards/card.json"))
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody()
+                .collect(Collectors.joining())
+                .map(JsonNormalizer::forCards)
+                .block();
+        assertThat(body, sameJSONAs(fromFile("responses/success/cards/card.json")).allowingAnyArrayOrdering());
+    }
+
+    private static HttpHeaders exhausted() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-RateLimit-Limit", "5000");
+        headers.set("X-RateLimit-Remaining", "0");
+        headers.set("X-RateLimit-Reset", String.valueOf(Instant.now().plus(1, ChronoUnit.HOURS).getEpochSecond()));
+        return headers;
+    }
+
+    private static HttpHeaders etag(String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        return headers;
+    }
+
     @Test
     void testRequestCardsEmptyPrUrlsSuccess() throws Exception {
         requestCards(GITHUB_AUTH_TOKEN, fromFile("requests/valid/cards/empty-pr-urls.json"))
@@ -6,11 +6,14 @@
 package com.vmware.connectors.gitlab.pr;
 
 import com.google.common.collect.ImmutableMap;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
+import com.vmware.connectors.common.http.RateLimitTracker;
 import com.vmware.connectors.common.payloads.request.CardRequest;
 import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.CommonUtils;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import com.vmware.connectors.gitlab.pr.v4.MergeRequest;
 import com.vmware.connectors.gitlab.pr.v4.MergeRequestActionConstants;
 import org.apache.commons.lang3.tuple.Pair;
@@ -19,16 +22,17 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.MediaType;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -61,24 +65,29 @@ public class GitlabPrController {
     // Merge Request path name expected
     private static final String MERGE_REQUESTS = "merge_requests";
 
+    private static final String MERGE_REQUEST_PATH = "/api/v4/projects/{id}/" + MERGE_REQUESTS + "/{iid}";
+
     private final boolean isEnterpriseEdition;
     private final WebClient rest;
     private final CardTextAccessor cardTextAccessor;
+    private final RateLimitTracker rateLimits;
 
     @Autowired
     public GitlabPrController(
             @Value("${gitlab.connector.enterprise:false}") boolean isEnterpriseEdition,
             WebClient rest,
-            CardTextAccessor cardTextAccessor
+            CardTextAccessor cardTextAccessor,
+            RateLimitTracker rateLimits
     ) {
         this.isEnterpriseEdition = isEnterpriseEdition;
         this.rest = rest;
         this.cardTextAccessor = cardTextAccessor;
+        this.rateLimits = rateLimits;
     }
 
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
     @PostMapping(
             path = "/cards/requests",
-            produces = MediaType.APPLICATION_JSON_VALUE,
             consumes = MediaType.APPLICATION_JSON_VALUE
     )
     public Mono<Cards> getCards(
@@ -87,10 +96,41 @@ public class GitlabPrController {
             @RequestHeader(ROUTING_PREFIX) String routingPrefix,
             Locale locale,
             @Valid @RequestBody CardRequest cardRequest,
-            final HttpServletRequest request
+            final HttpRequest request
     ) {
         logger.trace("getCards called: baseUrl={}, routingPrefix={}, request={}", baseUrl, routingPrefix, cardRequest);
 
+        return cards(auth, baseUrl, routingPrefix, locale, cardRequest, request)
+                .as(Reactive::collectCards)
+                .subscriberContext(Reactive.setupContext());
+    }
+
+    @PostMapping(
+            path = "/cards/requests",
+            produces = {CardStreams.NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE},
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseBodyEmitter streamCards(
+            @RequestHeader(AUTH_HEADER) String auth,
+            @RequestHeader(BASE_URL_HEADER) String baseUrl,
+            @RequestHeader(ROUTING_PREFIX) String routingPrefix,
+            Locale locale,
+            @Valid @RequestBody CardRequest cardRequest,
+            final HttpRequest request
+    ) {
+        logger.trace("streamCards called: baseUrl={}, routingPrefix={}, request={}", baseUrl, routingPrefix, cardRequest);
+
+        return CardStreams.stream(() -> cards(auth, baseUrl, routingPrefix, locale, cardRequest, request), request);
+    }
+
+    private Flux<Card> cards(
+            String auth,
+            String baseUrl,
+            String routingPrefix,
+            Locale locale,
+            CardRequest cardRequest,
+            HttpRequest request
+    ) {
         Stream<MergeRequestId> mergeRequestIds = cardRequest.getTokens("merge_request_urls")
                 .stream()
                 .filter(Objects::nonNull)
@@ -103,18 +143,9 @@ public class GitlabPrController {
                 .map(this::getMergeRequestId)
                 .filter(Objects::nonNull);
 
-       return Flux.fromStream(mergeRequestIds)
+        return Flux.fromStream(mergeRequestIds)
                 .flatMap(mergeRequestId -> fetchMergeRequest(baseUrl, mergeRequestId, auth))
-                .map(pair -> makeCard(routingPrefix, pair, locale, request))
-                .reduce(
-                        new Cards(),
-                        (cards, card) -> {
-                            cards.getCards().add(card);
-                            return cards;
-                        }
-                )
-               .defaultIfEmpty(new Cards())
-               .subscriberContext(Reactive.setupContext());
+                .map(pair -> makeCard(routingPrefix, pair, locale, request));
     }
 
     private UriComponents parseUri(
@@ -158,11 +189,17 @@ public class GitlabPrController {
     ) {
         logger.trace("fetchMergeRequest called: baseUrl={}, id={}", baseUrl, mergeRequestId);
 
-        return rest.get()
+        // Deferred, since exchange() already runs the client's filters, and the call may never be sent
+        Mono<MergeRequest> call = Mono.defer(() -> rest.get()
                 .uri(makeGitlabUri(baseUrl, mergeRequestId))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, MERGE_REQUEST_PATH)
                 .header(AUTHORIZATION, auth)
-                .retrieve()
-                .bodyToMono(MergeRequest.class)
+                .exchange())
+                .doOnNext(response -> rateLimits.update(baseUrl, auth, response))
+                .flatMap(Reactive::checkStatus)
+                .flatMap(response -> response.bodyToMono(MergeRequest.class));
+        // Out of quota, the merge request is left out rather than sent to fail
+        return rateLimits.schedule(baseUrl, auth, call, Mono.empty())
                 .onErrorResume(Reactive::skipOnNotFound)
                 .map(mergeRequest -> Pair.of(mergeRequestId, mergeRequest));
    }
@@ -203,7 +240,7 @@ public class GitlabPrController {
             String routingPrefix,
             Pair<MergeRequestId, MergeRequest> info,
             Locale locale,
-            HttpServletRequest request
+            HttpRequest request
     ) {
         logger.trace("makeCard called: routingPrefix={}, info={}", routingPrefix, info);
 
@@ -437,6 +474,7 @@ public class GitlabPrController {
     ) {
         return rest.method(method)
                 .uri(makeGitlabUri(baseUrl, mergeRequestId, action))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, MERGE_REQUEST_PATH + action)
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(body)
@@ -14,11 +14,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.match.MockRestRequestMatchers;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -213,6 +216,35 @@ class GitlabPrControllerTest extends ControllerTestsBase {
                 .andRespond(withStatus(NOT_FOUND));
     }
 
+    @Test
+    void testRequestCardsRateLimitExhausted() throws Exception {
+        String auth = "rate-limited-auth-token";
+        String[] mergeRequests = {"small-merged-pr", "small-open-pr", "big-closed-pr"};
+        HttpHeaders exhausted = new HttpHeaders();
+        exhausted.set("RateLimit-Limit", "600");
+        exhausted.set("RateLimit-Remaining", "0");
+        exhausted.set("RateLimit-Reset", String.valueOf(Instant.now().plus(1, ChronoUnit.HOURS).getEpochSecond()));
+
+        for (int i = 0; i < mergeRequests.length; i++) {
+            mockBackend.expect(requestTo("/api/v4/projects/vmware%2Ftest-repo/merge_requests/" + (i + 1)))
+                    .andExpect(header(AUTHORIZATION, "Bearer " + auth))
+                    .andRespond(withSuccess(fromFile("fake/cards/" + mergeRequests[i] + ".json"), APPLICATION_JSON)
+                            .headers(exhausted));
+        }
+        mockBackend.expect(requestTo("/api/v4/projects/vmware%2Ftest-repo/merge_requests/0-not-found"))
+                .andRespond(withStatus(NOT_FOUND).headers(exhausted));
+
+        requestCards(auth, fromFile("requests/valid/cards/card.json"))
+                .expectStatus().isOk();
+        mockBackend.verify();
+        mockBackend.reset();
+
+        // The token has no calls left, so GitLab isn't called again until the limit resets
+        requestCards(auth, fromFile("requests/valid/cards/card.json"))
+                .expectStatus().isOk()
+                .expectBody().json(fromFile("responses/success/cards/empty-pr-urls.json"));
+    }
+
     @Test
     void testRequestCardsEmptyPrUrlsSuccess() throws Exception {
         requestCards(GITLAB_AUTH_TOKEN, fromFile("requests/valid/cards/empty-pr-urls.json"))
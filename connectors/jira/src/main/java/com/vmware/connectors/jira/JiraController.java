@@ -5,29 +5,41 @@
 
 package com.vmware.connectors.jira;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import com.vmware.connectors.common.http.AdaptiveConcurrencyLimiter;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
+import com.vmware.connectors.common.http.HedgingFilter;
 import com.vmware.connectors.common.json.JsonDocument;
+import com.vmware.connectors.common.json.JsonDocumentExtractors;
+import com.vmware.connectors.common.json.JsonProjection;
 import com.vmware.connectors.common.payloads.request.CardRequest;
 import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.CommonUtils;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.springframework.http.HttpHeaders.AUTHORIZATION;
 import static org.springframework.http.HttpMethod.GET;
@@ -46,32 +58,108 @@ public class JiraController {
 
     private static final int COMMENTS_SIZE = 2;
 
+    // Issue fields, each also the key of its card field's title
+    private static final String FIX_VERSIONS = "fixVersions";
+    private static final String COMPONENTS = "components";
+    private static final String PROJECT = "project";
+    private static final String PRIORITY = "priority";
+    private static final String STATUS = "status";
+    private static final String RESOLUTION = "resolution";
+    private static final String ASSIGNEE = "assignee";
+
+    private static final JsonProjection ISSUE_FIELDS = new JsonProjection.Builder()
+            .path("id", "$.id")
+            .path("key", "$.key")
+            .path("summary", "$.fields.summary")
+            .path(FIX_VERSIONS, "$.fields.fixVersions[*].name")
+            .path(COMPONENTS, "$.fields.components[*].name")
+            .path("comments", "$.fields.comment.comments[*]['body', 'author']")
+            .path(PROJECT, "$.fields.project.name")
+            .path(PRIORITY, "$.fields.priority.name")
+            .path(STATUS, "$.fields.status.name")
+            .path(RESOLUTION, "$.fields.resolution.name")
+            .path(ASSIGNEE, "$.fields.assignee.displayName")
+            .build();
+
+    /**
+     * The issue fields ISSUE_FIELDS reads, so a search returns nothing else.
+     */
+    private static final List<String> SEARCH_FIELDS = ImmutableList.of(
+            "summary", FIX_VERSIONS, COMPONENTS, "comment", PROJECT, PRIORITY, STATUS, RESOLUTION, ASSIGNEE);
+
+    /**
+     * The most issue keys searched for at once, to keep the JQL to a size
+     * Jira accepts (and its results to one page).
+     */
+    private static final int MAX_KEYS_PER_SEARCH = 50;
+
     private final WebClient rest;
     private final CardTextAccessor cardTextAccessor;
-
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final Configuration jsonConfiguration;
+    private final boolean bulkSearch;
+
+    /**
+     * @param bulkSearch if true, the issues of a card request are fetched
+     *                   together, with a JQL search for their keys that only
+     *                   returns the fields the cards show, instead of one
+     *                   full issue at a time
+     */
     @Autowired
-    public JiraController(WebClient rest, CardTextAccessor cardTextAccessor) {
+    public JiraController(WebClient rest,
+                          CardTextAccessor cardTextAccessor,
+                          AdaptiveConcurrencyLimiter concurrencyLimiter,
+                          JsonProvider jsonProvider,
+                          @Value("${jira.connector.bulkSearch:false}") boolean bulkSearch) {
         this.rest = rest;
         this.cardTextAccessor = cardTextAccessor;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.jsonConfiguration = JsonDocument.configurationFor(jsonProvider);
+        this.bulkSearch = bulkSearch;
     }
 
-    @PostMapping(path = "/cards/requests", produces = APPLICATION_JSON_VALUE, consumes = APPLICATION_JSON_VALUE)
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
+    @PostMapping(path = "/cards/requests", consumes = APPLICATION_JSON_VALUE)
     public Mono<Cards> getCards(
             @RequestHeader(name = JIRA_AUTH_HEADER) String jiraAuth,
             @RequestHeader(name = JIRA_BASE_URL_HEADER) String baseUrl,
             @RequestHeader(name = ROUTING_PREFIX) String routingPrefix,
             Locale locale,
             @Valid @RequestBody CardRequest cardRequest,
-            final HttpServletRequest request) {
+            final HttpRequest request) {
+
+        return cards(jiraAuth, baseUrl, routingPrefix, locale, cardRequest, request)
+                .as(Reactive::collectCards)
+                .subscriberContext(Reactive.setupContext());
+    }
+
+    @PostMapping(path = "/cards/requests", produces = {CardStreams.NDJSON_VALUE, TEXT_EVENT_STREAM_VALUE},
+            consumes = APPLICATION_JSON_VALUE)
+    public ResponseBodyEmitter streamCards(
+            @RequestHeader(name = JIRA_AUTH_HEADER) String jiraAuth,
+            @RequestHeader(name = JIRA_BASE_URL_HEADER) String baseUrl,
+            @RequestHeader(name = ROUTING_PREFIX) String routingPrefix,
+            Locale locale,
+            @Valid @RequestBody CardRequest cardRequest,
+            final HttpRequest request) {
 
+        return CardStreams.stream(() -> cards(jiraAuth, baseUrl, routingPrefix, locale, cardRequest, request), request);
+    }
+
+    private Flux<Card> cards(String jiraAuth,
+                             String baseUrl,
+                             String routingPrefix,
+                             Locale locale,
+                             CardRequest cardRequest,
+                             HttpRequest request) {
         Set<String> issueIds = cardRequest.getTokens("issue_id");
 
+        if (bulkSearch) {
+            return searchCards(jiraAuth, baseUrl, issueIds, routingPrefix, locale, request);
+        }
+
         return Flux.fromIterable(issueIds)
-                .flatMap(issueId -> getCardForIssue(jiraAuth, baseUrl, issueId,
-                        routingPrefix, locale, request))
-                .collect(Cards::new, (cards, card) -> cards.getCards().add(card))
-                .defaultIfEmpty(new Cards())
-                .subscriberContext(Reactive.setupContext());
+                .flatMap(issueId -> getCardForIssue(jiraAuth, baseUrl, issueId, routingPrefix, locale, request));
     }
 
     @PostMapping(path = "/api/v1/issues/{issueKey}/comment", consumes = APPLICATION_FORM_URLENCODED_VALUE)
@@ -82,6 +170,7 @@ public class JiraController {
         logger.debug("Adding jira comments for issue id : {} with Jira server: {}", issueKey, baseUrl);
         return rest.post()
                 .uri(baseUrl + "/rest/api/2/issue/{issueKey}/comment", issueKey)
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/2/issue/{issueKey}/comment")
                 .header(AUTHORIZATION, jiraAuth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(Collections.singletonMap("body", body))
@@ -124,11 +213,13 @@ public class JiraController {
         String user = jiraUserDetails.read("$.name");
         return rest.post()
                 .uri(baseUrl + "/rest/api/2/issue/{issueKey}/watchers", issueKey)
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/2/issue/{issueKey}/watchers")
                 .header(AUTHORIZATION, jiraAuth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(String.format("\"%s\"", user))
                 .exchange()
-                .map(ClientResponse::statusCode);
+                // Read the (empty) body, so the connection and its bulkhead permit are released
+                .flatMap(response -> response.bodyToMono(Void.class).then(Mono.just(response.statusCode())));
     }
 
     private Mono<Card> getCardForIssue(String jiraAuth,
@@ -136,17 +227,17 @@ public class JiraController {
                                        String issueId,
                                        String routingPrefix,
                                        Locale locale,
-                                       HttpServletRequest request) {
-        return getIssue(jiraAuth, baseUrl, issueId)
+                                       HttpRequest request) {
+        return concurrencyLimiter.limit(baseUrl, getIssue(jiraAuth, baseUrl, issueId))
                 // if an issue is not found, we'll just not bother creating a card
                 .onErrorResume(Reactive::skipOnNotFound)
-                .flatMap(Reactive.wrapMapper(jiraResponse -> transformIssueResponse(jiraResponse,
+                .map(jiraResponse -> transformIssueResponse(jiraResponse,
                         baseUrl,
                         issueId,
                         routingPrefix,
                         locale,
-                        request)))
-                .doOnEach(Reactive.wrapForItem(card -> logger.debug("Created card. {} -> {}", issueId, card.getHeader().getTitle())));
+                        request))
+                .doOnNext(card -> logger.debug("Created card. {} -> {}", issueId, card.getHeader().getTitle()));
 
     }
 
@@ -154,9 +245,57 @@ public class JiraController {
         logger.debug("Getting info for Jira id: {} with Jira server: {}", issueId, baseUrl);
         return rest.get()
                 .uri(baseUrl + "/rest/api/2/issue/{issueId}", issueId)
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, "/rest/api/2/issue/{issueId}")
                 .header(AUTHORIZATION, jiraAuth)
+                .attribute(HedgingFilter.HEDGE, true)
+                .exchange()
+                .flatMap(Reactive::checkStatus)
+                // Only decode the fields the card is built from; the rest of the issue can be huge
+                .flatMap(response -> response.body(JsonDocumentExtractors.toJsonDocument(ISSUE_FIELDS)));
+    }
+
+    private Flux<Card> searchCards(String jiraAuth,
+                                   String baseUrl,
+                                   Set<String> issueIds,
+                                   String routingPrefix,
+                                   Locale locale,
+                                   HttpRequest request) {
+        // Sorted, so the same keys always make the same searches
+        List<String> issueKeys = new ArrayList<>(new TreeSet<>(issueIds));
+
+        return Flux.fromIterable(Lists.partition(issueKeys, MAX_KEYS_PER_SEARCH))
+                .flatMap(keys -> concurrencyLimiter.limit(baseUrl, searchIssues(jiraAuth, baseUrl, keys)))
+                .flatMapIterable(issues -> issues)
+                .map(issue -> transformIssueResponse(issue,
+                        baseUrl,
+                        issue.read("$.key"),
+                        routingPrefix,
+                        locale,
+                        request))
+                .doOnNext(card -> logger.debug("Created card. {}", card.getHeader().getTitle()));
+    }
+
+    private Mono<List<JsonDocument>> searchIssues(String jiraAuth, String baseUrl, List<String> issueKeys) {
+        logger.debug("Searching for Jira ids: {} with Jira server: {}", issueKeys, baseUrl);
+        String jql = issueKeys.stream()
+                .map(key -> '"' + key.replace("\\", "\\\\").replace("\"", "\\\"") + '"')
+                .collect(Collectors.joining(",", "key in (", ")"));
+        return rest.post()
+                .uri(baseUrl + "/rest/api/2/search")
+                .header(AUTHORIZATION, jiraAuth)
+                .contentType(APPLICATION_JSON)
+                .syncBody(ImmutableMap.of(
+                        "jql", jql,
+                        "fields", SEARCH_FIELDS,
+                        "maxResults", issueKeys.size(),
+                        // Keys that don't exist (or aren't visible) are left out, instead of failing the search
+                        "validateQuery", false
+                ))
                 .retrieve()
-                .bodyToMono(JsonDocument.class);
+                .bodyToMono(JsonDocument.class)
+                .map(results -> results.<List<Object>>read("$.issues[*]").stream()
+                        .map(issue -> new JsonDocument(issue, jsonConfiguration))
+                        .collect(Collectors.toList()));
     }
 
     private Card transformIssueResponse(JsonDocument jiraResponse,
@@ -164,34 +303,20 @@ public class JiraController {
                                         String issueId,
                                         String routingPrefix,
                                         Locale locale,
-                                        HttpServletRequest request) {
-        String issueKey = jiraResponse.read("$.key");
-        String summary = jiraResponse.read("$.fields.summary");
-        List<String> fixVersions = jiraResponse.read("$.fields.fixVersions[*].name");
-        List<String> components = jiraResponse.read("$.fields.components[*].name");
-        List<Map<String, Object>> allComments = jiraResponse.read("$.fields.comment.comments[*]['body', 'author']");
-        Collections.reverse(allComments);
+                                        HttpRequest request) {
+        JsonProjection.Result issue = jiraResponse.project(ISSUE_FIELDS);
+        String issueKey = issue.get("key");
+        String summary = issue.get("summary");
 
-        CardAction.Builder commentActionBuilder = getCommentActionBuilder(jiraResponse, routingPrefix, locale);
-        CardAction.Builder watchActionBuilder = getWatchActionBuilder(jiraResponse, routingPrefix, locale);
+        CardAction.Builder commentActionBuilder = getCommentActionBuilder(issue.get("id"), routingPrefix, locale);
+        CardAction.Builder watchActionBuilder = getWatchActionBuilder(issue.get("id"), routingPrefix, locale);
         CardAction.Builder openInActionBuilder = getOpenInActionBuilder(baseUrl, issueId, locale);
 
-        CardBody.Builder cardBodyBuilder = new CardBody.Builder()
-                .addField(buildGeneralBodyField("project", jiraResponse.read("$.fields.project.name"), locale))
-                .addField(buildGeneralBodyField("components", String.join(",", components),locale))
-                .addField(buildGeneralBodyField("priority", jiraResponse.read("$.fields.priority.name"), locale))
-                .addField(buildGeneralBodyField("status", jiraResponse.read("$.fields.status.name"), locale))
-                .addField(buildGeneralBodyField("resolution", jiraResponse.read("$.fields.resolution.name"), locale))
-                .addField(buildGeneralBodyField("assignee", jiraResponse.read("$.fields.assignee.displayName"), locale))
-                .addField(buildGeneralBodyField("fixVersions", String.join(",", fixVersions), locale));
-
-        addCommentsField(cardBodyBuilder, allComments, locale);
-
         final Card.Builder card = new Card.Builder()
                 .setName("Jira")
                 .setTemplate(routingPrefix + "templates/generic.hbs")
                 .setHeader(cardTextAccessor.getHeader(locale, summary), cardTextAccessor.getMessage("subtitle", locale, issueKey))
-                .setBody(cardBodyBuilder.build())
+                .setBody(buildCardBody(issue, locale))
                 .addAction(commentActionBuilder.build())
                 .addAction(openInActionBuilder.build())
                 .addAction(watchActionBuilder.build());
@@ -202,6 +327,26 @@ public class JiraController {
         return card.build();
     }
 
+    private CardBody buildCardBody(JsonProjection.Result issue, Locale locale) {
+        List<String> fixVersions = issue.get(FIX_VERSIONS);
+        List<String> components = issue.get(COMPONENTS);
+        List<Map<String, Object>> allComments = issue.get("comments");
+        Collections.reverse(allComments);
+
+        CardBody.Builder cardBodyBuilder = new CardBody.Builder()
+                .addField(buildGeneralBodyField(PROJECT, issue.get(PROJECT), locale))
+                .addField(buildGeneralBodyField(COMPONENTS, String.join(",", components),locale))
+                .addField(buildGeneralBodyField(PRIORITY, issue.get(PRIORITY), locale))
+                .addField(buildGeneralBodyField(STATUS, issue.get(STATUS), locale))
+                .addField(buildGeneralBodyField(RESOLUTION, issue.get(RESOLUTION), locale))
+                .addField(buildGeneralBodyField(ASSIGNEE, issue.get(ASSIGNEE), locale))
+                .addField(buildGeneralBodyField(FIX_VERSIONS, String.join(",", fixVersions), locale));
+
+        addCommentsField(cardBodyBuilder, allComments, locale);
+
+        return cardBodyBuilder.build();
+    }
+
     private CardBodyField buildGeneralBodyField(String titleMessageKey, String content, Locale locale) {
         if (StringUtils.isBlank(content)) {
             return null;
@@ -229,10 +374,10 @@ public class JiraController {
         }
     }
 
-    private CardAction.Builder getCommentActionBuilder(JsonDocument jiraResponse, String routingPrefix, Locale locale) {
+    private CardAction.Builder getCommentActionBuilder(String id, String routingPrefix, Locale locale) {
         CardAction.Builder actionBuilder = new CardAction.Builder();
         CardActionInputField.Builder inputFieldBuilder = new CardActionInputField.Builder();
-        String commentLink = "api/v1/issues/" + jiraResponse.read("$.id") + "/comment";
+        String commentLink = "api/v1/issues/" + id + "/comment";
         inputFieldBuilder.setId("body")
                 .setFormat("textarea")
                 .setLabel(cardTextAccessor.getMessage("actions.comment.prompt.label", locale));
@@ -246,10 +391,10 @@ public class JiraController {
         return actionBuilder;
     }
 
-    private CardAction.Builder getWatchActionBuilder(JsonDocument jiraResponse,
+    private CardAction.Builder getWatchActionBuilder(String id,
                                                      String routingPrefix, Locale locale) {
         CardAction.Builder actionBuilder = new CardAction.Builder();
-        String watchLink = "api/v1/issues/" + jiraResponse.read("$.id") + "/watchers";
+        String watchLink = "api/v1/issues/" + id + "/watchers";
         actionBuilder.setLabel(cardTextAccessor.getActionLabel("actions.watch", locale))
                 .setCompletedLabel(cardTextAccessor.getActionCompletedLabel("actions.watch", locale))
                 .setActionKey(CardActionKey.DIRECT)
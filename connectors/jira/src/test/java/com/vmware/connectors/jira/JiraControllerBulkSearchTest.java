@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.jira;
+
+import com.vmware.connectors.test.ControllerTestsBase;
+import com.vmware.connectors.test.JsonNormalizer;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.client.match.MockRestRequestMatchers;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.http.HttpMethod.POST;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withUnauthorizedRequest;
+import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
+
+/**
+ * Card requests with jira.connector.bulkSearch on: all the issues are
+ * fetched in one search, instead of one call per issue.
+ */
+@TestPropertySource(properties = "jira.connector.bulkSearch=true")
+class JiraControllerBulkSearchTest extends ControllerTestsBase {
+
+    @Test
+    void testRequestCardsInOneSearch() throws Exception {
+        // Any other call fails the test
+        mockBackend.expect(once(), requestTo("/rest/api/2/search"))
+                .andExpect(method(POST))
+                .andExpect(MockRestRequestMatchers.header(AUTHORIZATION, "Bearer abc"))
+                .andExpect(jsonPath("$.jql", is("key in (\"APF-27\",\"APF-28\")")))
+                .andExpect(jsonPath("$.fields", contains("summary", "fixVersions", "components", "comment",
+                        "project", "priority", "status", "resolution", "assignee")))
+                .andExpect(jsonPath("$.maxResults", is(2)))
+                .andExpect(jsonPath("$.validateQuery", is(false)))
+                .andRespond(withSuccess(searchResults("APF-27", "APF-28"), APPLICATION_JSON));
+
+        String body = requestCards("request.json")
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .returnResult(String.class)
+                .getResponseBody()
+                .collect(Collectors.joining())
+                .map(JsonNormalizer::forCards)
+                .map(json -> json.replaceAll("http://localhost:\\d+/", "https://jira.acme.com"))
+                .block();
+
+        assertThat(body, sameJSONAs(fromFile("connector/responses/success.json")).allowingAnyArrayOrdering());
+    }
+
+    @Test
+    void testRequestCardsOneNotFound() throws Exception {
+        // Jira leaves out the keys it doesn't know, instead of failing the search
+        mockBackend.expect(requestTo("/rest/api/2/search"))
+                .andExpect(jsonPath("$.jql", is("key in (\"APF-27\",\"BOGUS-999\")")))
+                .andRespond(withSuccess(searchResults("APF-27"), APPLICATION_JSON));
+
+        String body = requestCards("oneCardNotFound.json")
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody()
+                .collect(Collectors.joining())
+                .map(JsonNormalizer::forCards)
+                .map(json -> json.replaceAll("http://localhost:\\d+/", "https://jira.acme.com"))
+                .block();
+
+        assertThat(body, sameJSONAs(fromFile("connector/responses/APF-27.json")));
+    }
+
+    @Test
+    void testRequestCardsNotAuthorized() throws Exception {
+        mockBackend.expect(requestTo("/rest/api/2/search"))
+                .andRespond(withUnauthorizedRequest());
+
+        requestCards("request.json")
+                .expectStatus().isBadRequest()
+                .expectHeader().valueEquals("X-Backend-Status", "401");
+    }
+
+    private String searchResults(String... issueKeys) throws IOException {
+        StringBuilder issues = new StringBuilder();
+        for (String issueKey : issueKeys) {
+            if (issues.length() > 0) {
+                issues.append(',');
+            }
+            issues.append(fromFile("/jira/responses/" + issueKey + ".json"));
+        }
+        return "{\"startAt\":0,\"maxResults\":" + issueKeys.length + ",\"total\":" + issueKeys.length
+                + ",\"issues\":[" + issues + "]}";
+    }
+
+    private WebTestClient.ResponseSpec requestCards(String requestFile) throws IOException {
+        return webClient.post()
+                .uri("/cards/requests")
+                .header(AUTHORIZATION, "Bearer " + accessToken())
+                .contentType(APPLICATION_JSON)
+                .accept(APPLICATION_JSON)
+                .headers(ControllerTestsBase::headers)
+                .header("x-jira-authorization", "Bearer abc")
+                .header("x-jira-base-url", mockBackend.url(""))
+                .header("x-routing-prefix", "https://hero/connectors/jira/")
+                .syncBody(fromFile("/jira/requests/" + requestFile))
+                .exchange();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.jira;
+
+import com.vmware.connectors.test.ControllerTestsBase;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.http.HttpStatus.NOT_ACCEPTABLE;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM;
+
+/**
+ * Card streams are a servlet stack feature; on Netty and WebFlux they're
+ * refused before any issue is fetched.
+ */
+@TestPropertySource(properties = "spring.main.web-application-type=reactive")
+class JiraControllerReactiveStreamTest extends ControllerTestsBase {
+
+    @Test
+    void testStreamNotAcceptable() throws Exception {
+        // No backend calls are expected
+        requestCards(MediaType.valueOf("application/x-ndjson"));
+        requestCards(TEXT_EVENT_STREAM);
+    }
+
+    private void requestCards(MediaType accept) throws Exception {
+        webClient.post()
+                .uri("/cards/requests")
+                .header(AUTHORIZATION, "Bearer " + accessToken())
+                .contentType(APPLICATION_JSON)
+                .accept(accept)
+                .headers(ControllerTestsBase::headers)
+                .header("x-jira-authorization", "Bearer abc")
+                .header("x-jira-base-url", mockBackend.url(""))
+                .header("x-routing-prefix", "https://hero/connectors/jira/")
+                .syncBody(fromFile("/jira/requests/request.json"))
+                .exchange()
+                .expectStatus().isEqualTo(NOT_ACCEPTABLE);
+    }
+}
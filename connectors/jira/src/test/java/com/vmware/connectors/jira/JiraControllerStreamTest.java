@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.jira;
+
+import com.vmware.connectors.test.ControllerTestsBase;
+import com.vmware.connectors.test.JsonNormalizer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.ResponseActions;
+import org.springframework.test.web.client.match.MockRestRequestMatchers;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.MediaType.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
+
+/**
+ * Card requests that ask for the cards to be streamed, as NDJSON or
+ * server-sent events.
+ */
+class JiraControllerStreamTest extends ControllerTestsBase {
+
+    private static final MediaType NDJSON = MediaType.valueOf("application/x-ndjson");
+
+    @Value("classpath:jira/responses/APF-27.json")
+    private Resource apf27;
+
+    @Value("classpath:jira/responses/APF-28.json")
+    private Resource apf28;
+
+    @Test
+    void testStreamCardsAsNdjson() throws Exception {
+        expectIssues();
+
+        String body = requestCards("request.json", NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(NDJSON)
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        // One card per line
+        List<String> lines = Arrays.asList(body.split("\n"));
+        assertThat(lines.size(), is(2));
+        assertThat(asCards(lines), sameJSONAs(fromFile("connector/responses/success.json")).allowingAnyArrayOrdering());
+    }
+
+    @Test
+    void testStreamCardsAsEvents() throws Exception {
+        expectIssues();
+
+        String body = requestCards("request.json", TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(TEXT_EVENT_STREAM)
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(field(body, "event:"), contains("card", "card"));
+        assertThat(asCards(field(body, "data:")), sameJSONAs(fromFile("connector/responses/success.json")).allowingAnyArrayOrdering());
+    }
+
+    @Test
+    void testStreamMarkedPartialAtTheDeadline() throws Exception {
+        // The deadline passes before any issue is fetched
+        String body = requestCards("request.json", NDJSON)
+                .header("X-Request-Deadline", "1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(body, is("{\"partial\":true}\n"));
+    }
+
+    @Test
+    void testEventStreamMarkedPartialAtTheDeadline() throws Exception {
+        String body = requestCards("request.json", TEXT_EVENT_STREAM)
+                .header("X-Request-Deadline", "1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(field(body, "event:"), contains("partial"));
+    }
+
+    @Test
+    void testStreamRequestValidatedBeforeStreaming() throws Exception {
+        requestCards("emptyRequest.json", NDJSON)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .expectBody().json(fromFile("connector/responses/emptyRequest.json"));
+    }
+
+    @Test
+    void testAnyAcceptGetsCardsDocument() throws Exception {
+        expectIssues();
+
+        String body = requestCards("request.json", ALL)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .returnResult(String.class)
+                .getResponseBody()
+                .collect(Collectors.joining())
+                .map(JsonNormalizer::forCards)
+                .map(json -> json.replaceAll("http://localhost:\\d+/", "https://jira.acme.com"))
+                .block();
+
+        assertThat(body, sameJSONAs(fromFile("connector/responses/success.json")).allowingAnyArrayOrdering());
+    }
+
+    private void expectIssues() {
+        expect("APF-27").andRespond(withSuccess(apf27, APPLICATION_JSON));
+        expect("APF-28").andRespond(withSuccess(apf28, APPLICATION_JSON));
+    }
+
+    private ResponseActions expect(String issue) {
+        return mockBackend.expect(requestTo("/rest/api/2/issue/" + issue))
+                .andExpect(method(GET))
+                .andExpect(MockRestRequestMatchers.header(AUTHORIZATION, "Bearer abc"));
+    }
+
+    /*
+     * The values of the lines that start with the given field name.
+     */
+    private static List<String> field(String events, String name) {
+        List<String> values = new ArrayList<>();
+        for (String line : events.split("\n")) {
+            if (line.startsWith(name)) {
+                values.add(line.substring(name.length()));
+            }
+        }
+        return values;
+    }
+
+    // The streamed cards, as the Cards document they'd have been collected into
+    private static String asCards(List<String> cards) {
+        return JsonNormalizer.forCards("{\"cards\":[" + String.join(",", cards) + "]}")
+                .replaceAll("http://localhost:\\d+/", "https://jira.acme.com");
+    }
+
+    private WebTestClient.RequestHeadersSpec<?> requestCards(String requestFile, MediaType accept) throws IOException {
+        return webClient.post()
+                .uri("/cards/requests")
+                .header(AUTHORIZATION, "Bearer " + accessToken())
+                .contentType(APPLICATION_JSON)
+                .accept(accept)
+                .headers(ControllerTestsBase::headers)
+                .header("x-jira-authorization", "Bearer abc")
+                .header("x-jira-base-url", mockBackend.url(""))
+                .header("x-routing-prefix", "https://hero/connectors/jira/")
+                .syncBody(fromFile("/jira/requests/" + requestFile));
+    }
+}
@@ -212,6 +212,21 @@ class JiraControllerTest extends ControllerTestsBase {
         assertThat(body,  sameJSONAs(fromFile("connector/responses/APF-27.json")));
     }
 
+    @Test
+    void testRequestCardsServerTiming() throws Exception {
+        expect("APF-27").andRespond(withSuccess(apf27, APPLICATION_JSON));
+        expect("BOGUS-999").andRespond(withStatus(NOT_FOUND));
+
+        requestCards("abc", "oneCardNotFound.json")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueMatches("Server-Timing",
+                        "auth;dur=[0-9.]+, " +
+                        "backend;desc=\"GET /rest/api/2/issue/\\{[a-zA-Z]+\\}\";dur=[0-9.]+, " +
+                        "backend;desc=\"GET /rest/api/2/issue/\\{[a-zA-Z]+\\}\";dur=[0-9.]+, " +
+                        "cards;dur=[0-9.]+");
+    }
+
     @Test
     void testRequestCardsOneServerError() throws Exception {
         expect("POISON-PILL").andRespond(withServerError());
@@ -6,9 +6,9 @@
 package com.vmware.connectors.salesforce;
 
 import com.google.common.collect.ImmutableMap;
-import com.jayway.jsonpath.DocumentContext;
-import com.jayway.jsonpath.JsonPath;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
 import com.vmware.connectors.common.json.JsonDocument;
+import com.vmware.connectors.common.json.JsonProjection;
 import com.vmware.connectors.common.model.Message;
 import com.vmware.connectors.common.model.MessageThread;
 import com.vmware.connectors.common.model.UserRecord;
@@ -17,21 +17,23 @@ import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.CommonUtils;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.Base64Utils;
 import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.io.IOException;
 import java.net.URI;
@@ -80,6 +82,20 @@ public class SalesforceController {
             "Account.name, Account.Owner.Name, FORMAT(Opportunity.amount), FORMAT(Opportunity.ExpectedRevenue), (SELECT User.Email from OpportunityTeamMembers), " +
             "(SELECT InsertedBy.Name, Body from Feeds) FROM opportunity WHERE opportunity.id IN ('%s')";
 
+    // Everything an Opportunity card needs from one record of the above query.
+    private static final JsonProjection OPPORTUNITY_FIELDS = new JsonProjection.Builder()
+            .path("id", "$.Id")
+            .path("name", "$.Name")
+            .path("accountName", "$.Account.Name")
+            .path("accountOwner", "$.Account.Owner.Name")
+            .path("closeDate", "$.CloseDate")
+            .path("stage", "$.StageName")
+            .path("amount", "$.Amount")
+            .path("expectedRevenue", "$.ExpectedRevenue")
+            .path("teamEmails", "$.OpportunityTeamMembers.records[*].User.Email")
+            .path("feedComments", "$.Feeds.records[*]")
+            .build();
+
     // Query format to get list of all opportunities that are related to an account.
     private static final String QUERY_FMT_ACCOUNT_OPPORTUNITY =
             "SELECT id, name FROM opportunity WHERE account.id = '%s'";
@@ -137,17 +153,18 @@ public class SalesforceController {
     ///////////////////////////////////////////////////////////////////
 
     /**
-     * Retrieve contact data from Salesforce.
+     * Run a SOQL query in Salesforce.
      *
-     * @param contactSoql - Specify the SOQL to run
+     * @param soql - Specify the SOQL to run
      */
-    private Mono<JsonDocument> retrieveContacts(
+    private Mono<JsonDocument> query(
             String auth,
             String baseUrl,
-            String contactSoql
+            String soql
     ) {
         return rest.get()
-                .uri(makeSoqlQueryUri(baseUrl, contactSoql))
+                .uri(makeSoqlQueryUri(baseUrl, soql))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, uriTemplate(sfSoqlQueryPath))
                 .header(AUTHORIZATION, auth)
                 .retrieve()
                 .bodyToMono(JsonDocument.class);
@@ -174,6 +191,14 @@ public class SalesforceController {
                 .toUri();
     }
 
+    /*
+     * The configured paths have the API version in them (v39.0), which the
+     * backend metrics would otherwise take for an ID.
+     */
+    private static String uriTemplate(String path) {
+        return StringUtils.prependIfMissing(path, "/");
+    }
+
     private URI buildUri(final String baseUrl,
                          final String path,
                          final String opportunityId) {
@@ -188,10 +213,10 @@ public class SalesforceController {
     // Cards request methods
     ///////////////////////////////////////////////////////////////////
 
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
     @PostMapping(
             path = "/cards/requests",
-            consumes = APPLICATION_JSON_VALUE,
-            produces = APPLICATION_JSON_VALUE
+            consumes = APPLICATION_JSON_VALUE
     )
     public Mono<ResponseEntity<Cards>> getCards(
             @RequestHeader(SALESFORCE_AUTH_HEADER) String auth,
@@ -199,7 +224,7 @@ public class SalesforceController {
             @RequestHeader(ROUTING_PREFIX) String routingPrefix,
             Locale locale,
             @Valid @RequestBody CardRequest cardRequest,
-            final HttpServletRequest request
+            final HttpRequest request
     ) {
         // Sender email and user email are required, and sender email has to at least have a non-final @ in it
         String sender = cardRequest.getTokenSingleValue("sender_email");
@@ -207,19 +232,64 @@ public class SalesforceController {
         logger.debug("Sender email: {} and User email: {} for Salesforce server: {} ", sender, user, baseUrl);
 
         String senderDomain = '@' + StringUtils.substringAfterLast(sender, "@");
+        if (!isValidCardRequest(senderDomain, user, baseUrl)) {
+            return Mono.just(new ResponseEntity<>(BAD_REQUEST));
+        }
+
+        return cards(auth, baseUrl, routingPrefix, sender, user, senderDomain, locale, request)
+                .as(Reactive::collectCards)
+                .map(ResponseEntity::ok)
+                .subscriberContext(Reactive.setupContext());
+    }
+
+    @PostMapping(
+            path = "/cards/requests",
+            consumes = APPLICATION_JSON_VALUE,
+            produces = {CardStreams.NDJSON_VALUE, TEXT_EVENT_STREAM_VALUE}
+    )
+    public ResponseEntity<ResponseBodyEmitter> streamCards(
+            @RequestHeader(SALESFORCE_AUTH_HEADER) String auth,
+            @RequestHeader(SALESFORCE_BASE_URL_HEADER) String baseUrl,
+            @RequestHeader(ROUTING_PREFIX) String routingPrefix,
+            Locale locale,
+            @Valid @RequestBody CardRequest cardRequest,
+            final HttpRequest request
+    ) {
+        String sender = cardRequest.getTokenSingleValue("sender_email");
+        String user = cardRequest.getTokenSingleValue("user_email");
+        logger.debug("Streaming cards for sender email: {} and User email: {} for Salesforce server: {} ", sender, user, baseUrl);
+
+        String senderDomain = '@' + StringUtils.substringAfterLast(sender, "@");
+        if (!isValidCardRequest(senderDomain, user, baseUrl)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok(CardStreams.stream(
+                () -> cards(auth, baseUrl, routingPrefix, sender, user, senderDomain, locale, request), request));
+    }
+
+    private boolean isValidCardRequest(String senderDomain, String user, String baseUrl) {
         // TODO: implement a better system of validating domain names than "yup, it's not empty"
         if (StringUtils.isBlank(senderDomain) || StringUtils.isBlank(user)) {
             logger.warn("Either sender email or user email is blank for url: {}", baseUrl);
-            return Mono.just(new ResponseEntity<>(BAD_REQUEST));
+            return false;
         }
+        return true;
+    }
 
+    private Flux<Card> cards(
+            String auth,
+            String baseUrl,
+            String routingPrefix,
+            String sender,
+            String user,
+            String senderDomain,
+            Locale locale,
+            HttpRequest request
+    ) {
         return retrieveContactInfos(auth, baseUrl, sender)
                 .flatMapMany(contacts -> getCards(contacts, sender, baseUrl, routingPrefix, auth,
-                        user, senderDomain, locale, request))
-                .collectList()
-                .map(this::toCards)
-                .map(ResponseEntity::ok)
-                .subscriberContext(Reactive.setupContext());
+                        user, senderDomain, locale, request));
     }
 
     // Retrieve contact name, account name, and phone
@@ -230,7 +300,7 @@ public class SalesforceController {
     ) {
         String contactSoql = String.format(QUERY_FMT_CONTACT, senderEmail);
 
-        return retrieveContacts(auth, baseUrl, contactSoql);
+        return query(auth, baseUrl, contactSoql);
     }
 
 
@@ -243,7 +313,7 @@ public class SalesforceController {
             String userEmail,
             String senderDomain,
             Locale locale,
-            HttpServletRequest request
+            HttpRequest request
     ) {
         int contactsSize = contactDetails.read("$.totalSize");
         if (contactsSize > 0) {
@@ -266,7 +336,7 @@ public class SalesforceController {
                                          String auth,
                                          String routingPrefix,
                                          Locale locale,
-                                         HttpServletRequest request,
+                                         HttpRequest request,
                                          String userEmail) {
 
         Flux<Card> userDetailCard = Flux.just(createUserDetailsCard(contactDetails, routingPrefix, locale, request));
@@ -288,56 +358,46 @@ public class SalesforceController {
     private Mono<JsonDocument> retrieveOppIds(String senderEmail,
                                               String baseUrl,
                                               String auth) {
-        String soql = String.format(QUERY_FMT_CONTACT_OPPORTUNITY, senderEmail);
-        return rest.get()
-                .uri(makeSoqlQueryUri(baseUrl, soql))
-                .header(AUTHORIZATION, auth)
-                .retrieve()
-                .bodyToMono(JsonDocument.class);
+        return query(auth, baseUrl, String.format(QUERY_FMT_CONTACT_OPPORTUNITY, senderEmail));
     }
 
     private Mono<JsonDocument> retrieveOpportunities(List<String> oppIds, String baseUrl, String auth) {
         String idsFormat = oppIds.stream().collect(Collectors.joining("', '"));
 
-        String soql = String.format(QUERY_FMT_OPPORTUNITY_INFO, idsFormat);
-        return rest.get()
-                .uri(makeSoqlQueryUri(baseUrl, soql))
-                .header(AUTHORIZATION, auth)
-                .retrieve()
-                .bodyToMono(JsonDocument.class);
+        return query(auth, baseUrl, String.format(QUERY_FMT_OPPORTUNITY_INFO, idsFormat));
     }
 
     private Flux<Card> createOpportunityCards(JsonDocument opportunities,
                                               String routingPrefix,
                                               Locale locale,
-                                              HttpServletRequest request,
+                                              HttpRequest request,
                                               String userEmail) {
 
-        final int oppCount = opportunities.read("$.totalSize");
+        final List<Object> records = opportunities.read("$.records");
 
         List<Card> oppCards = new ArrayList<>();
-        for (int oppIndex = 0; oppIndex < oppCount; oppIndex++) {
+        for (Object record : records) {
 
-            final String prefix = String.format("$.records[%d]", oppIndex);
+            final JsonProjection.Result opportunity = new JsonDocument(record).project(OPPORTUNITY_FIELDS);
 
-            final String name = opportunities.read(prefix + ".Name");
+            final String name = opportunity.get("name");
 
-            final List<Object> feedComments = opportunities.read(prefix + ".Feeds.records[*]");
+            final List<Object> feedComments = opportunity.get("feedComments");
 
             final CardBody.Builder cardBodyBuilder = new CardBody.Builder()
                     .setDescription(cardTextAccessor.getMessage("opportunity.description", locale))
                     .addField(buildGeneralBodyField("opportunity.account",
-                            opportunities.read(prefix + ".Account.Name"), locale))
+                            opportunity.get("accountName"), locale))
                     .addField(buildGeneralBodyField("opportunity.account.owner",
-                            opportunities.read(prefix + ".Account.Owner.Name"), locale))
+                            opportunity.get("accountOwner"), locale))
                     .addField(buildGeneralBodyField("opportunity.closedate",
-                            opportunities.read(prefix + ".CloseDate"), locale))
+                            opportunity.get("closeDate"), locale))
                     .addField(buildGeneralBodyField("opportunity.stage",
-                            opportunities.read(prefix + ".StageName"), locale))
+                            opportunity.get("stage"), locale))
                     .addField(buildGeneralBodyField("opportunity.amount",
-                            opportunities.read(prefix + ".Amount"), locale))
+                            opportunity.get("amount"), locale))
                     .addField(buildGeneralBodyField("opportunity.expected.revenue",
-                            opportunities.read(prefix + ".ExpectedRevenue"), locale));
+                            opportunity.get("expectedRevenue"), locale));
 
             addCommentsField(cardBodyBuilder, feedComments, locale);
 
@@ -348,7 +408,7 @@ public class SalesforceController {
                     .setBody(cardBodyBuilder.build());
 
             // Add card action for updating next steps and close date if user email is a part of opportunity team.
-            buildCardActions(opportunities, userEmail, prefix, routingPrefix, locale, card);
+            buildCardActions(opportunity, userEmail, routingPrefix, locale, card);
 
             // Set image url.
             CommonUtils.buildConnectorImageUrl(card, request);
@@ -358,20 +418,19 @@ public class SalesforceController {
         return Flux.fromIterable(oppCards);
     }
 
-    private void buildCardActions(final JsonDocument opportunities,
+    private void buildCardActions(final JsonProjection.Result opportunity,
                                   final String userEmail,
-                                  final String prefix,
                                   final String routingPrefix,
                                   final Locale locale,
                                   final Card.Builder card) {
-        final String opportunityId = opportunities.read(prefix + ".Id");
+        final String opportunityId = opportunity.get("id");
         if (StringUtils.isBlank(opportunityId)) {
             logger.debug("Opportunity id is empty for the user with email: {}.", userEmail);
             return;
         }
 
         // Retrieve all the opportunity team members email id.
-        final List<String> opportunityTeamEmailIds = opportunities.read(prefix + ".OpportunityTeamMembers.records[*].User.Email");
+        final List<String> opportunityTeamEmailIds = opportunity.get("teamEmails");
         if (CollectionUtils.isEmpty(opportunityTeamEmailIds)) {
             logger.debug("Opportunity team member email ids are empty for the opportunity with ID: {}", opportunityId);
             return;
@@ -445,7 +504,7 @@ public class SalesforceController {
             JsonDocument contactDetails,
             String routingPrefix,
             Locale locale,
-            HttpServletRequest request
+            HttpRequest request
     ) {
         String contactName = contactDetails.read("$.records[0].Name");
         String contactPhNo = contactDetails.read("$.records[0].MobilePhone");
@@ -506,12 +565,7 @@ public class SalesforceController {
             String userEmail,
             String senderDomain
     ) {
-        String soql = String.format(QUERY_FMT_ACCOUNT, senderDomain, userEmail);
-        return rest.get()
-                .uri(makeSoqlQueryUri(baseUrl, soql))
-                .header(AUTHORIZATION, auth)
-                .retrieve()
-                .bodyToMono(JsonDocument.class);
+        return query(auth, baseUrl, String.format(QUERY_FMT_ACCOUNT, senderDomain, userEmail));
     }
 
     /**
@@ -527,12 +581,12 @@ public class SalesforceController {
         Set<SFAccount> accountsWithExistingContact = new HashSet<>();
 
         for (Map<String, Object> acctRecord : contactRecords) {
-            // Get a reusable context for JsonPath parsing
-            DocumentContext ctx = JsonPath.parse(acctRecord);
+            // Wrap the record for JsonPath reads
+            JsonDocument ctx = new JsonDocument(acctRecord);
 
             // Create an object for the Account to which this Contact belongs
-            String acctId = ctx.read("$.Account.Id", String.class);
-            String acctName = ctx.read("$.Account.Name", String.class);
+            String acctId = ctx.read("$.Account.Id");
+            String acctName = ctx.read("$.Account.Name");
             SFAccount acct = new SFAccount(acctId, acctName);
 
             // Add the Account to the set of all Accounts - this is how we filter out duplicate Accounts
@@ -540,7 +594,7 @@ public class SalesforceController {
 
             // If the Contact has the same email address as the sender, then we don't want to prompt the user to add
             // the sender as a new Contact, so we keep a separate Set of those accounts
-            String contactEmail = ctx.read("$.Email", String.class);
+            String contactEmail = ctx.read("$.Email");
             if (senderEmail.equalsIgnoreCase(contactEmail)) {
                 accountsWithExistingContact.add(acct);
             }
@@ -579,13 +633,7 @@ public class SalesforceController {
             String baseUrl,
             String accountId
     ) {
-        String soql = String.format(QUERY_FMT_ACCOUNT_OPPORTUNITY, accountId);
-        return rest.get()
-                .uri(makeSoqlQueryUri(baseUrl, soql))
-                .header(AUTHORIZATION, auth)
-                .retrieve()
-                .bodyToMono(JsonDocument.class);
-
+        return query(auth, baseUrl, String.format(QUERY_FMT_ACCOUNT_OPPORTUNITY, accountId));
     }
 
     private SFAccount setAccOpportunities(
@@ -596,7 +644,7 @@ public class SalesforceController {
                 account,
                 accOpportunityResponse.<List<Object>>read("$.records")
                         .stream()
-                        .map(JsonPath::parse)
+                        .map(JsonDocument::new)
                         .map(ctx -> new SFOpportunity(ctx.read("$.Id"), ctx.read("$.Name")))
                         .collect(Collectors.toList())
         );
@@ -676,12 +724,6 @@ public class SalesforceController {
         }
     }
 
-    private Cards toCards(List<Card> cards) {
-        Cards c = new Cards();
-        c.getCards().addAll(cards);
-        return c;
-    }
-
     ///////////////////////////////////////////////////////////////////
     // Add Contact Action methods
     ///////////////////////////////////////////////////////////////////
@@ -732,6 +774,7 @@ public class SalesforceController {
 
         return rest.post()
                 .uri(makeUri(baseUrl, sfAddContactPath))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, uriTemplate(sfAddContactPath))
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(body)
@@ -772,6 +815,7 @@ public class SalesforceController {
 
         return rest.post()
                 .uri(makeUri(baseUrl, sfOpportunityContactLinkPath))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, uriTemplate(sfOpportunityContactLinkPath))
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(body)
@@ -866,7 +910,7 @@ public class SalesforceController {
     ) {
         String contactIdSoql = String.format(QUERY_FMT_CONTACT_ID, contactEmail, userEmail);
 
-        return retrieveContacts(auth, baseUrl, contactIdSoql);
+        return query(auth, baseUrl, contactIdSoql);
     }
 
     private Mono<Void> linkContactIdToOpportunity(
@@ -917,6 +961,7 @@ public class SalesforceController {
         );
         return rest.post()
                 .uri(makeUri(baseUrl, sfOpportunityTaskLinkPath))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, uriTemplate(sfOpportunityTaskLinkPath))
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(body)
@@ -941,6 +986,7 @@ public class SalesforceController {
         );
         return rest.post()
                 .uri(makeUri(baseUrl, sfAttachmentTasklinkPath))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, uriTemplate(sfAttachmentTasklinkPath))
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(body)
@@ -986,6 +1032,7 @@ public class SalesforceController {
                                               final Object body) {
         return rest.patch()
                 .uri(buildUri(baseUrl, sfOpportunityFieldsUpdatePath, opportunityId))
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, uriTemplate(sfOpportunityFieldsUpdatePath + "{opportunityId}"))
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(body)
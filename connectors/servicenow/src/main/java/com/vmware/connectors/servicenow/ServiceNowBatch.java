@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.servicenow;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
+import com.vmware.connectors.common.json.JsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+
+/**
+ * Sends independent GETs to ServiceNow together, in one call to its Batch
+ * API (POST /api/now/v1/batch), so they cost one round trip instead of one
+ * each. The serviced responses come back with base64 encoded bodies, which
+ * are decoded into a {@link JsonDocument} per request.
+ * <p>
+ * If ServiceNow answers any of them with an error, the batch fails with a
+ * {@link WebClientResponseException} for it, like the GET alone would have.
+ */
+class ServiceNowBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServiceNowBatch.class);
+
+    private static final String BATCH_PATH = "/api/now/v1/batch";
+
+    private static final int MIN_ERROR_STATUS = 400;
+
+    private static final List<Map<String, String>> JSON_HEADERS = ImmutableList.of(
+            ImmutableMap.of("name", HttpHeaders.ACCEPT, "value", APPLICATION_JSON_VALUE)
+    );
+
+    private final WebClient rest;
+    private final JsonProvider jsonProvider;
+    private final Configuration configuration;
+
+    ServiceNowBatch(WebClient rest, JsonProvider jsonProvider) {
+        this.rest = rest;
+        this.jsonProvider = jsonProvider;
+        this.configuration = JsonDocument.configurationFor(jsonProvider);
+    }
+
+    /**
+     * @param baseUrl the ServiceNow instance's URL
+     * @param auth    the ServiceNow authorization header
+     * @param gets    the GETs to send, by ID, as URLs relative to the instance (e.g. /api/now/table/sc_request?...)
+     * @return each GET's response, by ID
+     */
+    Mono<Map<String, JsonDocument>> get(String baseUrl, String auth, Map<String, String> gets) {
+        logger.trace("get called: baseUrl={}, gets={}", baseUrl, gets);
+
+        List<Map<String, Object>> restRequests = gets.entrySet().stream()
+                .map(get -> ImmutableMap.<String, Object>of(
+                        "id", get.getKey(),
+                        "method", "GET",
+                        "url", get.getValue(),
+                        "headers", JSON_HEADERS
+                ))
+                .collect(Collectors.toList());
+
+        return rest.post()
+                .uri(UriComponentsBuilder.fromHttpUrl(baseUrl).path(BATCH_PATH).build().encode().toUri())
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, BATCH_PATH)
+                .header(AUTHORIZATION, auth)
+                .contentType(APPLICATION_JSON)
+                .syncBody(ImmutableMap.of(
+                        "batch_request_id", UUID.randomUUID().toString(),
+                        "rest_requests", restRequests
+                ))
+                .retrieve()
+                .bodyToMono(JsonDocument.class)
+                .map(batchResponse -> demultiplex(batchResponse, gets.keySet()));
+    }
+
+    private Map<String, JsonDocument> demultiplex(JsonDocument batchResponse, Set<String> ids) {
+        List<Map<String, Object>> unserviced = batchResponse.read("$.unserviced_requests[*]");
+        if (unserviced != null && !unserviced.isEmpty()) {
+            throw new IllegalStateException("ServiceNow didn't service batched requests " + unserviced);
+        }
+
+        Map<String, JsonDocument> responses = new HashMap<>();
+        for (Map<String, Object> serviced : batchResponse.<List<Map<String, Object>>>read("$.serviced_requests[*]")) {
+            responses.put((String) serviced.get("id"), decode(serviced));
+        }
+        if (!responses.keySet().containsAll(ids)) {
+            throw new IllegalStateException("ServiceNow left out batched requests, answering only " + responses.keySet());
+        }
+        return responses;
+    }
+
+    private JsonDocument decode(Map<String, Object> serviced) {
+        int status = ((Number) serviced.get("status_code")).intValue();
+        byte[] body = Base64.getDecoder().decode((String) serviced.get("body"));
+        if (status >= MIN_ERROR_STATUS) {
+            throw new WebClientResponseException(
+                    "ServiceNow batched request " + serviced.get("id") + " failed",
+                    status, (String) serviced.get("status_text"), new HttpHeaders(), body, UTF_8);
+        }
+        return new JsonDocument(jsonProvider.parse(new String(body, UTF_8)), configuration);
+    }
+}
@@ -6,28 +6,37 @@
 package com.vmware.connectors.servicenow;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import com.vmware.connectors.common.http.BackendMetricsFilter;
 import com.vmware.connectors.common.json.JsonDocument;
 import com.vmware.connectors.common.payloads.request.CardRequest;
 import com.vmware.connectors.common.payloads.response.*;
 import com.vmware.connectors.common.utils.CardTextAccessor;
 import com.vmware.connectors.common.utils.CommonUtils;
 import com.vmware.connectors.common.utils.Reactive;
+import com.vmware.connectors.common.web.CardStreams;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.util.*;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static com.vmware.connectors.common.utils.CommonUtils.APPROVAL_ACTIONS;
@@ -65,34 +74,85 @@ public class ServiceNowController {
     private static final String SNOW_SYS_PARAM_LIMIT = "sysparm_limit";
 
     /**
-     * The maximum approval requests to fetch from ServiceNow.  Since we have
-     * to filter results out based on the ticket_id param passed in by the
-     * client, this has to be sufficiently large to not lose results.
-     *
-     * I wasn't able to find a REST call that would allow me to bulk lookup the
-     * approval requests (or requests) by multiple request numbers
-     * (ex. REQ0010001,REQ0010002,REQ0010003), so I'm forced to do things a
-     * little less ideal than I would like (calling 1x per result of the
-     * sysapproval_approver call to be able to match it to the request numbers
-     * passed in by the client).
+     * The query param to filter the results of your ServiceNow REST calls
+     * with an encoded query, e.g. sys_idINabc,def.
+     */
+    private static final String SNOW_SYS_PARAM_QUERY = "sysparm_query";
+
+    /**
+     * Where the Table API reads a table, followed by its name.
+     */
+    private static final String TABLE_API = "/api/now/table/";
+
+    /**
+     * The rows of a Table API response.
+     */
+    private static final String RESULTS = "$.result[*]";
+
+    /**
+     * The maximum approval requests to fetch from ServiceNow.  Unless the
+     * approvals are filtered by request number in the query, we have to
+     * filter results out based on the ticket_id param passed in by the
+     * client, so this has to be sufficiently large to not lose results.
      */
     private static final int MAX_APPROVAL_RESULTS = 10000;
 
+    /**
+     * The most sys_ids looked up in one sysparm_query (sys_idIN... or
+     * requestIN...), to keep the URL to a length ServiceNow accepts.  The
+     * requests and requested items of all the approvals are fetched in as
+     * few calls as this allows, instead of one per approval.
+     */
+    private static final int MAX_SYS_IDS_PER_QUERY = 100;
+
+    /**
+     * What a request number looks like (the discovery regex's).  The numbers
+     * go into sysparm_query as they are, where a '^' or ',' in one would add
+     * conditions or numbers of its own, so nothing else is let through.
+     */
+    private static final Pattern REQUEST_NUMBER = Pattern.compile("REQ[0-9]{7}");
+
     private final WebClient rest;
     private final CardTextAccessor cardTextAccessor;
+    private final boolean filterApprovalsByNumber;
+    private final boolean batch;
+    private final ServiceNowBatch batchApi;
+    private final UserSysIdCache userSysIds;
 
+    /**
+     * @param filterApprovalsByNumber if true (the default), only the approvals
+     *                                of the requests whose numbers are in the
+     *                                card request are asked for (with a
+     *                                dot-walked sysapproval.numberIN... query),
+     *                                instead of all the user's pending
+     *                                approvals
+     * @param batch                   if true, the approvals, requests and
+     *                                requested items are all read by ticket
+     *                                number, in one call to ServiceNow's Batch
+     *                                API, instead of one after the other; for
+     *                                instances a high latency link away
+     * @param userSysIds              the sys_ids users' emails resolved to
+     */
     @Autowired
     public ServiceNowController(
             WebClient rest,
-            CardTextAccessor cardTextAccessor
+            CardTextAccessor cardTextAccessor,
+            JsonProvider jsonProvider,
+            @Value("${servicenow.connector.filterApprovalsByNumber:true}") boolean filterApprovalsByNumber,
+            @Value("${servicenow.connector.batch:false}") boolean batch,
+            UserSysIdCache userSysIds
     ) {
         this.rest = rest;
         this.cardTextAccessor = cardTextAccessor;
+        this.filterApprovalsByNumber = filterApprovalsByNumber;
+        this.batch = batch;
+        this.batchApi = new ServiceNowBatch(rest, jsonProvider);
+        this.userSysIds = userSysIds;
     }
 
+    // No produces: JSON stays the answer for any Accept that doesn't ask for a stream, */* included
     @PostMapping(
             path = "/cards/requests",
-            produces = MediaType.APPLICATION_JSON_VALUE,
             consumes = MediaType.APPLICATION_JSON_VALUE
     )
     public Mono<Cards> getCards(
@@ -101,33 +161,182 @@ public class ServiceNowController {
             @RequestHeader(ROUTING_PREFIX) String routingPrefix,
             Locale locale,
             @Valid @RequestBody CardRequest cardRequest,
-            final HttpServletRequest request
+            final HttpRequest request
     ) {
         logger.trace("getCards called, baseUrl={}, routingPrefix={}, request={}", baseUrl, routingPrefix, cardRequest);
 
-        Set<String> requestNumbers = cardRequest.getTokens("ticket_id");
+        return cards(auth, baseUrl, routingPrefix, locale, cardRequest, request)
+                .as(Reactive::collectCards)
+                .subscriberContext(Reactive.setupContext());
+    }
 
-        if (CollectionUtils.isEmpty(requestNumbers)) {
-            return Mono.just(new Cards());
+    @PostMapping(
+            path = "/cards/requests",
+            produces = {CardStreams.NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE},
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseBodyEmitter streamCards(
+            @RequestHeader(AUTH_HEADER) String auth,
+            @RequestHeader(BASE_URL_HEADER) String baseUrl,
+            @RequestHeader(ROUTING_PREFIX) String routingPrefix,
+            Locale locale,
+            @Valid @RequestBody CardRequest cardRequest,
+            final HttpRequest request
+    ) {
+        logger.trace("streamCards called, baseUrl={}, routingPrefix={}, request={}", baseUrl, routingPrefix, cardRequest);
+
+        return CardStreams.stream(() -> cards(auth, baseUrl, routingPrefix, locale, cardRequest, request), request);
+    }
+
+    private Flux<Card> cards(
+            String auth,
+            String baseUrl,
+            String routingPrefix,
+            Locale locale,
+            CardRequest cardRequest,
+            HttpRequest request
+    ) {
+        Set<String> requestNumbers = validRequestNumbers(cardRequest.getTokens("ticket_id"));
+
+        if (requestNumbers.isEmpty()) {
+            return Flux.empty();
         }
 
         String email = cardRequest.getTokenSingleValue("email");
 
         if (email == null) {
-            return Mono.just(new Cards());
+            return Flux.empty();
+        }
+
+        // '^' would end the dot-walked approver.email condition early
+        if (batch && !email.contains("^")) {
+            return batchedCards(auth, baseUrl, routingPrefix, locale, email, requestNumbers, request);
         }
 
         return callForUserSysId(baseUrl, email, auth)
-                .flux()
-                .flatMap(userSysId -> callForApprovalRequests(baseUrl, auth, userSysId))
-                .flatMap(approvalRequest -> callForAndAggregateRequestInfo(baseUrl, auth, approvalRequest))
+                .flatMapMany(userSysId -> callForApprovalRequests(baseUrl, auth, userSysId, requestNumbers)
+                        .doOnError(WebClientResponseException.class, e -> {
+                            // The cached sys_id may be what's no longer allowed
+                            if (e.getStatusCode() == HttpStatus.UNAUTHORIZED || e.getStatusCode() == HttpStatus.FORBIDDEN) {
+                                userSysIds.evict(baseUrl, email, auth);
+                            }
+                        }))
+                .collectList()
+                .flatMapMany(approvalRequests -> callForAndAggregateRequestInfo(baseUrl, auth, approvalRequests))
+                // Still needed when the approvals weren't filtered by number
                 .filter(info -> requestNumbers.contains(info.getInfo().getNumber()))
-                .flatMap(approvalRequestWithInfo -> callForAndAggregateRequestedItems(baseUrl, auth, approvalRequestWithInfo))
-                .reduce(
-                        new Cards(),
-                        (cards, info) -> appendCard(cards, info, routingPrefix, locale, request)
-                )
-                .subscriberContext(Reactive.setupContext());
+                .collectList()
+                .flatMapMany(approvalRequests -> callForAndAggregateRequestedItems(baseUrl, auth, approvalRequests))
+                .map(info -> makeCard(routingPrefix, info, locale, request));
+    }
+
+    private static Set<String> validRequestNumbers(Set<String> ticketIds) {
+        if (CollectionUtils.isEmpty(ticketIds)) {
+            return Collections.emptySet();
+        }
+        Set<String> requestNumbers = new HashSet<>();
+        for (String ticketId : ticketIds) {
+            if (REQUEST_NUMBER.matcher(ticketId).matches()) {
+                requestNumbers.add(ticketId);
+            } else {
+                logger.warn("Ignoring ticket_id {}, it isn't a request number", ticketId);
+            }
+        }
+        return requestNumbers;
+    }
+
+    /*
+     * Everything is read by the ticket numbers in the card request, so the
+     * reads don't depend on each other and can go in one batch: the
+     * approvals dot-walk to their approver's email (instead of needing the
+     * user's sys_id first), and the requested items to their request's
+     * number.
+     */
+    private Flux<Card> batchedCards(
+            String auth,
+            String baseUrl,
+            String routingPrefix,
+            Locale locale,
+            String email,
+            Set<String> requestNumbers,
+            HttpRequest request
+    ) {
+        logger.trace("batchedCards called: baseUrl={}, requestNumbers={}", baseUrl, requestNumbers);
+
+        // Sorted, so the same tickets always make the same URLs
+        String numbers = String.join(",", new TreeSet<>(requestNumbers));
+
+        String approvalFields = joinFields(
+                SysApprovalApprover.Fields.SYS_ID,
+                SysApprovalApprover.Fields.SYSAPPROVAL,
+                SysApprovalApprover.Fields.COMMENTS,
+                SysApprovalApprover.Fields.DUE_DATE,
+                SysApprovalApprover.Fields.SYS_CREATED_BY
+        );
+        String requestFields = joinFields(
+                ScRequest.Fields.SYS_ID,
+                ScRequest.Fields.PRICE,
+                ScRequest.Fields.NUMBER
+        );
+        String itemFields = joinFields(
+                ScRequestedItem.Fields.SYS_ID,
+                ScRequestedItem.Fields.PRICE,
+                ScRequestedItem.Fields.REQUEST,
+                ScRequestedItem.Fields.SHORT_DESCRIPTION,
+                ScRequestedItem.Fields.QUANTITY
+        );
+
+        Map<String, String> reads = ImmutableMap.of(
+                SysApprovalApprover.TABLE_NAME, UriComponentsBuilder
+                        .fromPath(TABLE_API + SysApprovalApprover.TABLE_NAME)
+                        .queryParam(SNOW_SYS_PARAM_FIELDS, approvalFields)
+                        .queryParam(SNOW_SYS_PARAM_LIMIT, MAX_APPROVAL_RESULTS)
+                        .queryParam(SysApprovalApprover.Fields.SOURCE_TABLE.toString(), ScRequest.TABLE_NAME)
+                        .queryParam(SysApprovalApprover.Fields.STATE.toString(), SysApprovalApprover.States.REQUESTED)
+                        .queryParam(SNOW_SYS_PARAM_QUERY, SysApprovalApprover.Fields.APPROVER + "." + SysUser.Fields.EMAIL + "=" + email
+                                + "^" + SysApprovalApprover.Fields.SYSAPPROVAL + "." + ScRequest.Fields.NUMBER + "IN" + numbers)
+                        .build()
+                        .encode()
+                        .toUriString(),
+                ScRequest.TABLE_NAME, UriComponentsBuilder
+                        .fromPath(TABLE_API + ScRequest.TABLE_NAME)
+                        .queryParam(SNOW_SYS_PARAM_FIELDS, requestFields)
+                        .queryParam(SNOW_SYS_PARAM_LIMIT, requestNumbers.size())
+                        .queryParam(SNOW_SYS_PARAM_QUERY, ScRequest.Fields.NUMBER + "IN" + numbers)
+                        .build()
+                        .encode()
+                        .toUriString(),
+                ScRequestedItem.TABLE_NAME, UriComponentsBuilder
+                        .fromPath(TABLE_API + ScRequestedItem.TABLE_NAME)
+                        .queryParam(SNOW_SYS_PARAM_FIELDS, itemFields)
+                        .queryParam(SNOW_SYS_PARAM_LIMIT, MAX_APPROVAL_RESULTS)
+                        .queryParam(SNOW_SYS_PARAM_QUERY, ScRequestedItem.Fields.REQUEST + "." + ScRequest.Fields.NUMBER + "IN" + numbers)
+                        .build()
+                        .encode()
+                        .toUriString()
+        );
+
+        return batchApi.get(baseUrl, auth, reads)
+                .flatMapMany(responses -> {
+                    Map<String, Request> infoBySysId = responses.get(ScRequest.TABLE_NAME).<List<Map<String, Object>>>read(RESULTS).stream()
+                            .collect(Collectors.toMap(
+                                    reqInfo -> (String) reqInfo.get(ScRequest.Fields.SYS_ID.toString()),
+                                    this::convertJsonDocToRequest
+                            ));
+                    Map<String, List<RequestedItem>> itemsBySysId = responses.get(ScRequestedItem.TABLE_NAME).<List<Map<String, Object>>>read(RESULTS).stream()
+                            .map(this::convertJsonDocToRequestedItem)
+                            .collect(Collectors.groupingBy(RequestedItem::getRequestSysId));
+
+                    return Flux.fromIterable(responses.get(SysApprovalApprover.TABLE_NAME).<List<Map<String, Object>>>read(RESULTS))
+                            .map(this::convertJsonDocToApprovalReq)
+                            .filter(approvalRequest -> infoBySysId.containsKey(approvalRequest.getApprovalSysId()))
+                            .filter(approvalRequest -> requestNumbers.contains(infoBySysId.get(approvalRequest.getApprovalSysId()).getNumber()))
+                            .map(approvalRequest -> new ApprovalRequestWithItems(
+                                    new ApprovalRequestWithInfo(approvalRequest, infoBySysId.get(approvalRequest.getApprovalSysId())),
+                                    itemsBySysId.getOrDefault(approvalRequest.getApprovalSysId(), Collections.emptyList())
+                            ));
+                })
+                .map(info -> makeCard(routingPrefix, info, locale, request));
     }
 
     private Mono<String> callForUserSysId(
@@ -137,7 +346,7 @@ public class ServiceNowController {
     ) {
         logger.trace("callForUserSysId called: baseUrl={}", baseUrl);
 
-        return rest.get()
+        return userSysIds.get(baseUrl, email, auth, rest.get()
                 .uri(UriComponentsBuilder
                         .fromHttpUrl(baseUrl)
                         .path("/api/now/table/{userTableName}")
@@ -157,10 +366,11 @@ public class ServiceNowController {
                         )
                         .encode()
                         .toUri())
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, TABLE_API + SysUser.TABLE_NAME)
                 .header(AUTHORIZATION, auth)
                 .retrieve()
                 .bodyToMono(JsonDocument.class)
-                .flatMap(Reactive.wrapFlatMapper(userInfoResponse -> {
+                .flatMap(userInfoResponse -> {
                     String userSysId = userInfoResponse.read("$.result[0]." + SysUser.Fields.SYS_ID);
                     if (userSysId == null) {
                         logger.warn("sys_id for {} not found in {}, returning empty cards", email, baseUrl);
@@ -172,9 +382,10 @@ public class ServiceNowController {
     private Flux<ApprovalRequest> callForApprovalRequests(
             String baseUrl,
             String auth,
-            String userSysId
+            String userSysId,
+            Set<String> requestNumbers
     ) {
-        logger.trace("callForApprovalRequests called: baseUrl={}, userSysId={}", baseUrl, userSysId);
+        logger.trace("callForApprovalRequests called: baseUrl={}, userSysId={}, requestNumbers={}", baseUrl, userSysId, requestNumbers);
 
         String fields = joinFields(
                 SysApprovalApprover.Fields.SYS_ID,
@@ -183,15 +394,21 @@ public class ServiceNowController {
                 SysApprovalApprover.Fields.DUE_DATE,
                 SysApprovalApprover.Fields.SYS_CREATED_BY
         );
+        UriComponentsBuilder uri = UriComponentsBuilder
+                .fromHttpUrl(baseUrl)
+                .path("/api/now/table/{apTableName}")
+                .queryParam(SNOW_SYS_PARAM_FIELDS, fields)
+                .queryParam(SNOW_SYS_PARAM_LIMIT, MAX_APPROVAL_RESULTS)
+                .queryParam(SysApprovalApprover.Fields.SOURCE_TABLE.toString(), ScRequest.TABLE_NAME)
+                .queryParam(SysApprovalApprover.Fields.STATE.toString(), SysApprovalApprover.States.REQUESTED)
+                .queryParam(SysApprovalApprover.Fields.APPROVER.toString(), userSysId);
+        if (filterApprovalsByNumber) {
+            // Sorted, so the same tickets always make the same URL
+            uri.queryParam(SNOW_SYS_PARAM_QUERY, SysApprovalApprover.Fields.SYSAPPROVAL + "." + ScRequest.Fields.NUMBER
+                    + "IN" + String.join(",", new TreeSet<>(requestNumbers)));
+        }
         return rest.get()
-                .uri(UriComponentsBuilder
-                        .fromHttpUrl(baseUrl)
-                        .path("/api/now/table/{apTableName}")
-                        .queryParam(SNOW_SYS_PARAM_FIELDS, fields)
-                        .queryParam(SNOW_SYS_PARAM_LIMIT, MAX_APPROVAL_RESULTS)
-                        .queryParam(SysApprovalApprover.Fields.SOURCE_TABLE.toString(), ScRequest.TABLE_NAME)
-                        .queryParam(SysApprovalApprover.Fields.STATE.toString(), SysApprovalApprover.States.REQUESTED)
-                        .queryParam(SysApprovalApprover.Fields.APPROVER.toString(), userSysId)
+                .uri(uri
                         .buildAndExpand(
                                 ImmutableMap.of(
                                         "apTableName", SysApprovalApprover.TABLE_NAME
@@ -199,6 +416,7 @@ public class ServiceNowController {
                         )
                         .encode()
                         .toUri())
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, TABLE_API + SysApprovalApprover.TABLE_NAME)
                 .header(AUTHORIZATION, auth)
                 .retrieve()
                 .bodyToMono(JsonDocument.class)
@@ -213,7 +431,7 @@ public class ServiceNowController {
                  * what information I had, but I'm not sure it follows the way we've been doing our code for the other
                  * microservices.
                  */
-                .flatMapMany(approvalRequests -> Flux.fromIterable(approvalRequests.<List<Map<String, Object>>>read("$.result[*]")))
+                .flatMapMany(approvalRequests -> Flux.fromIterable(approvalRequests.<List<Map<String, Object>>>read(RESULTS)))
                 .map(this::convertJsonDocToApprovalReq);
 
     }
@@ -238,23 +456,34 @@ public class ServiceNowController {
         );
     }
 
-    private Mono<ApprovalRequestWithInfo> callForAndAggregateRequestInfo(
+    private Flux<ApprovalRequestWithInfo> callForAndAggregateRequestInfo(
             String baseUrl,
             String auth,
-            ApprovalRequest approvalRequest
+            List<ApprovalRequest> approvalRequests
     ) {
-        logger.trace("callForAndAggregateRequestInfo called: baseUrl={}, approvalRequest={}", baseUrl, approvalRequest);
+        logger.trace("callForAndAggregateRequestInfo called: baseUrl={}, approvalRequests={}", baseUrl, approvalRequests);
+
+        if (approvalRequests.isEmpty()) {
+            return Flux.empty();
+        }
 
-        return callForRequestInfo(baseUrl, auth, approvalRequest)
-               .map(requestNumber -> new ApprovalRequestWithInfo(approvalRequest, requestNumber));
+        List<String> requestSysIds = approvalRequests.stream()
+                .map(ApprovalRequest::getApprovalSysId)
+                .distinct()
+                .collect(Collectors.toList());
+
+        return callForRequestInfo(baseUrl, auth, requestSysIds)
+                .flatMapMany(infoBySysId -> Flux.fromIterable(approvalRequests)
+                        .filter(approvalRequest -> infoBySysId.containsKey(approvalRequest.getApprovalSysId()))
+                        .map(approvalRequest -> new ApprovalRequestWithInfo(approvalRequest, infoBySysId.get(approvalRequest.getApprovalSysId()))));
     }
 
-    private Mono<Request> callForRequestInfo(
+    private Mono<Map<String, Request>> callForRequestInfo(
             String baseUrl,
             String auth,
-            ApprovalRequest approvalRequest
+            List<String> requestSysIds
     ) {
-        logger.trace("callForRequestInfo called: baseUrl={}, approvalRequest={}", baseUrl, approvalRequest);
+        logger.trace("callForRequestInfo called: baseUrl={}, requestSysIds={}", baseUrl, requestSysIds);
 
         String fields = joinFields(
                 ScRequest.Fields.SYS_ID,
@@ -262,49 +491,72 @@ public class ServiceNowController {
                 ScRequest.Fields.NUMBER
         );
 
-        return rest.get()
-                .uri(UriComponentsBuilder
-                        .fromHttpUrl(baseUrl)
-                        .path("/api/now/table/{scTableName}/{approvalSysId}")
-                        .queryParam(SNOW_SYS_PARAM_FIELDS, joinFields(fields))
-                        .buildAndExpand(
-                                ImmutableMap.of(
-                                        "scTableName", ScRequest.TABLE_NAME,
-                                        "approvalSysId", approvalRequest.getApprovalSysId()
-                                )
-                        )
-                        .encode()
-                        .toUri())
-                .header(AUTHORIZATION, auth)
-                .retrieve()
-                .bodyToMono(JsonDocument.class)
-                .map(
-                        reqInfo ->
-                                new Request(
-                                        reqInfo.read(RESULT_PREFIX + ScRequest.Fields.NUMBER),
-                                        reqInfo.read(RESULT_PREFIX + ScRequest.Fields.PRICE)
+        return Flux.fromIterable(Lists.partition(requestSysIds, MAX_SYS_IDS_PER_QUERY))
+                .flatMap(sysIds -> rest.get()
+                        .uri(UriComponentsBuilder
+                                .fromHttpUrl(baseUrl)
+                                .path("/api/now/table/{scTableName}")
+                                .queryParam(SNOW_SYS_PARAM_FIELDS, fields)
+                                .queryParam(SNOW_SYS_PARAM_LIMIT, sysIds.size())
+                                .queryParam(SNOW_SYS_PARAM_QUERY, ScRequest.Fields.SYS_ID + "IN" + String.join(",", sysIds))
+                                .buildAndExpand(
+                                        ImmutableMap.of(
+                                                "scTableName", ScRequest.TABLE_NAME
+                                        )
                                 )
+                                .encode()
+                                .toUri())
+                        .attribute(BackendMetricsFilter.URI_TEMPLATE, TABLE_API + ScRequest.TABLE_NAME)
+                        .header(AUTHORIZATION, auth)
+                        .retrieve()
+                        .bodyToMono(JsonDocument.class)
+                        .flatMapMany(reqInfos -> Flux.fromIterable(reqInfos.<List<Map<String, Object>>>read(RESULTS))))
+                .collectMap(
+                        reqInfo -> (String) reqInfo.get(ScRequest.Fields.SYS_ID.toString()),
+                        this::convertJsonDocToRequest
                 );
     }
 
-    private Mono<ApprovalRequestWithItems> callForAndAggregateRequestedItems(
+    private Request convertJsonDocToRequest(
+            Map<String, Object> result
+    ) {
+        return new Request(
+                (String) result.get(ScRequest.Fields.NUMBER.toString()),
+                (String) result.get(ScRequest.Fields.PRICE.toString())
+        );
+    }
+
+    private Flux<ApprovalRequestWithItems> callForAndAggregateRequestedItems(
             String baseUrl,
             String auth,
-            ApprovalRequestWithInfo approvalRequest
+            List<ApprovalRequestWithInfo> approvalRequests
     ) {
-        logger.trace("callForAndAggregateRequestedItems called: baseUrl={}, approvalRequest={}", baseUrl, approvalRequest);
+        logger.trace("callForAndAggregateRequestedItems called: baseUrl={}, approvalRequests={}", baseUrl, approvalRequests);
 
-        return callForRequestedItems(baseUrl, auth, approvalRequest)
-                .collectList()
-                .map(items -> new ApprovalRequestWithItems(approvalRequest, items));
+        if (approvalRequests.isEmpty()) {
+            return Flux.empty();
+        }
+
+        List<String> requestSysIds = approvalRequests.stream()
+                .map(ApprovalRequest::getApprovalSysId)
+                .distinct()
+                .collect(Collectors.toList());
+
+        return callForRequestedItems(baseUrl, auth, requestSysIds)
+                .collectMultimap(RequestedItem::getRequestSysId)
+                .flatMapMany(itemsBySysId -> Flux.fromIterable(approvalRequests)
+                        .map(approvalRequest -> new ApprovalRequestWithItems(
+                                approvalRequest,
+                                new ArrayList<>(itemsBySysId.getOrDefault(approvalRequest.getApprovalSysId(), Collections.emptyList()))
+                        )));
     }
 
     private Flux<RequestedItem> callForRequestedItems(
             String baseUrl,
             String auth,
-            ApprovalRequestWithInfo approvalRequest
+            List<String> requestSysIds
     ) {
-        logger.trace("callForRequestedItems called: baseUrl={}, approvalRequest={}", baseUrl, approvalRequest);
+        logger.trace("callForRequestedItems called: baseUrl={}, requestSysIds={}", baseUrl, requestSysIds);
 
         String fields = joinFields(
                 ScRequestedItem.Fields.SYS_ID,
@@ -314,13 +566,14 @@ public class ServiceNowController {
                 ScRequestedItem.Fields.QUANTITY
         );
 
-        return rest.get()
-                .uri(              UriComponentsBuilder
+        return Flux.fromIterable(Lists.partition(requestSysIds, MAX_SYS_IDS_PER_QUERY))
+                .flatMap(sysIds -> rest.get()
+                        .uri(UriComponentsBuilder
                                 .fromHttpUrl(baseUrl)
                                 .path("/api/now/table/{scTableName}")
-                                .queryParam(SNOW_SYS_PARAM_FIELDS, joinFields(fields))
+                                .queryParam(SNOW_SYS_PARAM_FIELDS, fields)
                                 .queryParam(SNOW_SYS_PARAM_LIMIT, MAX_APPROVAL_RESULTS)
-                                .queryParam(ScRequestedItem.Fields.REQUEST.toString(), approvalRequest.getApprovalSysId())
+                                .queryParam(SNOW_SYS_PARAM_QUERY, ScRequestedItem.Fields.REQUEST + "IN" + String.join(",", sysIds))
                                 .buildAndExpand(
                                         ImmutableMap.of(
                                                 "scTableName", ScRequestedItem.TABLE_NAME
@@ -328,10 +581,11 @@ public class ServiceNowController {
                                 )
                                 .encode()
                                 .toUri())
-                .header(AUTHORIZATION, auth)
-                .retrieve()
-                .bodyToMono(JsonDocument.class)
-                .flatMapMany(items -> Flux.fromIterable(items.<List<Map<String, Object>>>read("$.result[*]")))
+                        .attribute(BackendMetricsFilter.URI_TEMPLATE, TABLE_API + ScRequestedItem.TABLE_NAME)
+                        .header(AUTHORIZATION, auth)
+                        .retrieve()
+                        .bodyToMono(JsonDocument.class)
+                        .flatMapMany(items -> Flux.fromIterable(items.<List<Map<String, Object>>>read(RESULTS))))
                 .map(this::convertJsonDocToRequestedItem);
     }
 
@@ -349,25 +603,11 @@ public class ServiceNowController {
         );
     }
 
-    private Cards appendCard(Cards cards,
-                             ApprovalRequestWithItems info,
-                             String routingPrefix,
-                             Locale locale,
-                             HttpServletRequest request) {
-        logger.trace("appendCard called: cards={}, info={}, routingPrefix={}", cards, info, routingPrefix);
-
-        cards.getCards().add(
-                makeCard(routingPrefix, info, locale, request)
-        );
-
-        return cards;
-    }
-
     private Card makeCard(
             String routingPrefix,
             ApprovalRequestWithItems info,
             Locale locale,
-            HttpServletRequest request
+            HttpRequest request
     ) {
         logger.trace("makeCard called: routingPrefix={}, info={}", routingPrefix, info);
 
@@ -512,6 +752,7 @@ public class ServiceNowController {
                         )
                         .encode()
                         .toUri())
+                .attribute(BackendMetricsFilter.URI_TEMPLATE, TABLE_API + SysApprovalApprover.TABLE_NAME + "/{requestSysId}")
                 .header(AUTHORIZATION, auth)
                 .contentType(APPLICATION_JSON)
                 .syncBody(body.build())
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.servicenow;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Remembers which sys_user sys_id an email resolved to on a ServiceNow
+ * instance, so card requests don't each start with a sys_user lookup.
+ * <p>
+ * Entries are keyed by the instance's URL, the email and a hash of the
+ * Authorization header, so a sys_id is only reused with the credentials that
+ * were allowed to read it. Emails with no user are remembered too, for a
+ * shorter time, so users who were just added show up soon. Entries expire
+ * after they're written, and the least recently used are evicted once the
+ * cache is full.
+ */
+@Component
+class UserSysIdCache {
+
+    private final Cache<String, String> known;
+    private final Cache<String, Boolean> unknown;
+
+    @Autowired
+    UserSysIdCache(
+            @Value("${servicenow.connector.userCache.maxSize:10000}") long maxSize,
+            @Value("${servicenow.connector.userCache.ttl:3600000}") long ttl,
+            @Value("${servicenow.connector.userCache.unknownTtl:300000}") long unknownTtl
+    ) {
+        this.known = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .build();
+        this.unknown = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(unknownTtl, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @param lookUp finds the user's sys_id when it isn't cached, completing
+     *               empty if there's no such user
+     * @return the user's sys_id, or empty if there's no such user
+     */
+    Mono<String> get(String baseUrl, String email, String auth, Mono<String> lookUp) {
+        String key = key(baseUrl, email, auth);
+        String sysId = known.getIfPresent(key);
+        if (sysId != null) {
+            return Mono.just(sysId);
+        }
+        if (unknown.getIfPresent(key) != null) {
+            return Mono.empty();
+        }
+        // Errors aren't cached; the next request looks the user up again
+        return lookUp.doOnSuccess(found -> {
+            if (found == null) {
+                unknown.put(key, Boolean.TRUE);
+            } else {
+                known.put(key, found);
+            }
+        });
+    }
+
+    /**
+     * Forgets the user, e.g. once ServiceNow has stopped accepting the
+     * credentials it was found with.
+     */
+    void evict(String baseUrl, String email, String auth) {
+        String key = key(baseUrl, email, auth);
+        known.invalidate(key);
+        unknown.invalidate(key);
+    }
+
+    private static String key(String baseUrl, String email, String auth) {
+        return Hashing.sha256().hashString(auth, UTF_8) + " " + baseUrl + " " + email;
+    }
+}
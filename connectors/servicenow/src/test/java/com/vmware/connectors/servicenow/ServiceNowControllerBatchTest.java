@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.servicenow;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.vmware.connectors.test.ControllerTestsBase;
+import com.vmware.connectors.test.JsonNormalizer;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.Base64;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.http.HttpMethod.POST;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
+
+/**
+ * Card requests with servicenow.connector.batch on: the approvals, requests
+ * and requested items are read in one round trip to the Batch API, instead
+ * of the four calls {@link ServiceNowControllerTest} expects.
+ */
+@TestPropertySource(properties = "servicenow.connector.batch=true")
+class ServiceNowControllerBatchTest extends ControllerTestsBase {
+
+    private static final String SNOW_AUTH_TOKEN = "test-GOOD-auth-token";
+
+    @Test
+    void testRequestCardsInOneRoundTrip() throws Exception {
+        testRequestCardsInOneRoundTrip("card.json");
+    }
+
+    @Test
+    void testRequestCardsIgnoresMalformedTickets() throws Exception {
+        // The same batch as for the well-formed tickets alone
+        testRequestCardsInOneRoundTrip("malformed-tickets.json");
+    }
+
+    @Test
+    void testRequestCardsOnlyMalformedTickets() throws Exception {
+        // No batch at all
+        requestCards("only-malformed-tickets.json")
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .expectBody().json(fromFile("/servicenow/responses/success/cards/empty-tickets.json"));
+    }
+
+    private void testRequestCardsInOneRoundTrip(String requestFile) throws Exception {
+        // Any other call fails the test
+        mockBackend.expect(once(), requestTo("/api/now/v1/batch"))
+                .andExpect(method(POST))
+                .andExpect(header(AUTHORIZATION, "Bearer " + SNOW_AUTH_TOKEN))
+                .andExpect(jsonPath("$.rest_requests[*].id", containsInAnyOrder("sysapproval_approver", "sc_request", "sc_req_item")))
+                .andExpect(jsonPath("$.rest_requests[0].url", is("/api/now/table/sysapproval_approver"
+                        + "?sysparm_fields=sys_id,sysapproval,comments,due_date,sys_created_by&sysparm_limit=10000"
+                        + "&source_table=sc_request&state=requested"
+                        + "&sysparm_query=approver.email%3Djbard@vmware.com%5Esysapproval.numberINREQ0010002,REQ0010003,REQ0010004")))
+                .andExpect(jsonPath("$.rest_requests[1].url", is("/api/now/table/sc_request"
+                        + "?sysparm_fields=sys_id,price,number&sysparm_limit=3"
+                        + "&sysparm_query=numberINREQ0010002,REQ0010003,REQ0010004")))
+                .andExpect(jsonPath("$.rest_requests[2].url", is("/api/now/table/sc_req_item"
+                        + "?sysparm_fields=sys_id,price,request,short_description,quantity&sysparm_limit=10000"
+                        + "&sysparm_query=request.numberINREQ0010002,REQ0010003,REQ0010004")))
+                .andRespond(withSuccess(batchResponse(ImmutableMap.of(
+                        "sysapproval_approver", fromFile("/servicenow/fake/approval-requests.json"),
+                        "sc_request", fromFile("/servicenow/fake/requests.json"),
+                        "sc_req_item", fromFile("/servicenow/fake/requested-items.json")
+                ), 200), APPLICATION_JSON));
+
+        String body = requestCards(requestFile)
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .returnResult(String.class)
+                .getResponseBody()
+                .collect(Collectors.joining())
+                .map(JsonNormalizer::forCards)
+                .block();
+
+        assertThat(body, sameJSONAs(fromFile("/servicenow/responses/success/cards/card.json")).allowingAnyArrayOrdering());
+    }
+
+    @Test
+    void testRequestCardsBatchedRequestUnauthorized() throws Exception {
+        mockBackend.expect(requestTo("/api/now/v1/batch"))
+                .andRespond(withSuccess(batchResponse(ImmutableMap.of(
+                        "sysapproval_approver", "{\"error\":{\"message\":\"User Not Authenticated\"}}",
+                        "sc_request", "{\"result\":[]}",
+                        "sc_req_item", "{\"result\":[]}"
+                ), 401), APPLICATION_JSON));
+
+        requestCards("card.json")
+                .expectStatus().isBadRequest()
+                .expectHeader().valueEquals("X-Backend-Status", "401");
+    }
+
+    private WebTestClient.ResponseSpec requestCards(String requestFile) throws Exception {
+        return webClient.post()
+                .uri("/cards/requests")
+                .header(AUTHORIZATION, "Bearer " + accessToken())
+                .contentType(APPLICATION_JSON)
+                .accept(APPLICATION_JSON)
+                .header("x-servicenow-authorization", "Bearer " + SNOW_AUTH_TOKEN)
+                .header("x-servicenow-base-url", mockBackend.url(""))
+                .header("x-routing-prefix", "https://hero/connectors/servicenow/")
+                .headers(ControllerTestsBase::headers)
+                .syncBody(fromFile("/servicenow/requests/valid/cards/" + requestFile))
+                .exchange();
+    }
+
+    /*
+     * What the Batch API answers: each request's response, with its body
+     * base64 encoded. The first one gets the given status.
+     */
+    private String batchResponse(Map<String, String> bodies, int firstStatus) throws Exception {
+        ImmutableList.Builder<Map<String, Object>> serviced = ImmutableList.builder();
+        int status = firstStatus;
+        for (Map.Entry<String, String> body : bodies.entrySet()) {
+            serviced.add(ImmutableMap.of(
+                    "id", body.getKey(),
+                    "body", Base64.getEncoder().encodeToString(body.getValue().getBytes(UTF_8)),
+                    "status_code", status,
+                    "status_text", status == 200 ? "OK" : "Unauthorized",
+                    "execution_time", 12
+            ));
+            status = 200;
+        }
+        return mapper.writeValueAsString(ImmutableMap.of(
+                "batch_request_id", "test-batch-id",
+                "serviced_requests", serviced.build(),
+                "unserviced_requests", ImmutableList.of()
+        ));
+    }
+}
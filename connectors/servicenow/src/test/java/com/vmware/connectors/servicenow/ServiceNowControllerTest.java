@@ -14,6 +14,7 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
 import java.util.Arrays;
@@ -33,6 +34,8 @@ import static org.springframework.test.web.client.response.MockRestResponseCreat
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withUnauthorizedRequest;
 import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 
+// Every test looks the user up; ServiceNowControllerUserCacheTest covers the cache
+@TestPropertySource(properties = "servicenow.connector.userCache.maxSize=0")
 class ServiceNowControllerTest extends ControllerTestsBase {
 
     private static final String SNOW_AUTH_TOKEN = "test-GOOD-auth-token";
@@ -209,35 +212,52 @@ class ServiceNowControllerTest extends ControllerTestsBase {
                 .andExpect(method(GET))
                 .andRespond(withSuccess(fromFile("/servicenow/fake/user.json"), APPLICATION_JSON));
 
-        mockBackend.expect(requestTo("/api/now/table/sysapproval_approver?sysparm_fields=sys_id,sysapproval,comments,due_date,sys_created_by&sysparm_limit=10000&source_table=sc_request&state=requested&approver=test-user-id"))
+        mockBackend.expect(requestTo(approvalRequestsUrl()))
                 .andExpect(header(AUTHORIZATION, "Bearer " + SNOW_AUTH_TOKEN))
                 .andExpect(method(GET))
                 .andRespond(withSuccess(fromFile("/servicenow/fake/approval-requests.json"), APPLICATION_JSON));
 
-        mockBackend.expect(requestTo("/api/now/table/sc_request/test-sc-request-id-1?sysparm_fields=sys_id,price,number"))
+        mockBackend.expect(requestTo("/api/now/table/sc_request?sysparm_fields=sys_id,price,number&sysparm_limit=3&sysparm_query=sys_idINtest-sc-request-id-1,test-sc-request-id-2,test-sc-request-id-3"))
                 .andExpect(header(AUTHORIZATION, "Bearer " + SNOW_AUTH_TOKEN))
                 .andExpect(method(GET))
-                .andRespond(withSuccess(fromFile("/servicenow/fake/request-1.json"), APPLICATION_JSON));
+                .andRespond(withSuccess(fromFile("/servicenow/fake/requests.json"), APPLICATION_JSON));
 
-        mockBackend.expect(requestTo("/api/now/table/sc_request/test-sc-request-id-2?sysparm_fields=sys_id,price,number"))
+        // Only the requests whose numbers were asked for
+        mockBackend.expect(requestTo("/api/now/table/sc_req_item?sysparm_fields=sys_id,price,request,short_description,quantity&sysparm_limit=10000&sysparm_query=requestINtest-sc-request-id-2,test-sc-request-id-3"))
                 .andExpect(header(AUTHORIZATION, "Bearer " + SNOW_AUTH_TOKEN))
                 .andExpect(method(GET))
-                .andRespond(withSuccess(fromFile("/servicenow/fake/request-2.json"), APPLICATION_JSON));
+                .andRespond(withSuccess(fromFile("/servicenow/fake/requested-items.json"), APPLICATION_JSON));
+    }
 
-        mockBackend.expect(requestTo("/api/now/table/sc_request/test-sc-request-id-3?sysparm_fields=sys_id,price,number"))
-                .andExpect(header(AUTHORIZATION, "Bearer " + SNOW_AUTH_TOKEN))
-                .andExpect(method(GET))
-                .andRespond(withSuccess(fromFile("/servicenow/fake/request-3.json"), APPLICATION_JSON));
+    String approvalRequestsUrl() {
+        return "/api/now/table/sysapproval_approver?sysparm_fields=sys_id,sysapproval,comments,due_date,sys_created_by&sysparm_limit=10000&source_table=sc_request&state=requested&approver=test-user-id"
+                + "&sysparm_query=sysapproval.numberINREQ0010002,REQ0010003,REQ0010004";
+    }
 
-        mockBackend.expect(requestTo("/api/now/table/sc_req_item?sysparm_fields=sys_id,price,request,short_description,quantity&sysparm_limit=10000&request=test-sc-request-id-2"))
-                .andExpect(header(AUTHORIZATION, "Bearer " + SNOW_AUTH_TOKEN))
-                .andExpect(method(GET))
-                .andRespond(withSuccess(fromFile("/servicenow/fake/requested-items-2.json"), APPLICATION_JSON));
+    @Test
+    void testRequestCardsIgnoresMalformedTickets() throws Exception {
+        // Only the well-formed numbers make it into sysparm_query
+        trainServiceNowForCards();
 
-        mockBackend.expect(requestTo("/api/now/table/sc_req_item?sysparm_fields=sys_id,price,request,short_description,quantity&sysparm_limit=10000&request=test-sc-request-id-3"))
-                .andExpect(header(AUTHORIZATION, "Bearer " + SNOW_AUTH_TOKEN))
-                .andExpect(method(GET))
-                .andRespond(withSuccess(fromFile("/servicenow/fake/requested-items-3.json"), APPLICATION_JSON));
+        String body = requestCards(SNOW_AUTH_TOKEN, "valid/cards/malformed-tickets.json")
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .returnResult(String.class)
+                .getResponseBody()
+                .collect(Collectors.joining())
+                .map(JsonNormalizer::forCards)
+                .block();
+
+        assertThat(body, sameJSONAs(fromFile("/servicenow/responses/success/cards/card.json")).allowingAnyArrayOrdering());
+    }
+
+    @Test
+    void testRequestCardsOnlyMalformedTickets() throws Exception {
+        // Nothing is asked of ServiceNow
+        requestCards(SNOW_AUTH_TOKEN, "valid/cards/only-malformed-tickets.json")
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .expectBody().json(fromFile("/servicenow/responses/success/cards/empty-tickets.json"));
     }
 
     @Test
@@ -0,0 +1,21 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.servicenow;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs every {@link ServiceNowControllerTest} again with all the user's
+ * pending approvals fetched, and filtered by request number in the connector.
+ */
+@TestPropertySource(properties = "servicenow.connector.filterApprovalsByNumber=false")
+class ServiceNowControllerUnfilteredTest extends ServiceNowControllerTest {
+
+    @Override
+    String approvalRequestsUrl() {
+        return "/api/now/table/sysapproval_approver?sysparm_fields=sys_id,sysapproval,comments,due_date,sys_created_by&sysparm_limit=10000&source_table=sc_request&state=requested&approver=test-user-id";
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2018 VMware, Inc. All Rights Reserved.
+ * SPDX-License-Identifier: BSD-2-Clause
+ */
+
+package com.vmware.connectors.servicenow;
+
+import com.vmware.connectors.test.ControllerTestsBase;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.ExpectedCount.times;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withUnauthorizedRequest;
+
+/**
+ * The user's sys_id is looked up once and reused by the next card requests.
+ * Each test uses its own ServiceNow token, so they don't share cache entries.
+ */
+class ServiceNowControllerUserCacheTest extends ControllerTestsBase {
+
+    private static final String USER_URL = "/api/now/table/sys_user?sysparm_fields=sys_id&sysparm_limit=1&email=jbard@vmware.com";
+
+    private static final String APPROVALS_URL = "/api/now/table/sysapproval_approver?sysparm_fields=sys_id,sysapproval,comments,due_date,sys_created_by&sysparm_limit=10000&source_table=sc_request&state=requested&approver=test-user-id"
+            + "&sysparm_query=sysapproval.numberINREQ0010002,REQ0010003,REQ0010004";
+
+    private static final String NO_RESULTS = "{\"result\":[]}";
+
+    @Test
+    void testUserLookedUpOnce() throws Exception {
+        String snowAuthToken = "test-cached-user-token";
+
+        mockBackend.expect(once(), requestTo(USER_URL))
+                .andExpect(header(AUTHORIZATION, "Bearer " + snowAuthToken))
+                .andRespond(withSuccess(fromFile("/servicenow/fake/user.json"), APPLICATION_JSON));
+        mockBackend.expect(times(2), requestTo(APPROVALS_URL))
+                .andRespond(withSuccess(NO_RESULTS, APPLICATION_JSON));
+
+        requestCards(snowAuthToken)
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.cards").isEmpty();
+        requestCards(snowAuthToken)
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.cards").isEmpty();
+    }
+
+    @Test
+    void testUnknownUserRemembered() throws Exception {
+        String snowAuthToken = "test-unknown-user-token";
+
+        mockBackend.expect(once(), requestTo(USER_URL))
+                .andExpect(header(AUTHORIZATION, "Bearer " + snowAuthToken))
+                .andRespond(withSuccess(fromFile("/servicenow/fake/user-not-found.json"), APPLICATION_JSON));
+
+        requestCards(snowAuthToken)
+                .expectStatus().isOk()
+                .expectBody().json(fromFile("/servicenow/responses/success/cards/email-not-found.json"));
+        requestCards(snowAuthToken)
+                .expectStatus().isOk()
+                .expectBody().json(fromFile("/servicenow/responses/success/cards/email-not-found.json"));
+    }
+
+    @Test
+    void testUserForgottenOnAuthError() throws Exception {
+        String snowAuthToken = "test-revoked-user-token";
+
+        mockBackend.expect(times(2), requestTo(USER_URL))
+                .andExpect(header(AUTHORIZATION, "Bearer " + snowAuthToken))
+                .andRespond(withSuccess(fromFile("/servicenow/fake/user.json"), APPLICATION_JSON));
+        mockBackend.expect(times(2), requestTo(APPROVALS_URL))
+                .andRespond(withUnauthorizedRequest());
+
+        requestCards(snowAuthToken)
+                .expectStatus().isBadRequest()
+                .expectHeader().valueEquals("X-Backend-Status", "401");
+        requestCards(snowAuthToken)
+                .expectStatus().isBadRequest()
+                .expectHeader().valueEquals("X-Backend-Status", "401");
+    }
+
+    private WebTestClient.ResponseSpec requestCards(String snowAuthToken) throws Exception {
+        return webClient.post()
+                .uri("/cards/requests")
+                .header(AUTHORIZATION, "Bearer " + accessToken())
+                .contentType(APPLICATION_JSON)
+                .accept(APPLICATION_JSON)
+                .header("x-servicenow-authorization", "Bearer " + snowAuthToken)
+                .header("x-servicenow-base-url", mockBackend.url(""))
+                .header("x-routing-prefix", "https://hero/connectors/servicenow/")
+                .headers(ControllerTestsBase::headers)
+                .syncBody(fromFile("/servicenow/requests/valid/cards/card.json"))
+                .exchange();
+    }
+}